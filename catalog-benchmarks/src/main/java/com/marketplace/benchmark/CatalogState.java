@@ -0,0 +1,83 @@
+package com.marketplace.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import com.marketplace.CatalogApplication;
+import com.marketplace.model.Product;
+
+/**
+ * The catalog-service application context shared by the benchmarks of a fork. It runs on a random
+ * port with its in-memory H2 database and without service discovery, so the benchmarks measure the
+ * beans exactly as they are configured in production.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@State(Scope.Benchmark)
+public class CatalogState {
+
+  private ConfigurableApplicationContext context;
+
+  @Setup(Level.Trial)
+  public void start() {
+
+    // Read by the bootstrap context, before the application properties
+    System.setProperty("spring.cloud.config.enabled", "false");
+
+    context = new SpringApplicationBuilder(CatalogApplication.class)
+        .properties("server.port=0", "eureka.client.enabled=false", "logging.level.root=WARN")
+        .run();
+  }
+
+  @TearDown(Level.Trial)
+  public void stop() {
+    context.close();
+  }
+
+  public <T> T getBean(Class<T> type) {
+    return context.getBean(type);
+  }
+
+  public <T> T getBean(String name, Class<T> type) {
+    return context.getBean(name, type);
+  }
+
+  /**
+   * Binds a new request to the current thread, as the dispatcher servlet does for each request.
+   * The HATEOAS links are built from it.
+   */
+  public static void beginRequest() {
+    RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(
+        new MockHttpServletRequest("GET", "/products"), null));
+  }
+
+  public static void endRequest() {
+    RequestContextHolder.resetRequestAttributes();
+  }
+
+  public static Product product(long id) {
+    return new Product(id, "GAS" + id, "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(10000.0), "Blue");
+  }
+
+  public static List<Product> products(int count) {
+
+    List<Product> products = new ArrayList<Product>(count);
+    for (int i = 0; i < count; i++) {
+      products.add(product(10001 + i));
+    }
+    return products;
+  }
+
+}
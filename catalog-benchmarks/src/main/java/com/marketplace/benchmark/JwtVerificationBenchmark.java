@@ -0,0 +1,111 @@
+package com.marketplace.benchmark;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import com.marketplace.security.JwtTokenVerifier;
+import com.marketplace.security.JwtTokenVerifier.VerifiedJwt;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+/**
+ * Cost of authenticating a bearer token at the gateway, on a cache miss: the jjwt parser as used
+ * by the zuul-server <code>JwtTokenValidationFilter</code> up to its verified-token cache, against
+ * {@link JwtTokenVerifier}, for valid tokens and for tokens with a bad signature
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtVerificationBenchmark {
+
+  private static final String SECRET = "JwtSecretKey";
+
+  private static final String PREFIX = "Bearer ";
+
+  private String header = PREFIX + token();
+
+  private String forgedHeader = header.substring(0, header.length() - 4) + "AAAA";
+
+  private JwtTokenVerifier<SimpleGrantedAuthority> jwtTokenVerifier =
+      new JwtTokenVerifier<SimpleGrantedAuthority>(SECRET.getBytes(), SimpleGrantedAuthority::new);
+
+  @Benchmark
+  public UsernamePasswordAuthenticationToken parser() {
+    return parse(header);
+  }
+
+  @Benchmark
+  public UsernamePasswordAuthenticationToken parserForged() {
+    return parse(forgedHeader);
+  }
+
+  @Benchmark
+  public UsernamePasswordAuthenticationToken verifier() {
+    return verify(header);
+  }
+
+  @Benchmark
+  public UsernamePasswordAuthenticationToken verifierForged() {
+    return verify(forgedHeader);
+  }
+
+  private static UsernamePasswordAuthenticationToken parse(String header) {
+
+    String token = header.replace(PREFIX, "");
+
+    try {
+
+      Claims claims =
+          Jwts.parser().setSigningKey(SECRET.getBytes()).parseClaimsJws(token).getBody();
+
+      @SuppressWarnings("unchecked")
+      List<String> authorities = (List<String>) claims.get("authorities");
+
+      return new UsernamePasswordAuthenticationToken(claims.getSubject(), null,
+          authorities.stream().map(SimpleGrantedAuthority::new).collect(Collectors.toList()));
+
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private UsernamePasswordAuthenticationToken verify(String header) {
+
+    VerifiedJwt<SimpleGrantedAuthority> jwt = jwtTokenVerifier.verify(header, PREFIX.length());
+    return jwt == null ? null
+        : new UsernamePasswordAuthenticationToken(jwt.getSubject(), null, jwt.getAuthorities());
+  }
+
+  /**
+   * A token as issued by the auth-service for the <code>admin</code> user
+   */
+  private static String token() {
+
+    long now = System.currentTimeMillis();
+    return Jwts.builder().setSubject("admin")
+        .claim("authorities", Arrays.asList("ROLE_USER", "ROLE_ADMIN")).setIssuedAt(new Date(now))
+        .setExpiration(new Date(now + TimeUnit.DAYS.toMillis(1)))
+        .signWith(SignatureAlgorithm.HS512, SECRET.getBytes()).compact();
+  }
+
+}
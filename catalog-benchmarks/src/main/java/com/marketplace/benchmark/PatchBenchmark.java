@@ -0,0 +1,59 @@
+package com.marketplace.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.BeanUtils;
+import com.marketplace.model.Product;
+
+/**
+ * Cost of applying a partial update to a product: the reflective
+ * {@link Product#nullProperties()} plus {@link BeanUtils#copyProperties} path against
+ * {@link Product#patch(Product)}
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatchBenchmark {
+
+  private Product existingProduct = CatalogState.product(10001);
+
+  private Product changes = changes();
+
+  @Benchmark
+  public Product nullPropertiesCopy() {
+
+    Product product = new Product(existingProduct);
+    BeanUtils.copyProperties(changes, product,
+        changes.nullProperties().toArray(new String[changes.nullProperties().size()]));
+    return product;
+  }
+
+  @Benchmark
+  public Product patch() {
+    return existingProduct.patch(changes);
+  }
+
+  private static Product changes() {
+
+    Product changes = new Product();
+    changes.setColor("Beige");
+    changes.setPrice(BigDecimal.valueOf(7000.0));
+    return changes;
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.marketplace.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.web.PagedResourcesAssembler;
+import org.springframework.hateoas.PagedResources;
+import com.marketplace.model.Product;
+import com.marketplace.web.ProductResource;
+import com.marketplace.web.ProductResourceAssembler;
+
+/**
+ * Cost of building the HAL representations of the hypermedia API: a single product with its links
+ * and a page of products with its navigation links. Each invocation runs in a request of its own,
+ * as the links are derived from the current request.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceAssemblerBenchmark {
+
+  private ProductResourceAssembler productResourceAssembler;
+
+  private PagedResourcesAssembler<Product> pagedResourcesAssembler;
+
+  private Product product = CatalogState.product(10001);
+
+  private Page<Product> page;
+
+  @SuppressWarnings("unchecked")
+  @Setup(Level.Trial)
+  public void setUp(CatalogState catalogState) {
+
+    productResourceAssembler = catalogState.getBean(ProductResourceAssembler.class);
+    pagedResourcesAssembler = catalogState.getBean(PagedResourcesAssembler.class);
+
+    List<Product> products = CatalogState.products(20);
+    page = new PageImpl<Product>(products, PageRequest.of(1, products.size()), 1000);
+  }
+
+  @Setup(Level.Invocation)
+  public void beginRequest() {
+    CatalogState.beginRequest();
+  }
+
+  @TearDown(Level.Invocation)
+  public void endRequest() {
+    CatalogState.endRequest();
+  }
+
+  @Benchmark
+  public ProductResource toResource() {
+    return productResourceAssembler.toResource(product);
+  }
+
+  @Benchmark
+  public PagedResources<ProductResource> toPagedResources() {
+    return pagedResourcesAssembler.toResource(page, productResourceAssembler);
+  }
+
+}
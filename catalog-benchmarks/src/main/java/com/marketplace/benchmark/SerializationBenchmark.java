@@ -0,0 +1,140 @@
+package com.marketplace.benchmark;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpMethod;
+import org.springframework.hateoas.MediaTypes;
+import org.springframework.hateoas.mvc.TypeConstrainedMappingJackson2HttpMessageConverter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marketplace.model.Product;
+import com.marketplace.web.ProductBatch;
+import com.marketplace.web.ProductBatchResult;
+import com.marketplace.web.ProductResource;
+import com.marketplace.web.ProductResourceAssembler;
+
+/**
+ * Cost of writing the response bodies with the object mappers of the application: a product, its
+ * HAL representation and the results of a batch of 100 products, in JSON and in the binary CBOR and
+ * Smile formats
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+  private ObjectMapper objectMapper;
+
+  private ObjectMapper halObjectMapper;
+
+  private ObjectMapper cborObjectMapper;
+
+  private ObjectMapper smileObjectMapper;
+
+  private Product product = CatalogState.product(10001);
+
+  private ProductResource productResource;
+
+  private ProductBatch<ProductBatchResult<Product>> productBatch;
+
+  @Setup(Level.Trial)
+  public void setUp(CatalogState catalogState) {
+
+    objectMapper = catalogState.getBean(ObjectMapper.class);
+    halObjectMapper = halObjectMapper(catalogState);
+    cborObjectMapper =
+        catalogState.getBean(MappingJackson2CborHttpMessageConverter.class).getObjectMapper();
+    smileObjectMapper =
+        catalogState.getBean(MappingJackson2SmileHttpMessageConverter.class).getObjectMapper();
+
+    CatalogState.beginRequest();
+    try {
+      productResource = catalogState.getBean(ProductResourceAssembler.class).toResource(product);
+    } finally {
+      CatalogState.endRequest();
+    }
+
+    List<Product> products = CatalogState.products(100);
+    productBatch = new ProductBatch<ProductBatchResult<Product>>();
+    for (Product batchProduct : products) {
+      productBatch.addToProducts(new ProductBatchResult<Product>(HttpStatus.CREATED,
+          URI.create("http://localhost/products/" + batchProduct.getId()), HttpMethod.POST,
+          batchProduct));
+    }
+  }
+
+  /**
+   * The mapper of the converter writing <code>application/hal+json</code>, as set up by
+   * <code>VndHalMediaTypeEnabler</code>
+   */
+  private static ObjectMapper halObjectMapper(CatalogState catalogState) {
+
+    for (HttpMessageConverter<?> converter : catalogState.getBean("requestMappingHandlerAdapter",
+        RequestMappingHandlerAdapter.class).getMessageConverters()) {
+      if (converter instanceof TypeConstrainedMappingJackson2HttpMessageConverter
+          && converter.getSupportedMediaTypes().contains(MediaTypes.HAL_JSON)) {
+        return ((TypeConstrainedMappingJackson2HttpMessageConverter) converter).getObjectMapper();
+      }
+    }
+    throw new IllegalStateException("No HAL message converter is registered");
+  }
+
+  @Benchmark
+  public byte[] writeProduct() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(product);
+  }
+
+  @Benchmark
+  public byte[] writeProductCbor() throws JsonProcessingException {
+    return cborObjectMapper.writeValueAsBytes(product);
+  }
+
+  @Benchmark
+  public byte[] writeProductSmile() throws JsonProcessingException {
+    return smileObjectMapper.writeValueAsBytes(product);
+  }
+
+  @Benchmark
+  public byte[] writeProductResource() throws JsonProcessingException {
+    return halObjectMapper.writeValueAsBytes(productResource);
+  }
+
+  @Benchmark
+  public byte[] writeProductBatch() throws JsonProcessingException {
+    return objectMapper.writeValueAsBytes(productBatch);
+  }
+
+  @Benchmark
+  public byte[] writeProductBatchCbor() throws JsonProcessingException {
+    return cborObjectMapper.writeValueAsBytes(productBatch);
+  }
+
+  @Benchmark
+  public byte[] writeProductBatchSmile() throws JsonProcessingException {
+    return smileObjectMapper.writeValueAsBytes(productBatch);
+  }
+
+}
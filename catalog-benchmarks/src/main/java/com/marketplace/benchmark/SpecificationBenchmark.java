@@ -0,0 +1,84 @@
+package com.marketplace.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.jpa.domain.Specification;
+import com.marketplace.model.Product;
+import com.marketplace.repository.ProductRepository;
+import com.marketplace.repository.specs.ProductSpecificationBuilder;
+
+/**
+ * Cost of the product listing filters: building the specification of the five filters with the
+ * {@link ProductSpecificationBuilder}, turning it into a criteria predicate, and running the
+ * filtered query
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpecificationBenchmark {
+
+  private EntityManager entityManager;
+
+  private CriteriaBuilder criteriaBuilder;
+
+  private ProductRepository productRepository;
+
+  private Specification<Product> specification;
+
+  @Setup(Level.Trial)
+  public void setUp(CatalogState catalogState) {
+
+    entityManager = catalogState.getBean(EntityManagerFactory.class).createEntityManager();
+    criteriaBuilder = entityManager.getCriteriaBuilder();
+    productRepository = catalogState.getBean(ProductRepository.class);
+    specification = buildSpecification();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    entityManager.close();
+  }
+
+  @Benchmark
+  public Specification<Product> buildSpecification() {
+
+    return new ProductSpecificationBuilder().productId("GAS1234567").title("jeans", null)
+        .color("blue").brand("gas").description("slim", null).build();
+  }
+
+  @Benchmark
+  public Predicate toPredicate() {
+
+    CriteriaQuery<Product> query = criteriaBuilder.createQuery(Product.class);
+    return specification.toPredicate(query.from(Product.class), query, criteriaBuilder);
+  }
+
+  @Benchmark
+  public List<Product> findAll() {
+    return productRepository.findAll(buildSpecification());
+  }
+
+}
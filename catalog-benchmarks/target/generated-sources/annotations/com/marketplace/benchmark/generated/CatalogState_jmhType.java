@@ -0,0 +1,4 @@
+package com.marketplace.benchmark.generated;
+public class CatalogState_jmhType extends CatalogState_jmhType_B3 {
+}
+
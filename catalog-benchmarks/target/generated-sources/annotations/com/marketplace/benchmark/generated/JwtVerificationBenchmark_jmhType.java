@@ -0,0 +1,4 @@
+package com.marketplace.benchmark.generated;
+public class JwtVerificationBenchmark_jmhType extends JwtVerificationBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.marketplace.benchmark.generated;
+public class PatchBenchmark_jmhType extends PatchBenchmark_jmhType_B3 {
+}
+
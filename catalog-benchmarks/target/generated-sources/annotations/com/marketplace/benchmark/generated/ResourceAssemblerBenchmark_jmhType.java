@@ -0,0 +1,4 @@
+package com.marketplace.benchmark.generated;
+public class ResourceAssemblerBenchmark_jmhType extends ResourceAssemblerBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.marketplace.benchmark.generated;
+public class SpecificationBenchmark_jmhType extends SpecificationBenchmark_jmhType_B3 {
+}
+
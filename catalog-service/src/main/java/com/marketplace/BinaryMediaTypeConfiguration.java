@@ -0,0 +1,75 @@
+package com.marketplace;
+
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marketplace.web.MarketPlaceMediaTypes;
+
+/**
+ * Binary CBOR and Smile representations of the plain JSON product API, for service to service
+ * callers, via Accept and Content-Type headers <code>application/vnd.marketplace.v1+cbor</code>
+ * and <code>application/vnd.marketplace.v1+smile</code>
+ *
+ * <p>
+ * The object mappers are customized as the application {@link Jackson2ObjectMapperBuilder}, so the
+ * binary bodies have the same root names and modules as their JSON counterparts. These converters
+ * replace the default CBOR and Smile converters of Spring MVC.
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@Configuration
+public class BinaryMediaTypeConfiguration {
+
+  private final ApplicationContext applicationContext;
+
+  private final List<Jackson2ObjectMapperBuilderCustomizer> customizers;
+
+  @Autowired
+  BinaryMediaTypeConfiguration(ApplicationContext applicationContext,
+      List<Jackson2ObjectMapperBuilderCustomizer> customizers) {
+    this.applicationContext = applicationContext;
+    this.customizers = customizers;
+  }
+
+  @Bean
+  MappingJackson2CborHttpMessageConverter cborHttpMessageConverter() {
+
+    MappingJackson2CborHttpMessageConverter converter =
+        new MappingJackson2CborHttpMessageConverter(build(Jackson2ObjectMapperBuilder.cbor()));
+    converter.setSupportedMediaTypes(MediaType.parseMediaTypes(MarketPlaceMediaTypes.V1_CBOR));
+    converter.setDefaultCharset(null);
+    return converter;
+  }
+
+  @Bean
+  MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter() {
+
+    MappingJackson2SmileHttpMessageConverter converter =
+        new MappingJackson2SmileHttpMessageConverter(build(Jackson2ObjectMapperBuilder.smile()));
+    converter.setSupportedMediaTypes(MediaType.parseMediaTypes(MarketPlaceMediaTypes.V1_SMILE));
+    converter.setDefaultCharset(null);
+    return converter;
+  }
+
+  /**
+   * Applies the <code>spring.jackson</code> settings and the modules of the application to a
+   * builder of a binary format. The application builder itself is shared, its factory is not
+   * changed.
+   */
+  private ObjectMapper build(Jackson2ObjectMapperBuilder objectMapperBuilder) {
+
+    objectMapperBuilder.applicationContext(applicationContext);
+    customizers.forEach(customizer -> customizer.customize(objectMapperBuilder));
+    return objectMapperBuilder.build();
+  }
+
+}
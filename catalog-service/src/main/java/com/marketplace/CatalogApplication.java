@@ -1,14 +1,19 @@
 package com.marketplace;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
 import org.springframework.cloud.netflix.eureka.EnableEurekaClient;
 import org.springframework.context.annotation.Bean;
 import org.springframework.hateoas.mvc.ControllerLinkBuilder;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.filter.ForwardedHeaderFilter;
+import com.marketplace.model.ProductIdGenerator;
 
 @SpringBootApplication
 @EnableEurekaClient
+@EnableScheduling
 public class CatalogApplication {
 
   public static void main(String[] args) {
@@ -26,4 +31,16 @@ public class CatalogApplication {
   ForwardedHeaderFilter forwardedHeaderFilter() {
     return new ForwardedHeaderFilter();
   }
+
+  /**
+   * Passes the product id block size to the {@link ProductIdGenerator}, which can only read
+   * Hibernate settings
+   * 
+   * @return
+   */
+  @Bean
+  HibernatePropertiesCustomizer productIdBlockSizeCustomizer(
+      @Value("${catalog.id.block-size:50}") int blockSize) {
+    return properties -> properties.put(ProductIdGenerator.BLOCK_SIZE_SETTING, blockSize);
+  }
 }
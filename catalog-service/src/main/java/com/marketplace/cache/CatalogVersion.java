@@ -0,0 +1,40 @@
+package com.marketplace.cache;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import com.marketplace.repository.ProductRepository;
+
+/**
+ * Catalog-wide change counter, kept in the single row of the <code>catalog_version</code> table.
+ * The product writes of {@link ProductRepository} (<code>save</code>, <code>deleteById</code>,
+ * <code>insertAll</code>, <code>updateAllFields</code> and <code>updateNonNullFields</code>)
+ * increment it in their own transaction, so it counts the writes of every instance sharing the
+ * database. A listing read after the counter reached a value holds every write counted so far, the
+ * entity tags of the listings are derived from it.
+ *
+ * <p>
+ * Products written by other means must increment the counter in the same transaction, see
+ * <code>data.sql</code>
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class CatalogVersion {
+
+  private ProductRepository productRepository;
+
+  @Autowired
+  public CatalogVersion(ProductRepository productRepository) {
+    super();
+    this.productRepository = productRepository;
+  }
+
+  /**
+   * @return the current catalog version, to read before the listing it tags
+   */
+  public String get() {
+    return String.valueOf(productRepository.findCatalogVersion());
+  }
+
+}
@@ -0,0 +1,198 @@
+package com.marketplace.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.marketplace.event.ProductDeletedEvent;
+import com.marketplace.event.ProductPatchedEvent;
+import com.marketplace.event.ProductSavedEvent;
+import com.marketplace.model.Product;
+import com.marketplace.repository.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Bounded read-through cache of products by id, in front of {@link ProductRepository#findById}.
+ * Its statistics are published as the <code>cache.*</code> meters of the <code>product</code>
+ * cache.
+ * 
+ * <p>
+ * Entries are evicted by size and by age and are kept consistent with the writes through the
+ * {@link ProductSavedEvent}, {@link ProductPatchedEvent} and {@link ProductDeletedEvent}
+ * published by the controllers: a saved product of known version replaces its cached entry, if
+ * any, a patched product, a saved product of unknown version and a deleted product are evicted, so
+ * a cached product always carries the version of its fields. Missing products are not cached.
+ * 
+ * <p>
+ * A product loaded by {@link #findAllById(Collection)} may be read before a write and cached after
+ * the write evicted it. Each write counts itself before evicting, and the loaded products are only
+ * cached if no write was counted since the load started.
+ * 
+ * <p>
+ * Cached products are shared between requests and must not be modified, copy them with
+ * {@link Product#Product(Product)} first
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class ProductCache {
+
+  private ProductRepository productRepository;
+
+  private SingleFlight singleFlight;
+
+  private Cache<Long, Product> cache;
+
+  // Writes that evicted or replaced a cached product, counted before the cache is changed
+  private final AtomicLong writes = new AtomicLong();
+
+  @Autowired
+  public ProductCache(ProductRepository productRepository, SingleFlight singleFlight,
+      MeterRegistry meterRegistry,
+      @Value("${catalog.cache.maximum-size:10000}") long maximumSize,
+      @Value("${catalog.cache.expire-after-write:10m}") Duration expireAfterWrite) {
+    super();
+    this.productRepository = productRepository;
+    this.singleFlight = singleFlight;
+    this.cache = Caffeine.newBuilder().maximumSize(maximumSize).expireAfterWrite(expireAfterWrite)
+        .recordStats().build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "product");
+  }
+
+  /**
+   * Finds a product, loading it from the repository on a cache miss. Concurrent misses of a
+   * product share one load, missing products included.
+   * 
+   * @param id product id
+   * @return the shared cached product, if it exists
+   */
+  public Optional<Product> findById(Long id) {
+
+    Product product = cache.getIfPresent(id);
+    if (product != null) {
+      return Optional.of(product);
+    }
+
+    return Optional.ofNullable(singleFlight.execute("findById",
+        () -> cache.get(id, key -> productRepository.findById(key).orElse(null)), id));
+  }
+
+  /**
+   * Finds many products at once, the products missing from the cache are loaded together with
+   * {@link ProductRepository#findAllByIds}
+   * 
+   * @param ids product ids
+   * @return the shared cached products by id, products which do not exist are absent
+   */
+  public Map<Long, Product> findAllById(Collection<Long> ids) {
+
+    Map<Long, Product> products = new HashMap<Long, Product>(cache.getAllPresent(ids));
+
+    List<Long> missingIds = new ArrayList<Long>();
+    for (Long id : ids) {
+      if (!products.containsKey(id)) {
+        missingIds.add(id);
+      }
+    }
+
+    if (!missingIds.isEmpty()) {
+
+      long loadWrites = writes.get();
+      for (Product product : productRepository.findAllByIds(missingIds)) {
+
+        // A product cached meanwhile is kept unless the loaded one has a higher version, a loaded
+        // product is cached only if no write may have evicted it since the load started
+        Product cachedProduct = cache.asMap().compute(product.getId(),
+            (id, cached) -> cached != null ? (isNewer(product, cached) ? product : cached)
+                : writes.get() == loadWrites ? product : null);
+        products.put(product.getId(), cachedProduct != null ? cachedProduct : product);
+      }
+    }
+
+    return products;
+  }
+
+  /**
+   * Finds a product as {@link #findById(Long)} does, a cached product older than a version read
+   * from the database, written through another instance, is evicted and loaded again
+   * 
+   * @param id product id
+   * @param version current version of the product, null if unknown
+   * @return the shared cached product, if it exists
+   */
+  public Optional<Product> findById(Long id, Long version) {
+
+    Product product = cache.getIfPresent(id);
+    if (product != null && version != null && product.getVersion() != null
+        && product.getVersion() < version) {
+      writes.incrementAndGet();
+      cache.asMap().remove(id, product);
+    }
+
+    return findById(id);
+  }
+
+  @EventListener
+  public void onProductSaved(ProductSavedEvent event) {
+
+    Product product = event.getProduct();
+    writes.incrementAndGet();
+    if (product.getVersion() == null) {
+
+      // Replaced with a bulk update, its new version is only known to the database
+      cache.invalidate(product.getId());
+    } else {
+      cache.asMap().computeIfPresent(product.getId(), (id, cachedProduct) -> product);
+    }
+  }
+
+  @EventListener
+  public void onProductPatched(ProductPatchedEvent event) {
+
+    // The cached entry may already hold the patched fields, its next version is not known
+    writes.incrementAndGet();
+    cache.invalidate(event.getId());
+  }
+
+  @EventListener
+  public void onProductDeleted(ProductDeletedEvent event) {
+
+    writes.incrementAndGet();
+    cache.invalidate(event.getId());
+  }
+
+  /**
+   * Evicts every product
+   */
+  public void invalidateAll() {
+
+    writes.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  /**
+   * @return hit, miss, load and eviction statistics since startup
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  private static boolean isNewer(Product product, Product cachedProduct) {
+    return product.getVersion() != null && cachedProduct.getVersion() != null
+        && product.getVersion() > cachedProduct.getVersion();
+  }
+
+}
@@ -0,0 +1,110 @@
+package com.marketplace.cache;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.marketplace.model.Product;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Bounded cache of the encoded bytes of product representations, by product id, product version
+ * and representation, so a product version is serialized once per representation. Its statistics
+ * are published as the <code>cache.*</code> meters of the <code>representation</code> cache.
+ *
+ * <p>
+ * A product version never changes, the entries need no invalidation on writes. The bytes of
+ * previous versions are evicted by size and by age. Products of unknown version are encoded on
+ * every call.
+ *
+ * <p>
+ * Cached bytes are shared between requests and must not be modified
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class RepresentationCache {
+
+  private Cache<Key, byte[]> cache;
+
+  @Autowired
+  public RepresentationCache(MeterRegistry meterRegistry,
+      @Value("${catalog.representation-cache.maximum-size:64MB}") DataSize maximumSize,
+      @Value("${catalog.representation-cache.expire-after-write:10m}") Duration expireAfterWrite) {
+    super();
+    this.cache = Caffeine.newBuilder().maximumWeight(maximumSize.toBytes())
+        .<Key, byte[]>weigher((key, bytes) -> bytes.length).expireAfterWrite(expireAfterWrite)
+        .recordStats().build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "representation");
+  }
+
+  /**
+   * Finds the bytes of a product representation, encoding them on a cache miss
+   *
+   * @param product product, its id and version are the key
+   * @param representation name of the representation, including anything else the bytes depend
+   *        on
+   * @param encoder encodes the representation of the product
+   * @return the shared encoded bytes
+   */
+  public byte[] get(Product product, String representation, Supplier<byte[]> encoder) {
+
+    if (product.getId() == null || product.getVersion() == null) {
+      return encoder.get();
+    }
+
+    return cache.get(new Key(product.getId(), product.getVersion(), representation),
+        key -> encoder.get());
+  }
+
+  /**
+   * Evicts every representation
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  private static final class Key {
+
+    private final Long id;
+
+    private final Long version;
+
+    private final String representation;
+
+    Key(Long id, Long version, String representation) {
+      this.id = id;
+      this.version = version;
+      this.representation = representation;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(id, version, representation);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) obj;
+      return id.equals(other.id) && version.equals(other.version)
+          && representation.equals(other.representation);
+    }
+
+  }
+
+}
@@ -0,0 +1,79 @@
+package com.marketplace.cache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import com.marketplace.metrics.CatalogMetrics;
+
+/**
+ * Coalesces identical concurrent reads: the first caller of a read runs it, the callers arriving
+ * while it is in flight wait for it and share its result, or its exception. Nothing is kept once
+ * the read completed, the next caller runs it again. Merged calls are counted by the
+ * <code>catalog.reads.merged</code> meter.
+ * 
+ * <p>
+ * Shared results are used by several requests at once and must not be modified
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class SingleFlight {
+
+  private Map<List<Object>, CompletableFuture<Object>> inFlight =
+      new ConcurrentHashMap<List<Object>, CompletableFuture<Object>>();
+
+  private CatalogMetrics catalogMetrics;
+
+  @Autowired
+  public SingleFlight(CatalogMetrics catalogMetrics) {
+    super();
+    this.catalogMetrics = catalogMetrics;
+  }
+
+  /**
+   * Runs a read, or joins the identical read in flight
+   * 
+   * @param name name of the read, e.g. <code>findById</code>
+   * @param read the read
+   * @param parameters parameters identifying the read, compared with {@link Object#equals}
+   * @return result of the read
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T execute(String name, Supplier<T> read, Object... parameters) {
+
+    List<Object> key = Arrays.asList(name, Arrays.asList(parameters));
+    CompletableFuture<Object> future = new CompletableFuture<Object>();
+    CompletableFuture<Object> inFlightFuture = inFlight.putIfAbsent(key, future);
+
+    if (inFlightFuture != null) {
+
+      catalogMetrics.countMergedRead(name);
+      try {
+        return (T) inFlightFuture.join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+      }
+    }
+
+    try {
+
+      T result = read.get();
+      future.complete(result);
+      return result;
+
+    } catch (RuntimeException | Error e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+}
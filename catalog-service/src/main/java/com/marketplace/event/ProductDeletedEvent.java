@@ -0,0 +1,23 @@
+package com.marketplace.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published once a product has been deleted from the database
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class ProductDeletedEvent extends ApplicationEvent {
+
+  private static final long serialVersionUID = -2469047514658723719L;
+
+  public ProductDeletedEvent(Long id) {
+    super(id);
+  }
+
+  public Long getId() {
+    return (Long) getSource();
+  }
+
+}
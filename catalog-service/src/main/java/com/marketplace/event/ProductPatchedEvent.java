@@ -0,0 +1,33 @@
+package com.marketplace.event;
+
+import org.springframework.context.ApplicationEvent;
+import com.marketplace.model.Product;
+
+/**
+ * Published once some fields of a product have been updated in the database. Unlike
+ * {@link ProductSavedEvent} it only carries the changed fields, the other fields of the changes
+ * are null.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class ProductPatchedEvent extends ApplicationEvent {
+
+  private static final long serialVersionUID = 8052915496283309561L;
+
+  private final Product changes;
+
+  public ProductPatchedEvent(Long id, Product changes) {
+    super(id);
+    this.changes = changes;
+  }
+
+  public Long getId() {
+    return (Long) getSource();
+  }
+
+  public Product getChanges() {
+    return changes;
+  }
+
+}
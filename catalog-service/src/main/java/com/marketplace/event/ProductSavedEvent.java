@@ -0,0 +1,24 @@
+package com.marketplace.event;
+
+import org.springframework.context.ApplicationEvent;
+import com.marketplace.model.Product;
+
+/**
+ * Published once a product has been created or updated in the database
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class ProductSavedEvent extends ApplicationEvent {
+
+  private static final long serialVersionUID = 3126593843567154062L;
+
+  public ProductSavedEvent(Product product) {
+    super(product);
+  }
+
+  public Product getProduct() {
+    return (Product) getSource();
+  }
+
+}
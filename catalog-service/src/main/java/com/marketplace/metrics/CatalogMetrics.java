@@ -0,0 +1,106 @@
+package com.marketplace.metrics;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Catalog specific meters, next to the <code>http.server.requests</code> timers of the handlers and
+ * the <code>catalog.repository</code> timers of the repository methods
+ * 
+ * <ul>
+ * <li><code>catalog.specification</code> : time to build the filter specification of a listing,
+ * including the text index lookups</li>
+ * <li><code>catalog.assembly</code> : time to assemble HATEOAS resources, tagged with the assembled
+ * <code>type</code> (product, slice or page)</li>
+ * <li><code>catalog.batch.items</code> : outcome of each product of a batch request, tagged with
+ * its <code>status</code></li>
+ * <li><code>catalog.reads.merged</code> : reads that joined an identical read in flight instead of
+ * querying the database, tagged with the <code>read</code></li>
+ * <li><code>catalog.query.plans</code> : listing queries by whether their SQL shape was already
+ * run, so its statement and query plan could be reused (<code>result</code> reused), or not
+ * (<code>result</code> new)</li>
+ * <li><code>catalog.query.shapes</code> : number of distinct listing SQL shapes run so far</li>
+ * </ul>
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class CatalogMetrics {
+
+  private MeterRegistry meterRegistry;
+
+  private Timer specificationTimer;
+
+  private Map<String, Timer> assemblyTimers = new ConcurrentHashMap<String, Timer>();
+
+  private Map<HttpStatus, Counter> batchItemCounters = new ConcurrentHashMap<HttpStatus, Counter>();
+
+  private Map<String, Counter> mergedReadCounters = new ConcurrentHashMap<String, Counter>();
+
+  private Set<String> queryShapes = ConcurrentHashMap.newKeySet();
+
+  private Counter reusedQueryPlans;
+
+  private Counter newQueryPlans;
+
+  @Autowired
+  public CatalogMetrics(MeterRegistry meterRegistry) {
+    super();
+    this.meterRegistry = meterRegistry;
+    this.specificationTimer = Timer.builder("catalog.specification")
+        .description("Filter specification build").register(meterRegistry);
+    this.reusedQueryPlans = Counter.builder("catalog.query.plans")
+        .description("Listing queries by SQL shape reuse").tag("result", "reused")
+        .register(meterRegistry);
+    this.newQueryPlans = Counter.builder("catalog.query.plans")
+        .description("Listing queries by SQL shape reuse").tag("result", "new")
+        .register(meterRegistry);
+    Gauge.builder("catalog.query.shapes", queryShapes, Set::size)
+        .description("Distinct listing SQL shapes").register(meterRegistry);
+  }
+
+  public <T> T timeSpecification(Supplier<T> specification) {
+    return specificationTimer.record(specification);
+  }
+
+  public <T> T timeAssembly(String type, Supplier<T> assembly) {
+    return assemblyTimers.computeIfAbsent(type,
+        key -> Timer.builder("catalog.assembly").description("HATEOAS resource assembly")
+            .tag("type", key).register(meterRegistry))
+        .record(assembly);
+  }
+
+  public void countBatchItem(HttpStatus status) {
+    batchItemCounters.computeIfAbsent(status,
+        key -> Counter.builder("catalog.batch.items")
+            .description("Outcome of batch request products").tag("status", key.name())
+            .register(meterRegistry))
+        .increment();
+  }
+
+  /**
+   * @param shape shape of the SQL statement of a listing query
+   */
+  public void countQueryShape(String shape) {
+    (queryShapes.add(shape) ? newQueryPlans : reusedQueryPlans).increment();
+  }
+
+  public void countMergedRead(String read) {
+    mergedReadCounters.computeIfAbsent(read,
+        key -> Counter.builder("catalog.reads.merged")
+            .description("Reads merged into an identical read in flight").tag("read", key)
+            .register(meterRegistry))
+        .increment();
+  }
+
+}
@@ -0,0 +1,44 @@
+package com.marketplace.metrics;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.boot.actuate.metrics.web.servlet.DefaultWebMvcTagsProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Adds a <code>handler</code> tag to the <code>http.server.requests</code> timers. The JSON and
+ * HAL controllers share their URIs, the tag tells which handler method served a request, e.g.
+ * <code>ProductHalController.findAll</code>.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class HandlerTagsProvider extends DefaultWebMvcTagsProvider {
+
+  @Override
+  public Iterable<Tag> getTags(HttpServletRequest request, HttpServletResponse response,
+      Object handler, Throwable exception) {
+    return Tags.of(super.getTags(request, response, handler, exception)).and(handler(handler));
+  }
+
+  @Override
+  public Iterable<Tag> getLongRequestTags(HttpServletRequest request, Object handler) {
+    return Tags.of(super.getLongRequestTags(request, handler)).and(handler(handler));
+  }
+
+  private static Tag handler(Object handler) {
+
+    if (!(handler instanceof HandlerMethod)) {
+      return Tag.of("handler", "none");
+    }
+
+    HandlerMethod handlerMethod = (HandlerMethod) handler;
+    return Tag.of("handler",
+        handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName());
+  }
+
+}
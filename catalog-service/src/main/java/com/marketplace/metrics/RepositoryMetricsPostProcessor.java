@@ -0,0 +1,65 @@
+package com.marketplace.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+import com.marketplace.repository.ProductRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times every {@link ProductRepository} method call with a <code>catalog.repository</code> timer
+ * tagged with the method name. The repository bean is wrapped in a proxy, so derived, declared and
+ * custom fragment methods are timed alike.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+
+  public static final String TIMER_NAME = "catalog.repository";
+
+  private ObjectProvider<MeterRegistry> meterRegistry;
+
+  private Map<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+  // The registry is resolved on first use, post processors are created before it
+  public RepositoryMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+    super();
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+    if (!(bean instanceof ProductRepository)) {
+      return bean;
+    }
+
+    ProxyFactory proxyFactory = new ProxyFactory(bean);
+    proxyFactory.addInterface(ProductRepository.class);
+    proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+
+      Timer.Sample sample = Timer.start(meterRegistry.getObject());
+      try {
+        return invocation.proceed();
+      } finally {
+        sample.stop(timer(invocation.getMethod().getName()));
+      }
+    });
+
+    return proxyFactory.getProxy(getClass().getClassLoader());
+  }
+
+  private Timer timer(String method) {
+    return timers.computeIfAbsent(method, key -> Timer.builder(TIMER_NAME)
+        .description("ProductRepository method calls").tag("method", key)
+        .register(meterRegistry.getObject()));
+  }
+
+}
@@ -5,10 +5,16 @@ import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Version;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonRootName;
 
 @Entity
@@ -16,7 +22,9 @@ import com.fasterxml.jackson.annotation.JsonRootName;
 public class Product {
 
   @Id
-  @GeneratedValue(strategy = GenerationType.AUTO)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "product_seq")
+  @GenericGenerator(name = "product_seq", strategy = "com.marketplace.model.ProductIdGenerator",
+      parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "product_seq"))
   private Long id;
   private String productId;
   private String title;
@@ -25,6 +33,16 @@ public class Product {
   private BigDecimal price;
   private String color;
 
+  // Incremented by every update, sent as the entity tag of the product instead of in its body
+  @Version
+  @JsonIgnore
+  private Long version;
+
+  // Catalog version of the last write to the row, stamped by the repository in SQL
+  @Column(insertable = false, updatable = false)
+  @JsonIgnore
+  private Long catalogVersion;
+
   public Product(Long id, String productId, String title, String description, String brand,
       BigDecimal price, String color) {
     super();
@@ -52,6 +70,12 @@ public class Product {
     super();
   }
 
+  public Product(Product product) {
+    this(product.id, product.productId, product.title, product.description, product.brand,
+        product.price, product.color);
+    this.version = product.version;
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
@@ -169,6 +193,35 @@ public class Product {
     this.color = color;
   }
 
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
+
+  public Long getCatalogVersion() {
+    return catalogVersion;
+  }
+
+  /**
+   * Creates a copy of this product with the non-null fields of <code>changes</code> applied. The id
+   * is never changed, the version of the copy is unknown.
+   * 
+   * @param changes new field values, null fields are left unchanged
+   * @return the patched copy
+   */
+  public Product patch(Product changes) {
+
+    return new Product(id, changes.productId != null ? changes.productId : productId,
+        changes.title != null ? changes.title : title,
+        changes.description != null ? changes.description : description,
+        changes.brand != null ? changes.brand : brand,
+        changes.price != null ? changes.price : price,
+        changes.color != null ? changes.color : color);
+  }
+
   public List<String> nullProperties() {
 
     List<String> nullFields = new ArrayList<String>();
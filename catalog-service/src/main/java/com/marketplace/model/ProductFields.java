@@ -0,0 +1,95 @@
+package com.marketplace.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.springframework.util.StringUtils;
+
+/**
+ * Sparse fieldset of a product response, <code>fields=productId,title,price</code>. Listings read
+ * only the selected columns, and only the selected fields of the products are written.
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+public class ProductFields {
+
+  /**
+   * Id of the Jackson filter writing the selected fields of a {@link Product}
+   */
+  public static final String FILTER_ID = "productFields";
+
+  /**
+   * Every field of a product, in declaration order
+   */
+  public static final List<String> NAMES = Collections.unmodifiableList(
+      Arrays.asList("id", "productId", "title", "description", "brand", "price", "color"));
+
+  private final Set<String> names;
+
+  private ProductFields(Set<String> names) {
+    this.names = Collections.unmodifiableSet(names);
+  }
+
+  /**
+   * @param fields comma separated field names
+   * @return the selected fields
+   * @throws IllegalArgumentException if a field is not a product field, or none is given
+   */
+  public static ProductFields parse(String fields) {
+
+    Set<String> names = new LinkedHashSet<String>();
+    for (String name : StringUtils.commaDelimitedListToSet(fields)) {
+
+      String trimmed = name.trim();
+      if (!NAMES.contains(trimmed)) {
+        throw new IllegalArgumentException("Unknown product field " + trimmed);
+      }
+      names.add(trimmed);
+    }
+
+    if (names.isEmpty()) {
+      throw new IllegalArgumentException("No product field selected");
+    }
+    return new ProductFields(names);
+  }
+
+  /**
+   * @return the selected field names, in request order
+   */
+  public Set<String> getNames() {
+    return names;
+  }
+
+  public boolean contains(String name) {
+    return names.contains(name);
+  }
+
+  /**
+   * Columns read for these fields, the id is always read since the product links and cursors are
+   * built from it
+   *
+   * @param sortProperties properties the query is sorted on, read as well for the paging cursors
+   * @return the names of the fields to read
+   */
+  public List<String> selectedNames(Iterable<String> sortProperties) {
+
+    Set<String> selected = new LinkedHashSet<String>();
+    selected.add("id");
+    selected.addAll(names);
+    for (String property : sortProperties) {
+      if (NAMES.contains(property)) {
+        selected.add(property);
+      }
+    }
+    return Arrays.asList(selected.toArray(new String[selected.size()]));
+  }
+
+  @Override
+  public String toString() {
+    return String.join(",", names);
+  }
+
+}
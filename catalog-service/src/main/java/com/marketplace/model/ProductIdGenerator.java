@@ -0,0 +1,52 @@
+package com.marketplace.model;
+
+import java.util.Properties;
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+/**
+ * Pooled identifier generator for {@link Product}.
+ * 
+ * <p>
+ * Each call to the database sequence reserves a block of ids, which are then handed out from
+ * memory: with the <code>pooled-lo</code> optimizer a sequence value <code>v</code> reserves the
+ * ids <code>v</code> to <code>v + blockSize - 1</code>. Inserts of a whole block need a single
+ * sequence call and can be sent as one JDBC batch.
+ * 
+ * <p>
+ * Blocks are reserved by the database, so instances sharing it never hand out the same id. This
+ * holds as long as the sequence increment equals the block size, which is the case for the
+ * sequence created by the schema generation and is checked at startup by
+ * {@link com.marketplace.repository.ProductSequenceVerifier}. Changing the block size of an
+ * existing database requires altering the sequence increment as well.
+ * 
+ * <p>
+ * The block size is read from the {@value #BLOCK_SIZE_SETTING} Hibernate setting, defaulting to
+ * {@value #DEFAULT_BLOCK_SIZE}
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class ProductIdGenerator extends SequenceStyleGenerator {
+
+  public static final String BLOCK_SIZE_SETTING = "catalog.id.block-size";
+
+  public static final int DEFAULT_BLOCK_SIZE = 50;
+
+  @Override
+  public void configure(Type type, Properties params, ServiceRegistry serviceRegistry)
+      throws MappingException {
+
+    int blockSize = ConfigurationHelper.getInt(BLOCK_SIZE_SETTING,
+        serviceRegistry.getService(ConfigurationService.class).getSettings(), DEFAULT_BLOCK_SIZE);
+
+    params.setProperty(INCREMENT_PARAM, String.valueOf(blockSize));
+    params.setProperty(OPT_PARAM, "pooled-lo");
+    super.configure(type, params, serviceRegistry);
+  }
+
+}
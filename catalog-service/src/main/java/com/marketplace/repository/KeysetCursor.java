@@ -0,0 +1,129 @@
+package com.marketplace.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.util.StringUtils;
+import com.marketplace.model.Product;
+
+/**
+ * An opaque position in a keyset (seek) paginated product listing. The position is the value of
+ * the sort key of the last product of a page plus its id, which breaks ties between equal sort
+ * values.
+ * 
+ * <p>
+ * The sort key may be null, null sorts before every other value as in H2: first in ascending
+ * order, last in descending order.
+ * 
+ * <p>
+ * Cursors are handed to clients as URL safe tokens, see {@link #encode()} and
+ * {@link #decode(String)}
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class KeysetCursor {
+
+  private static final String ID_PROPERTY = "id";
+
+  private static final char SEPARATOR = ':';
+
+  private final String property;
+
+  private final Long id;
+
+  private final String value;
+
+  public KeysetCursor(String property, Long id, String value) {
+    super();
+    this.property = property;
+    this.id = id;
+    this.value = value;
+  }
+
+  /**
+   * Creates the cursor positioned right after the given product
+   * 
+   * @param product last product of a page
+   * @param sort sort of the listing on a single property
+   * @return cursor for the next page
+   */
+  public static KeysetCursor after(Product product, Sort sort) {
+
+    String property = sortProperty(sort);
+    Object value = ID_PROPERTY.equals(property) ? null
+        : PropertyAccessorFactory.forBeanPropertyAccess(product).getPropertyValue(property);
+
+    return new KeysetCursor(property, product.getId(), value == null ? null : value.toString());
+  }
+
+  /**
+   * Decodes a cursor token
+   * 
+   * @param token token created by {@link #encode()}
+   * @return the cursor, or null for an empty token which stands for the first page
+   * @throws IllegalArgumentException if the token is malformed
+   */
+  public static KeysetCursor decode(String token) {
+
+    if (StringUtils.isEmpty(token)) {
+      return null;
+    }
+
+    String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+    int propertyEnd = decoded.indexOf(SEPARATOR);
+    if (propertyEnd <= 0) {
+      throw new IllegalArgumentException("Malformed cursor : " + token);
+    }
+
+    // A null sort key has no value part, an empty one an empty value part
+    int idEnd = decoded.indexOf(SEPARATOR, propertyEnd + 1);
+
+    try {
+      return new KeysetCursor(decoded.substring(0, propertyEnd),
+          Long.valueOf(decoded.substring(propertyEnd + 1, idEnd < 0 ? decoded.length() : idEnd)),
+          idEnd < 0 ? null : decoded.substring(idEnd + 1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Malformed cursor : " + token, e);
+    }
+  }
+
+  /**
+   * @param sort sort of a listing
+   * @return the property used as keyset sort key for the given sort
+   */
+  public static String sortProperty(Sort sort) {
+
+    return sort != null && sort.isSorted() ? sort.iterator().next().getProperty() : ID_PROPERTY;
+  }
+
+  public String encode() {
+
+    String decoded = property + SEPARATOR + id + (value == null ? "" : SEPARATOR + value);
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(decoded.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public boolean isIdOnly() {
+    return ID_PROPERTY.equals(property);
+  }
+
+  public String getProperty() {
+    return property;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "KeysetCursor [property=" + property + ", id=" + id + ", value=" + value + "]";
+  }
+
+}
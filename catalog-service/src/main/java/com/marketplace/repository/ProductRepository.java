@@ -1,22 +1,51 @@
 package com.marketplace.repository;
 
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 import com.marketplace.model.Product;
 
 public interface ProductRepository
-    extends PagingAndSortingRepository<Product, Long>, JpaSpecificationExecutor<Product> {
+    extends PagingAndSortingRepository<Product, Long>, JpaSpecificationExecutor<Product>,
+    ProductRepositoryCustom {
 
-  Iterable<Product> findByTitleContainingIgnoreCase(String title, Sort sort);
+  /**
+   * Implemented by {@link ProductRepositoryCustom#save(Product)}, which increments the catalog
+   * version
+   */
+  @Override
+  <S extends Product> S save(S product);
 
-  Iterable<Product> findByDescriptionContainingIgnoreCase(String description, Sort sort);
+  /**
+   * Implemented by {@link ProductRepositoryCustom#deleteById(Long)}, which increments the catalog
+   * version
+   */
+  @Override
+  void deleteById(Long id);
 
-  Page<Product> findByTitleContainingIgnoreCase(String title, Pageable pageable);
+  boolean existsByProductId(String productId);
 
-  Page<Product> findByDescriptionContainingIgnoreCase(String description, Pageable pageable);
+  @Query("select p.productId from Product p where p.productId in :productIds")
+  Set<String> findProductIdsIn(@Param("productIds") Collection<String> productIds);
 
-  boolean existsByProductId(String productId);
+  @Query("select p.version from Product p where p.id = :id")
+  Optional<Long> findVersionById(@Param("id") Long id);
+
+  /**
+   * @return the catalog-wide change counter, incremented by every product write
+   */
+  @Query(value = "select version from catalog_version where id = 1", nativeQuery = true)
+  Long findCatalogVersion();
+
+  /**
+   * @param catalogVersion a catalog version
+   * @return the products written after the catalog reached the version
+   */
+  @Query("select p from Product p where p.catalogVersion > :catalogVersion")
+  List<Product> findWrittenAfter(@Param("catalogVersion") long catalogVersion);
 }
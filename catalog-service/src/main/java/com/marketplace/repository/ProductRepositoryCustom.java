@@ -0,0 +1,159 @@
+package com.marketplace.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.repository.CrudRepository;
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductFields;
+
+/**
+ * Custom {@link ProductRepository} fragment for queries that Spring Data can not derive. Its writes
+ * increment the catalog version read by {@link ProductRepository#findCatalogVersion()}.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public interface ProductRepositoryCustom {
+
+  /**
+   * Streams the products matching a {@link Specification} through a forward-only cursor. Each
+   * product is detached as soon as it is read so the persistence context does not grow with the
+   * result size.
+   * 
+   * <p>
+   * The stream holds an open connection, it must be consumed within a transaction and closed
+   * 
+   * @param specification filter, may be null
+   * @param sort sort order
+   * @return a lazily populated {@link Stream} of products
+   */
+  Stream<Product> streamAll(Specification<Product> specification, Sort sort);
+
+  /**
+   * Finds a page of products positioned after a {@link KeysetCursor}. The page is located with a
+   * range predicate on the sort key and id instead of an offset, so its cost does not depend on how
+   * deep the listing is, and no total count is run.
+   * 
+   * @param specification filter, may be null
+   * @param after position of the previous page, null for the first page
+   * @param sort sort order on a single property used as key, id is added as tie breaker
+   * @param size page size
+   * @return a {@link Slice} telling whether a next page exists
+   * @throws IllegalArgumentException if the sort has more than one order or does not match the
+   *         cursor
+   */
+  Slice<Product> findAllAfter(Specification<Product> specification, KeysetCursor after, Sort sort,
+      int size);
+
+  /**
+   * Keyset paginated listing of {@link #findAllAfter(Specification, KeysetCursor, Sort, int)}
+   * reading only the selected fields
+   * 
+   * @param fields selected fields, null to read every field
+   */
+  Slice<Product> findAllAfter(Specification<Product> specification, KeysetCursor after, Sort sort,
+      int size, ProductFields fields);
+
+  /**
+   * Finds the products matching a {@link Specification}, selecting only the columns of a sparse
+   * fieldset. The products hold the selected fields, their id and the fields they are sorted on,
+   * the other fields are null. They are not managed.
+   * 
+   * @param specification filter, may be null
+   * @param sort sort order
+   * @param fields selected fields, null to read every field
+   * @return the matching products
+   */
+  List<Product> findAll(Specification<Product> specification, Sort sort, ProductFields fields);
+
+  /**
+   * Finds a page of the products matching a {@link Specification}, selecting only the columns of a
+   * sparse fieldset
+   * 
+   * @param specification filter, may be null
+   * @param pageable page and sort order
+   * @param fields selected fields, null to read every field
+   * @return the page, with the total count of matching products
+   * @see #findAll(Specification, Sort, ProductFields)
+   */
+  Page<Product> findAll(Specification<Product> specification, Pageable pageable,
+      ProductFields fields);
+
+  /**
+   * Finds the products of a list of ids with one <code>IN</code> query per chunk of
+   * <code>catalog.multi-get.chunk-size</code> ids
+   * 
+   * @param ids product ids, duplicates are looked up once
+   * @return the existing products, in no particular order
+   */
+  List<Product> findAllByIds(Collection<Long> ids);
+
+  /**
+   * Finds the products of a list of business product ids with one <code>IN</code> query per chunk
+   * of <code>catalog.multi-get.chunk-size</code> product ids
+   * 
+   * @param productIds business product ids, duplicates are looked up once
+   * @return the existing products, in no particular order
+   */
+  List<Product> findAllByProductIds(Collection<String> productIds);
+
+  /**
+   * Saves a product, as {@link CrudRepository#save(Object)} does, and increments the catalog
+   * version in the same transaction
+   * 
+   * @param product new product without version, or detached product
+   * @return the saved product
+   */
+  <S extends Product> S save(S product);
+
+  /**
+   * Deletes a product, as {@link CrudRepository#deleteById(Object)} does, and increments the
+   * catalog version in the same transaction
+   * 
+   * @param id product id
+   * @throws EmptyResultDataAccessException if the product does not exist
+   */
+  void deleteById(Long id);
+
+  /**
+   * Inserts new products in a single transaction. The inserts are sent with JDBC statement
+   * batching, ids are taken from the pooled product sequence.
+   * 
+   * @param products products without id
+   * @return the same products with their generated ids
+   */
+  List<Product> insertAll(List<Product> products);
+
+  /**
+   * Updates the non-null fields of a product with a single <code>UPDATE</code> statement, without
+   * loading the product first, and increments its version. The updated row is read back in the same
+   * transaction, while the update still locks it, so it is never a later write. The id and version
+   * of <code>changes</code> are ignored.
+   * 
+   * @param id id of the product to update
+   * @param changes new field values, null fields are left unchanged
+   * @return the updated product, empty if the product does not exist
+   */
+  Optional<Product> updateNonNullFields(Long id, Product changes);
+
+  /**
+   * Replaces every field of a product with a single <code>UPDATE</code> statement, without loading
+   * the product first, and increments its version. Only the new version is read back, in the same
+   * transaction, the other fields are those of <code>product</code>. The id and version of
+   * <code>product</code> are ignored.
+   * 
+   * @param id id of the product to update
+   * @param product new field values, null fields are set to null
+   * @return the version of the updated product, empty if the product does not exist
+   */
+  Optional<Long> updateAllFields(Long id, Product product);
+
+}
@@ -0,0 +1,447 @@
+package com.marketplace.repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.domain.Sort.Order;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.repository.support.PageableExecutionUtils;
+import org.springframework.transaction.annotation.Transactional;
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductFields;
+
+/**
+ * JPA implementation of {@link ProductRepositoryCustom}
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class ProductRepositoryImpl implements ProductRepositoryCustom {
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Value("${catalog.stream.fetch-size:500}")
+  private int fetchSize;
+
+  @Value("${catalog.multi-get.chunk-size:100}")
+  private int multiGetChunkSize;
+
+  @Override
+  public Stream<Product> streamAll(Specification<Product> specification, Sort sort) {
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Product> query = criteriaBuilder.createQuery(Product.class);
+    Root<Product> root = query.from(Product.class);
+
+    if (specification != null) {
+      Predicate predicate = specification.toPredicate(root, query, criteriaBuilder);
+      if (predicate != null) {
+        query.where(predicate);
+      }
+    }
+
+    if (sort != null && sort.isSorted()) {
+      query.orderBy(QueryUtils.toOrders(sort, root, criteriaBuilder));
+    }
+
+    return entityManager.createQuery(query).setHint(QueryHints.HINT_FETCH_SIZE, fetchSize)
+        .setHint(QueryHints.HINT_READONLY, true).getResultStream().peek(entityManager::detach);
+  }
+
+  @Override
+  public Slice<Product> findAllAfter(Specification<Product> specification, KeysetCursor after,
+      Sort sort, int size) {
+    return findAllAfter(specification, after, sort, size, null);
+  }
+
+  @Override
+  public Slice<Product> findAllAfter(Specification<Product> specification, KeysetCursor after,
+      Sort sort, int size, ProductFields fields) {
+
+    if (sort != null && sort.stream().count() > 1) {
+      throw new IllegalArgumentException(
+          "Keyset pagination sorts on a single property, can not sort on " + sort);
+    }
+
+    String property = KeysetCursor.sortProperty(sort);
+    Direction direction = sort != null && sort.isSorted() ? sort.iterator().next().getDirection()
+        : Direction.ASC;
+
+    if (after != null && !property.equals(after.getProperty())) {
+      throw new IllegalArgumentException("Cursor was created for sort " + after.getProperty()
+          + " and can not seek on " + property);
+    }
+
+    Sort keysetSort = "id".equals(property) ? Sort.by(direction, "id")
+        : Sort.by(direction, property).and(Sort.by(direction, "id"));
+
+    // One extra row tells whether a next page exists without counting
+    List<Product> products = select(specification,
+        (root, criteriaBuilder) -> after == null ? null
+            : seekPredicate(root, criteriaBuilder, after, direction),
+        keysetSort, fields, 0, size + 1);
+    boolean hasNext = products.size() > size;
+
+    return new SliceImpl<Product>(hasNext ? products.subList(0, size) : products,
+        PageRequest.of(0, size, keysetSort), hasNext);
+  }
+
+  @Override
+  public List<Product> findAll(Specification<Product> specification, Sort sort,
+      ProductFields fields) {
+    return select(specification, null, sort != null ? sort : Sort.unsorted(), fields, 0, -1);
+  }
+
+  @Override
+  public Page<Product> findAll(Specification<Product> specification, Pageable pageable,
+      ProductFields fields) {
+
+    if (pageable.isUnpaged()) {
+      return new PageImpl<Product>(findAll(specification, pageable.getSort(), fields));
+    }
+
+    return PageableExecutionUtils.getPage(
+        select(specification, null, pageable.getSort(), fields, pageable.getOffset(),
+            pageable.getPageSize()),
+        pageable, () -> count(specification));
+  }
+
+  /**
+   * Runs a listing query, of the product entities when no fields are selected, else of a tuple of
+   * the selected columns turned into unmanaged products
+   * 
+   * @param specification filter, may be null
+   * @param range additional predicate of the page position, may be null
+   * @param sort sort order, its properties are selected as well
+   * @param fields selected fields, null for the product entities
+   * @param offset first row
+   * @param maxResults maximum number of rows, negative for all rows
+   */
+  private List<Product> select(Specification<Product> specification,
+      BiFunction<Root<Product>, CriteriaBuilder, Predicate> range, Sort sort,
+      ProductFields fields, long offset, int maxResults) {
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<?> query = fields == null ? criteriaBuilder.createQuery(Product.class)
+        : criteriaBuilder.createTupleQuery();
+    Root<Product> root = query.from(Product.class);
+
+    List<String> names = null;
+    if (fields != null) {
+
+      names = fields.selectedNames(sort.map(Order::getProperty));
+      List<Selection<?>> selections = new ArrayList<Selection<?>>(names.size());
+      for (String name : names) {
+        selections.add(root.get(name).alias(name));
+      }
+      query.multiselect(selections);
+    }
+
+    List<Predicate> predicates = new ArrayList<Predicate>();
+
+    if (specification != null) {
+      Predicate predicate = specification.toPredicate(root, query, criteriaBuilder);
+      if (predicate != null) {
+        predicates.add(predicate);
+      }
+    }
+
+    Predicate rangePredicate = range == null ? null : range.apply(root, criteriaBuilder);
+    if (rangePredicate != null) {
+      predicates.add(rangePredicate);
+    }
+
+    query.where(predicates.toArray(new Predicate[predicates.size()]));
+    if (sort.isSorted()) {
+      query.orderBy(QueryUtils.toOrders(sort, root, criteriaBuilder));
+    }
+
+    TypedQuery<?> typedQuery = entityManager.createQuery(query).setFirstResult((int) offset);
+    if (maxResults >= 0) {
+      typedQuery.setMaxResults(maxResults);
+    }
+
+    List<?> rows = typedQuery.getResultList();
+    List<Product> products = new ArrayList<Product>(rows.size());
+    for (Object row : rows) {
+      products.add(names == null ? (Product) row : toProduct((Tuple) row, names));
+    }
+    return products;
+  }
+
+  private static Product toProduct(Tuple tuple, List<String> names) {
+
+    Product product = new Product();
+    BeanWrapper beanWrapper = PropertyAccessorFactory.forBeanPropertyAccess(product);
+    for (String name : names) {
+      beanWrapper.setPropertyValue(name, tuple.get(name));
+    }
+    return product;
+  }
+
+  private long count(Specification<Product> specification) {
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+    Root<Product> root = query.from(Product.class);
+    query.select(criteriaBuilder.count(root));
+
+    if (specification != null) {
+      Predicate predicate = specification.toPredicate(root, query, criteriaBuilder);
+      if (predicate != null) {
+        query.where(predicate);
+      }
+    }
+
+    return entityManager.createQuery(query).getSingleResult();
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private Predicate seekPredicate(Root<Product> root, CriteriaBuilder criteriaBuilder,
+      KeysetCursor after, Direction direction) {
+
+    Path<Long> id = root.get("id");
+    Predicate afterId = direction.isAscending() ? criteriaBuilder.greaterThan(id, after.getId())
+        : criteriaBuilder.lessThan(id, after.getId());
+
+    if (after.isIdOnly()) {
+      return afterId;
+    }
+
+    Path<Comparable> key = root.get(after.getProperty());
+
+    // Null keys sort first in ascending order and last in descending order, as in H2
+    if (after.getValue() == null) {
+      return direction.isAscending()
+          ? criteriaBuilder.or(criteriaBuilder.and(criteriaBuilder.isNull(key), afterId),
+              criteriaBuilder.isNotNull(key))
+          : criteriaBuilder.and(criteriaBuilder.isNull(key), afterId);
+    }
+
+    Comparable value = (Comparable) DefaultConversionService.getSharedInstance()
+        .convert(after.getValue(), key.getJavaType());
+
+    // (key, id) > (value, lastId) expanded for portability across databases
+    Predicate afterKey = criteriaBuilder.or(
+        direction.isAscending() ? criteriaBuilder.greaterThan(key, value)
+            : criteriaBuilder.lessThan(key, value),
+        criteriaBuilder.and(criteriaBuilder.equal(key, value), afterId));
+    return direction.isAscending() ? afterKey
+        : criteriaBuilder.or(afterKey, criteriaBuilder.isNull(key));
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<Product> findAllByIds(Collection<Long> ids) {
+    return findAllIn("id", ids);
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public List<Product> findAllByProductIds(Collection<String> productIds) {
+    return findAllIn("productId", productIds);
+  }
+
+  private <T> List<Product> findAllIn(String attribute, Collection<T> values) {
+
+    List<T> distinctValues = new ArrayList<T>(new LinkedHashSet<T>(values));
+    List<Product> products = new ArrayList<Product>(distinctValues.size());
+
+    for (int from = 0; from < distinctValues.size(); from += multiGetChunkSize) {
+
+      CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+      CriteriaQuery<Product> query = criteriaBuilder.createQuery(Product.class);
+      Root<Product> root = query.from(Product.class);
+      query.where(root.get(attribute).in(
+          distinctValues.subList(from, Math.min(from + multiGetChunkSize, distinctValues.size()))));
+
+      products.addAll(entityManager.createQuery(query).setHint(QueryHints.HINT_READONLY, true)
+          .getResultList());
+    }
+
+    return products;
+  }
+
+  @Override
+  @Transactional
+  public <S extends Product> S save(S product) {
+
+    // New products have no version yet, as in SimpleJpaRepository
+    S savedProduct = product;
+    if (product.getVersion() == null) {
+      entityManager.persist(product);
+    } else {
+      savedProduct = entityManager.merge(product);
+    }
+
+    // The row is stamped once it exists
+    entityManager.flush();
+    incrementCatalogVersion(Collections.singletonList(savedProduct.getId()));
+    return savedProduct;
+  }
+
+  @Override
+  @Transactional
+  public void deleteById(Long id) {
+
+    Product product = entityManager.find(Product.class, id);
+    if (product == null) {
+      throw new EmptyResultDataAccessException(
+          String.format("No %s entity with id %s exists!", Product.class, id), 1);
+    }
+
+    entityManager.remove(product);
+    incrementCatalogVersion(Collections.emptyList());
+  }
+
+  @Override
+  @Transactional
+  public List<Product> insertAll(List<Product> products) {
+
+    for (Product product : products) {
+      entityManager.persist(product);
+    }
+
+    // Send the queued inserts as JDBC batches and release the managed copies
+    entityManager.flush();
+    entityManager.clear();
+
+    List<Long> ids = new ArrayList<Long>(products.size());
+    for (Product product : products) {
+      ids.add(product.getId());
+    }
+    incrementCatalogVersion(ids);
+    return products;
+  }
+
+  @Override
+  @Transactional
+  public Optional<Product> updateNonNullFields(Long id, Product changes) {
+
+    if (update(id, changes, true) == 0) {
+      return Optional.empty();
+    }
+
+    // Read as values, a product of the persistence context does not reflect the bulk update
+    Tuple row = entityManager.createQuery("select p.productId as productId, p.title as title, "
+        + "p.description as description, p.brand as brand, p.price as price, p.color as color, "
+        + "p.version as version from Product p where p.id = :id", Tuple.class)
+        .setParameter("id", id).getSingleResult();
+
+    Product product = new Product(id, row.get("productId", String.class),
+        row.get("title", String.class), row.get("description", String.class),
+        row.get("brand", String.class), row.get("price", BigDecimal.class),
+        row.get("color", String.class));
+    product.setVersion(row.get("version", Long.class));
+    return Optional.of(product);
+  }
+
+  @Override
+  @Transactional
+  public Optional<Long> updateAllFields(Long id, Product product) {
+
+    if (update(id, product, false) == 0) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        entityManager.createQuery("select p.version from Product p where p.id = :id", Long.class)
+            .setParameter("id", id).getSingleResult());
+  }
+
+  private int update(Long id, Product product, boolean skipNulls) {
+
+    CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+    CriteriaUpdate<Product> update = criteriaBuilder.createCriteriaUpdate(Product.class);
+    Root<Product> root = update.from(Product.class);
+
+    boolean changed = set(update, "productId", product.getProductId(), skipNulls);
+    changed |= set(update, "title", product.getTitle(), skipNulls);
+    changed |= set(update, "description", product.getDescription(), skipNulls);
+    changed |= set(update, "brand", product.getBrand(), skipNulls);
+    changed |= set(update, "price", product.getPrice(), skipNulls);
+    changed |= set(update, "color", product.getColor(), skipNulls);
+
+    if (!changed) {
+
+      // Nothing to update, still report whether the product exists
+      return entityManager
+          .createQuery("select count(p) from Product p where p.id = :id", Long.class)
+          .setParameter("id", id).getSingleResult().intValue();
+    }
+
+    // Bulk updates bypass the entity version check and increment, the version is set here
+    update.set(root.<Long>get("version"), criteriaBuilder.sum(root.<Long>get("version"), 1L));
+    update.where(criteriaBuilder.equal(root.get("id"), id));
+    int updated = entityManager.createQuery(update).executeUpdate();
+
+    if (updated != 0) {
+      incrementCatalogVersion(Collections.singletonList(id));
+    }
+    return updated;
+  }
+
+  /**
+   * Increments the catalog version in the current transaction and stamps the written products
+   * with it. The row stays locked until the transaction ends, concurrent writes queue on it, so
+   * the stamps are committed in increasing order.
+   *
+   * @param ids ids of the inserted or updated products
+   */
+  private void incrementCatalogVersion(Collection<Long> ids) {
+
+    entityManager
+        .createNativeQuery("update catalog_version set version = version + 1 where id = 1")
+        .executeUpdate();
+
+    if (!ids.isEmpty()) {
+      entityManager.createNativeQuery("update product set catalog_version = "
+          + "(select version from catalog_version where id = 1) where id in (:ids)")
+          .setParameter("ids", ids).executeUpdate();
+    }
+  }
+
+  private static boolean set(CriteriaUpdate<Product> update, String attribute, Object value,
+      boolean skipNull) {
+
+    if (value == null && skipNull) {
+      return false;
+    }
+
+    update.set(attribute, value);
+    return true;
+  }
+
+}
@@ -0,0 +1,66 @@
+package com.marketplace.repository;
+
+import java.util.List;
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import com.marketplace.model.ProductIdGenerator;
+
+/**
+ * Checks at startup that the increment of the product id sequence equals the id block size of the
+ * {@link ProductIdGenerator}.
+ *
+ * <p>
+ * With a smaller increment the blocks reserved by two calls to the sequence overlap, and instances
+ * sharing the database hand out the same ids. The application refuses to start instead. The
+ * increment is read from the standard <code>INFORMATION_SCHEMA.SEQUENCES</code> view.
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class ProductSequenceVerifier {
+
+  static final String SEQUENCE_NAME = "PRODUCT_SEQ";
+
+  private JdbcTemplate jdbcTemplate;
+
+  private int blockSize;
+
+  /**
+   * @param entityManagerFactory unused, makes the check run once the schema is created
+   */
+  @Autowired
+  public ProductSequenceVerifier(JdbcTemplate jdbcTemplate,
+      EntityManagerFactory entityManagerFactory,
+      @Value("${catalog.id.block-size:50}") int blockSize) {
+    super();
+    this.jdbcTemplate = jdbcTemplate;
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * @throws IllegalStateException if the sequence is missing or its increment is not the block
+   *         size
+   */
+  @PostConstruct
+  public void verify() {
+
+    List<Long> increments = jdbcTemplate.queryForList(
+        "select increment from information_schema.sequences where upper(sequence_name) = ?",
+        Long.class, SEQUENCE_NAME);
+
+    if (increments.isEmpty()) {
+      throw new IllegalStateException("Product id sequence " + SEQUENCE_NAME + " not found");
+    }
+
+    if (increments.get(0) != blockSize) {
+      throw new IllegalStateException("Product id sequence " + SEQUENCE_NAME + " increments by "
+          + increments.get(0) + ", catalog.id.block-size is " + blockSize);
+    }
+  }
+
+}
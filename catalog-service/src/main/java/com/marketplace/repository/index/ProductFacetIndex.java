@@ -0,0 +1,468 @@
+package com.marketplace.repository.index;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+import com.marketplace.event.ProductDeletedEvent;
+import com.marketplace.event.ProductPatchedEvent;
+import com.marketplace.event.ProductSavedEvent;
+import com.marketplace.model.Product;
+import com.marketplace.repository.ProductRepository;
+import com.marketplace.repository.specs.ProductSpecificationBuilder;
+
+/**
+ * In-process brand, color and price bucket counts of the products, so the {@link ProductFacets}
+ * shown next to a listing do not run a <code>GROUP BY</code> over the product table.
+ *
+ * <p>
+ * Each brand, color and price bucket keeps the ids of its products, updated with the
+ * {@link ProductSavedEvent}, {@link ProductPatchedEvent} and {@link ProductDeletedEvent} published
+ * by the controllers. Unfiltered facets are read from the sizes of these id sets. Filtered facets
+ * count the facet values of the matching products only, resolved in memory: brand and color
+ * filters from the id sets of the matching values, title and description filters from the
+ * {@link ProductTextIndex}, the product id filter against the indexed product ids.
+ *
+ * <p>
+ * The counts are loaded from the database once the application is ready. Until both this index
+ * and the {@link ProductTextIndex} are loaded, facets are counted from a scan of the matching
+ * products.
+ *
+ * <p>
+ * The events only carry the writes of this instance. The counts are reloaded every
+ * <code>catalog.index.refresh-interval</code>, which picks up the products written through other
+ * instances sharing the database and the products patched while a load was running. A reload
+ * builds new counts next to the served ones and swaps them in once complete.
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class ProductFacetIndex {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProductFacetIndex.class);
+
+  private volatile FacetCounts counts = new FacetCounts();
+
+  // Counts being loaded by a rebuild, updated along with the served ones until they replace them
+  private FacetCounts loadingCounts;
+
+  private final Object updateLock = new Object();
+
+  private ProductRepository productRepository;
+
+  private ProductTextIndex productTextIndex;
+
+  private TransactionTemplate readOnlyTransactionTemplate;
+
+  private BigDecimal[] priceBounds;
+
+  private List<String> priceBucketNames;
+
+  private volatile boolean ready;
+
+  @Autowired
+  public ProductFacetIndex(ProductRepository productRepository, ProductTextIndex productTextIndex,
+      PlatformTransactionManager transactionManager,
+      @Value("${catalog.facets.price-bounds:5000,10000,20000,50000}") BigDecimal[] priceBounds) {
+    super();
+    this.productRepository = productRepository;
+    this.productTextIndex = productTextIndex;
+    this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+    this.readOnlyTransactionTemplate.setReadOnly(true);
+    this.priceBounds = priceBounds.clone();
+    Arrays.sort(this.priceBounds);
+    this.priceBucketNames = new ArrayList<String>();
+    for (int i = 0; i <= this.priceBounds.length; i++) {
+      priceBucketNames.add(bound(i - 1) + "-" + bound(i));
+    }
+  }
+
+  /**
+   * Loads every product into new counts, then serves them. Products saved while the load is running
+   * are already indexed with their latest values and are skipped, products deleted while it is
+   * running are not added back.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  @Scheduled(initialDelayString = "${catalog.index.refresh-interval:PT5M}",
+      fixedDelayString = "${catalog.index.refresh-interval:PT5M}")
+  public synchronized void rebuild() {
+
+    FacetCounts loadedCounts = new FacetCounts();
+    loadedCounts.startLoad();
+    synchronized (updateLock) {
+      loadingCounts = loadedCounts;
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      readOnlyTransactionTemplate.execute(status -> {
+
+        try (Stream<Product> products = productRepository.streamAll(null, Sort.unsorted())) {
+          products.forEach(
+              product -> loadedCounts.indexIfAbsent(product.getId(), facetValues(product)));
+        }
+        return null;
+      });
+
+      loadedCounts.finishLoad();
+      synchronized (updateLock) {
+        counts = loadedCounts;
+      }
+    } finally {
+      synchronized (updateLock) {
+        loadingCounts = null;
+      }
+    }
+
+    ready = true;
+    LOGGER.info("Counted facets of {} products in {} ms", loadedCounts.products.size(),
+        System.currentTimeMillis() - start);
+  }
+
+  @EventListener
+  public void onProductSaved(ProductSavedEvent event) {
+
+    Product product = event.getProduct();
+    FacetValues values = facetValues(product);
+    update(target -> target.index(product.getId(), values));
+  }
+
+  @EventListener
+  public void onProductPatched(ProductPatchedEvent event) {
+
+    FacetValues changes = facetValues(event.getChanges());
+    update(target -> target.patch(event.getId(), changes));
+  }
+
+  @EventListener
+  public void onProductDeleted(ProductDeletedEvent event) {
+    update(target -> target.index(event.getId(), null));
+  }
+
+  /**
+   * Counts the facets of the products matching the listing filters, every filter is a case
+   * insensitive substring of its field
+   *
+   * @return the facets of the matching products, of every product without any filter
+   */
+  public ProductFacets facets(String productId, String title, String color, String brand,
+      String description) {
+
+    if (!ready || !productTextIndex.isReady()) {
+      return scan(productId, title, color, brand, description);
+    }
+
+    FacetCounts counts = this.counts;
+    if (StringUtils.isEmpty(productId) && StringUtils.isEmpty(title)
+        && StringUtils.isEmpty(color) && StringUtils.isEmpty(brand)
+        && StringUtils.isEmpty(description)) {
+
+      return new ProductFacets(counts.products.size(),
+          sizes(counts.brands, new TreeMap<String, Long>()),
+          sizes(counts.colors, new TreeMap<String, Long>()),
+          sizes(counts.priceBuckets, emptyPriceCounts()));
+    }
+
+    Set<Long> ids = null;
+    if (!StringUtils.isEmpty(brand)) {
+      ids = narrow(ids, matchingValues(counts.brands, brand));
+    }
+    if (!StringUtils.isEmpty(color)) {
+      ids = narrow(ids, matchingValues(counts.colors, color));
+    }
+    if (!StringUtils.isEmpty(title)) {
+      ids = narrow(ids, productTextIndex.titleMatches(title));
+    }
+    if (!StringUtils.isEmpty(description)) {
+      ids = narrow(ids, productTextIndex.descriptionMatches(description));
+    }
+
+    FacetCounter counter = new FacetCounter();
+    String normalizedProductId = TrigramIndex.normalize(productId);
+    for (Long id : ids == null ? counts.products.keySet() : ids) {
+
+      FacetValues values = counts.products.get(id);
+      if (values != null && (StringUtils.isEmpty(normalizedProductId)
+          || values.productId != null && values.productId.contains(normalizedProductId))) {
+        counter.count(values.brand, values.color, values.priceBucket);
+      }
+    }
+    return counter.facets();
+  }
+
+  private ProductFacets scan(String productId, String title, String color, String brand,
+      String description) {
+
+    FacetCounter counter = new FacetCounter();
+    readOnlyTransactionTemplate.execute(status -> {
+
+      try (Stream<Product> products = productRepository.streamAll(
+          new ProductSpecificationBuilder().productId(productId).title(title, null).color(color)
+              .brand(brand).description(description, null).build(),
+          Sort.unsorted())) {
+        products.forEach(product -> counter.count(product.getBrand(), product.getColor(),
+            priceBucket(product.getPrice())));
+      }
+      return null;
+    });
+    return counter.facets();
+  }
+
+  /**
+   * Applies a change to the served counts and to the counts being loaded, if any
+   */
+  private void update(Consumer<FacetCounts> update) {
+
+    synchronized (updateLock) {
+      update.accept(counts);
+      if (loadingCounts != null) {
+        update.accept(loadingCounts);
+      }
+    }
+  }
+
+  private FacetValues facetValues(Product product) {
+    return new FacetValues(TrigramIndex.normalize(product.getProductId()), product.getBrand(),
+        product.getColor(), priceBucket(product.getPrice()));
+  }
+
+  private String priceBucket(BigDecimal price) {
+
+    if (price == null) {
+      return null;
+    }
+
+    int bucket = 0;
+    while (bucket < priceBounds.length && price.compareTo(priceBounds[bucket]) >= 0) {
+      bucket++;
+    }
+    return priceBucketNames.get(bucket);
+  }
+
+  private String bound(int index) {
+    return index < 0 || index >= priceBounds.length ? "*"
+        : priceBounds[index].stripTrailingZeros().toPlainString();
+  }
+
+  private Map<String, Long> emptyPriceCounts() {
+
+    Map<String, Long> counts = new LinkedHashMap<String, Long>();
+    priceBucketNames.forEach(bucket -> counts.put(bucket, 0L));
+    return counts;
+  }
+
+  private static Map<String, Long> sizes(Map<String, Set<Long>> postings,
+      Map<String, Long> counts) {
+
+    postings.forEach((value, ids) -> counts.put(value, (long) ids.size()));
+    return counts;
+  }
+
+  /**
+   * Unions the ids of the facet values containing a filter, there are far fewer distinct values
+   * than products
+   */
+  private static Set<Long> matchingValues(Map<String, Set<Long>> postings, String filter) {
+
+    String normalized = TrigramIndex.normalize(filter);
+    Set<Long> ids = new HashSet<Long>();
+    postings.forEach((value, valueIds) -> {
+      if (TrigramIndex.normalize(value).contains(normalized)) {
+        ids.addAll(valueIds);
+      }
+    });
+    return ids;
+  }
+
+  /**
+   * Intersects two id sets by probing the larger one with the smaller one
+   */
+  private static Set<Long> narrow(Set<Long> ids, Set<Long> matches) {
+
+    if (ids == null) {
+      return matches;
+    }
+
+    Set<Long> smaller = ids.size() <= matches.size() ? ids : matches;
+    smaller.retainAll(smaller == ids ? matches : ids);
+    return smaller;
+  }
+
+  private static void add(Map<String, Set<Long>> postings, String value, Long id) {
+
+    if (value != null) {
+      postings.computeIfAbsent(value, key -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+  }
+
+  private static void remove(Map<String, Set<Long>> postings, String value, Long id) {
+
+    Set<Long> ids = value == null ? null : postings.get(value);
+    if (ids != null) {
+      ids.remove(id);
+      if (ids.isEmpty()) {
+        postings.remove(value);
+      }
+    }
+  }
+
+  /**
+   * Facet values of the indexed products and the ids of the products of each brand, color and price
+   * bucket. Reads run concurrently with updates, updates are serialized.
+   */
+  private static class FacetCounts {
+
+    private final Map<Long, FacetValues> products = new ConcurrentHashMap<Long, FacetValues>();
+
+    private final Map<String, Set<Long>> brands = new ConcurrentHashMap<String, Set<Long>>();
+
+    private final Map<String, Set<Long>> colors = new ConcurrentHashMap<String, Set<Long>>();
+
+    private final Map<String, Set<Long>> priceBuckets =
+        new ConcurrentHashMap<String, Set<Long>>();
+
+    // Ids of the products deleted since the load started, null outside of a load
+    private Set<Long> removedIds;
+
+    /**
+     * Indexes or re-indexes the facet values of a product, null values remove it
+     */
+    synchronized void index(Long id, FacetValues values) {
+
+      if (values == null && removedIds != null) {
+        removedIds.add(id);
+      }
+
+      FacetValues previous = values == null ? products.remove(id) : products.put(id, values);
+      if (previous != null) {
+        remove(brands, previous.brand, id);
+        remove(colors, previous.color, id);
+        remove(priceBuckets, previous.priceBucket, id);
+      }
+      if (values != null) {
+        add(brands, values.brand, id);
+        add(colors, values.color, id);
+        add(priceBuckets, values.priceBucket, id);
+      }
+    }
+
+    /**
+     * Indexes the facet values of a product read by a load, unless newer values are indexed or the
+     * product was deleted during the load
+     */
+    synchronized void indexIfAbsent(Long id, FacetValues values) {
+
+      if (!products.containsKey(id) && (removedIds == null || !removedIds.contains(id))) {
+        index(id, values);
+      }
+    }
+
+    /**
+     * Applies the non-null changed values to a product, products unknown to the counts are left to
+     * the next load
+     */
+    synchronized void patch(Long id, FacetValues changes) {
+
+      FacetValues previous = products.get(id);
+      if (previous != null) {
+        index(id, previous.patch(changes));
+      }
+    }
+
+    synchronized void startLoad() {
+      removedIds = new HashSet<Long>();
+    }
+
+    synchronized void finishLoad() {
+      removedIds = null;
+    }
+
+  }
+
+  /**
+   * Facet values of a product, the product id is lower cased for the product id filter
+   */
+  private static class FacetValues {
+
+    private final String productId;
+
+    private final String brand;
+
+    private final String color;
+
+    private final String priceBucket;
+
+    FacetValues(String productId, String brand, String color, String priceBucket) {
+      this.productId = productId;
+      this.brand = brand;
+      this.color = color;
+      this.priceBucket = priceBucket;
+    }
+
+    /**
+     * @return these values with the non-null values of the changes
+     */
+    FacetValues patch(FacetValues changes) {
+      return new FacetValues(changes.productId != null ? changes.productId : productId,
+          changes.brand != null ? changes.brand : brand,
+          changes.color != null ? changes.color : color,
+          changes.priceBucket != null ? changes.priceBucket : priceBucket);
+    }
+
+  }
+
+  /**
+   * Counts the facet values of the matching products one product at a time
+   */
+  private class FacetCounter {
+
+    private long total;
+
+    private Map<String, Long> brandCounts = new TreeMap<String, Long>();
+
+    private Map<String, Long> colorCounts = new TreeMap<String, Long>();
+
+    private Map<String, Long> priceCounts = emptyPriceCounts();
+
+    void count(String brand, String color, String priceBucket) {
+
+      total++;
+      increment(brandCounts, brand);
+      increment(colorCounts, color);
+      increment(priceCounts, priceBucket);
+    }
+
+    ProductFacets facets() {
+      return new ProductFacets(total, brandCounts, colorCounts, priceCounts);
+    }
+
+    private void increment(Map<String, Long> counts, String value) {
+      if (value != null) {
+        counts.merge(value, 1L, Long::sum);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,65 @@
+package com.marketplace.repository.index;
+
+import java.util.Map;
+import com.fasterxml.jackson.annotation.JsonRootName;
+
+/**
+ * Brand, color and price bucket counts of the products matching a listing filter
+ *
+ * <pre>
+ * {@code
+ * {
+ *   "productFacets": {
+ *       "total": 3,
+ *       "brand": { "BOSS": 1, "GAS": 1, "REPLAY": 1 },
+ *       "color": { "Blue": 1, "Light Blue": 1, "White": 1 },
+ *       "price": { "*-5000": 0, "5000-10000": 0, "10000-20000": 3, "20000-50000": 0, "50000-*": 0 }
+ *   }
+ * }
+ * }
+ * </pre>
+ *
+ * Brands and colors are listed by name, price buckets in ascending order with their lower bound
+ * included.
+ *
+ * @author Nikhil Vasaikar
+ *
+ * @see ProductFacetIndex
+ */
+@JsonRootName("productFacets")
+public class ProductFacets {
+
+  private long total;
+
+  private Map<String, Long> brand;
+
+  private Map<String, Long> color;
+
+  private Map<String, Long> price;
+
+  public ProductFacets(long total, Map<String, Long> brand, Map<String, Long> color,
+      Map<String, Long> price) {
+    super();
+    this.total = total;
+    this.brand = brand;
+    this.color = color;
+    this.price = price;
+  }
+
+  public long getTotal() {
+    return total;
+  }
+
+  public Map<String, Long> getBrand() {
+    return brand;
+  }
+
+  public Map<String, Long> getColor() {
+    return color;
+  }
+
+  public Map<String, Long> getPrice() {
+    return price;
+  }
+
+}
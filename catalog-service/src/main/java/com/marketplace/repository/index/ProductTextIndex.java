@@ -0,0 +1,268 @@
+package com.marketplace.repository.index;
+
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.marketplace.event.ProductDeletedEvent;
+import com.marketplace.event.ProductPatchedEvent;
+import com.marketplace.event.ProductSavedEvent;
+import com.marketplace.model.Product;
+import com.marketplace.repository.ProductRepository;
+
+/**
+ * In-process {@link TrigramIndex trigram indexes} over product titles and descriptions, used by
+ * the title and description specifications to turn a <code>LIKE '%term%'</code> scan into a lookup
+ * of a few candidate ids.
+ * 
+ * <p>
+ * The indexes are loaded from the database once the application is ready and are kept up to date
+ * with the {@link ProductSavedEvent}, {@link ProductPatchedEvent} and {@link ProductDeletedEvent}
+ * published by the controllers.
+ * Until the load completes no candidates are returned and searches fall back to the plain scan.
+ * 
+ * <p>
+ * The events only carry the writes of this instance. The repository stamps every written product
+ * with the {@link com.marketplace.cache.CatalogVersion catalog version} of its write, so before
+ * answering a search the indexes catch up with the products written through other instances since
+ * the last catalog version they hold. The indexes are reloaded every
+ * <code>catalog.index.refresh-interval</code> to drop the products deleted through other instances,
+ * which stay candidates until then and are filtered out by the <code>LIKE</code> of the search. A
+ * reload builds new indexes next to the served ones and swaps them in once complete.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class ProductTextIndex {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProductTextIndex.class);
+
+  private volatile TrigramIndex titles = new TrigramIndex();
+
+  private volatile TrigramIndex descriptions = new TrigramIndex();
+
+  // Indexes being loaded by a rebuild, updated along with the served ones until they replace them
+  private TrigramIndex loadingTitles;
+
+  private TrigramIndex loadingDescriptions;
+
+  private final Object updateLock = new Object();
+
+  // Catalog version up to which the writes of every instance are indexed
+  private volatile long indexedVersion;
+
+  private final Object catchUpLock = new Object();
+
+  private ProductRepository productRepository;
+
+  private TransactionTemplate readOnlyTransactionTemplate;
+
+  private int maxCandidates;
+
+  private volatile boolean ready;
+
+  @Autowired
+  public ProductTextIndex(ProductRepository productRepository,
+      PlatformTransactionManager transactionManager,
+      @Value("${catalog.search.max-candidates:1000}") int maxCandidates) {
+    super();
+    this.productRepository = productRepository;
+    this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+    this.readOnlyTransactionTemplate.setReadOnly(true);
+    this.maxCandidates = maxCandidates;
+  }
+
+  /**
+   * Loads every product into new indexes, then serves them. Products saved while the load is
+   * running are already indexed with their latest values and are skipped, products deleted while it
+   * is running are not added back.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  @Scheduled(initialDelayString = "${catalog.index.refresh-interval:PT5M}",
+      fixedDelayString = "${catalog.index.refresh-interval:PT5M}")
+  public synchronized void rebuild() {
+
+    long[] snapshotVersion = new long[1];
+    TrigramIndex loadedTitles = new TrigramIndex();
+    TrigramIndex loadedDescriptions = new TrigramIndex();
+    loadedTitles.startLoad();
+    loadedDescriptions.startLoad();
+    synchronized (updateLock) {
+      loadingTitles = loadedTitles;
+      loadingDescriptions = loadedDescriptions;
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      readOnlyTransactionTemplate.execute(status -> {
+
+        // Read before the products, the writes after it are caught up with
+        Long catalogVersion = productRepository.findCatalogVersion();
+        snapshotVersion[0] = catalogVersion == null ? 0 : catalogVersion;
+        try (Stream<Product> products = productRepository.streamAll(null, Sort.unsorted())) {
+          products.forEach(product -> {
+            loadedTitles.indexIfAbsent(product.getId(), product.getTitle());
+            loadedDescriptions.indexIfAbsent(product.getId(), product.getDescription());
+          });
+        }
+        return null;
+      });
+
+      loadedTitles.finishLoad();
+      loadedDescriptions.finishLoad();
+      synchronized (updateLock) {
+        titles = loadedTitles;
+        descriptions = loadedDescriptions;
+        indexedVersion = Math.max(indexedVersion, snapshotVersion[0]);
+      }
+    } finally {
+      synchronized (updateLock) {
+        loadingTitles = null;
+        loadingDescriptions = null;
+      }
+    }
+
+    ready = true;
+    LOGGER.info("Indexed {} products in {} ms", loadedTitles.size(),
+        System.currentTimeMillis() - start);
+  }
+
+  @EventListener
+  public void onProductSaved(ProductSavedEvent event) {
+
+    Product product = event.getProduct();
+    update(index -> index.index(product.getId(), product.getTitle()),
+        index -> index.index(product.getId(), product.getDescription()));
+  }
+
+  @EventListener
+  public void onProductPatched(ProductPatchedEvent event) {
+
+    Product changes = event.getChanges();
+    update(index -> {
+      if (changes.getTitle() != null) {
+        index.index(event.getId(), changes.getTitle());
+      }
+    }, index -> {
+      if (changes.getDescription() != null) {
+        index.index(event.getId(), changes.getDescription());
+      }
+    });
+  }
+
+  @EventListener
+  public void onProductDeleted(ProductDeletedEvent event) {
+    update(index -> index.remove(event.getId()), index -> index.remove(event.getId()));
+  }
+
+  /**
+   * Applies a change to the served indexes and to the indexes being loaded, if any
+   */
+  private void update(Consumer<TrigramIndex> titleUpdate,
+      Consumer<TrigramIndex> descriptionUpdate) {
+
+    synchronized (updateLock) {
+      titleUpdate.accept(titles);
+      descriptionUpdate.accept(descriptions);
+      if (loadingTitles != null) {
+        titleUpdate.accept(loadingTitles);
+        descriptionUpdate.accept(loadingDescriptions);
+      }
+    }
+  }
+
+  /**
+   * Indexes the products inserted or updated through any instance since the indexed catalog
+   * version. The lookup goes through the index on <code>product.catalog_version</code> and finds
+   * nothing unless the catalog changed. Catch-ups run one at a time, so an older read of a product
+   * is never indexed over a newer one.
+   */
+  private void catchUp() {
+
+    synchronized (catchUpLock) {
+
+      long catchUpVersion = indexedVersion;
+      for (Product product : productRepository.findWrittenAfter(catchUpVersion)) {
+        update(index -> index.index(product.getId(), product.getTitle()),
+            index -> index.index(product.getId(), product.getDescription()));
+        catchUpVersion = Math.max(catchUpVersion, product.getCatalogVersion());
+      }
+
+      synchronized (updateLock) {
+        indexedVersion = Math.max(indexedVersion, catchUpVersion);
+      }
+    }
+  }
+
+  /**
+   * @param title searched title substring
+   * @return ids of the products whose title may contain the substring, null if the search can not
+   *         be narrowed
+   */
+  public Set<Long> titleCandidates(String title) {
+
+    if (!ready) {
+      return null;
+    }
+    catchUp();
+    return titles.candidates(title, maxCandidates);
+  }
+
+  /**
+   * @param description searched description substring
+   * @return ids of the products whose description may contain the substring, null if the search
+   *         can not be narrowed
+   */
+  public Set<Long> descriptionCandidates(String description) {
+
+    if (!ready) {
+      return null;
+    }
+    catchUp();
+    return descriptions.candidates(description, maxCandidates);
+  }
+
+  /**
+   * @param title searched title substring
+   * @return ids of the products whose title contains the substring, null until the indexes are
+   *         loaded
+   */
+  public Set<Long> titleMatches(String title) {
+
+    if (!ready) {
+      return null;
+    }
+    catchUp();
+    return titles.matches(title);
+  }
+
+  /**
+   * @param description searched description substring
+   * @return ids of the products whose description contains the substring, null until the indexes
+   *         are loaded
+   */
+  public Set<Long> descriptionMatches(String description) {
+
+    if (!ready) {
+      return null;
+    }
+    catchUp();
+    return descriptions.matches(description);
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
+}
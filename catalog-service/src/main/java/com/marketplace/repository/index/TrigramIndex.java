@@ -0,0 +1,224 @@
+package com.marketplace.repository.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index from the trigrams (3 character substrings) of a lower cased text to the ids of
+ * the documents containing them.
+ * 
+ * <p>
+ * Every substring of at least 3 characters of a text contains only trigrams of that text, so the
+ * intersection of the posting lists of a term's trigrams is a superset of the documents containing
+ * the term. The index narrows a substring search to candidates, the caller still has to check the
+ * term against the candidates.
+ * 
+ * <p>
+ * Lookups run concurrently with updates, updates are serialized. A bulk load started with
+ * {@link #startLoad()} remembers the documents removed while it runs, so that a stale read of a
+ * removed document does not add it back.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class TrigramIndex {
+
+  public static final int GRAM_LENGTH = 3;
+
+  private final Map<Long, Set<Long>> postings = new ConcurrentHashMap<Long, Set<Long>>();
+
+  private final Map<Long, String> documents = new ConcurrentHashMap<Long, String>();
+
+  // Ids of the documents removed since the bulk load started, null outside of a load
+  private Set<Long> removedIds;
+
+  /**
+   * Indexes or re-indexes the text of a document, a null text removes it
+   * 
+   * @param id document id
+   * @param text text of the document, may be null
+   */
+  public synchronized void index(Long id, String text) {
+
+    String normalized = normalize(text);
+    if (normalized == null && removedIds != null) {
+      removedIds.add(id);
+    }
+
+    String previous = normalized == null ? documents.remove(id) : documents.put(id, normalized);
+    if (normalized == null ? previous == null : normalized.equals(previous)) {
+      return;
+    }
+
+    Set<Long> grams = trigrams(normalized);
+    for (Long gram : trigrams(previous)) {
+      if (!grams.contains(gram)) {
+        Set<Long> ids = postings.get(gram);
+        ids.remove(id);
+        if (ids.isEmpty()) {
+          postings.remove(gram);
+        }
+      }
+    }
+
+    for (Long gram : grams) {
+      postings.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+  }
+
+  /**
+   * Indexes the text of a document unless it is already indexed or was removed during the current
+   * bulk load. Used by bulk loads which may race with newer updates of the same document.
+   * 
+   * @param id document id
+   * @param text text of the document, may be null
+   */
+  public synchronized void indexIfAbsent(Long id, String text) {
+
+    if (!documents.containsKey(id) && (removedIds == null || !removedIds.contains(id))) {
+      index(id, text);
+    }
+  }
+
+  /**
+   * Removes a document
+   * 
+   * @param id document id
+   */
+  public void remove(Long id) {
+    index(id, null);
+  }
+
+  /**
+   * Starts a bulk load, documents removed from now on are no longer added by
+   * {@link #indexIfAbsent(Long, String)}
+   */
+  public synchronized void startLoad() {
+    removedIds = new HashSet<Long>();
+  }
+
+  /**
+   * Ends a bulk load and forgets the removed documents
+   */
+  public synchronized void finishLoad() {
+    removedIds = null;
+  }
+
+  /**
+   * Resolves the candidate documents for a substring search
+   * 
+   * @param term searched substring
+   * @param limit maximum number of candidates worth returning
+   * @return ids of the documents which may contain the term, or null when the index can not narrow
+   *         the search because the term is shorter than a trigram or matches more than
+   *         <code>limit</code> documents
+   */
+  public Set<Long> candidates(String term, int limit) {
+
+    String normalized = normalize(term);
+    if (normalized == null || normalized.length() < GRAM_LENGTH) {
+      return null;
+    }
+
+    List<Set<Long>> postingLists = new ArrayList<Set<Long>>();
+    for (Long gram : trigrams(normalized)) {
+
+      Set<Long> ids = postings.get(gram);
+      if (ids == null) {
+        return Collections.emptySet();
+      }
+      postingLists.add(ids);
+    }
+
+    // Walk the shortest posting list and probe the others
+    postingLists.sort(Comparator.comparingInt(Set::size));
+    Set<Long> candidates = new HashSet<Long>();
+    for (Long id : postingLists.get(0)) {
+
+      boolean inAll = true;
+      for (int i = 1; i < postingLists.size() && inAll; i++) {
+        inAll = postingLists.get(i).contains(id);
+      }
+
+      if (inAll && candidates.add(id) && candidates.size() > limit) {
+        return null;
+      }
+    }
+
+    return candidates;
+  }
+
+  /**
+   * Resolves the documents containing a substring, the candidates of the term are checked against
+   * the indexed texts. Terms shorter than a trigram are checked against every document.
+   * 
+   * @param term searched substring
+   * @return ids of the documents containing the term
+   */
+  public Set<Long> matches(String term) {
+
+    String normalized = normalize(term);
+    if (normalized == null) {
+      return new HashSet<Long>(documents.keySet());
+    }
+
+    Set<Long> candidates = candidates(normalized, Integer.MAX_VALUE);
+    Set<Long> matches = new HashSet<Long>();
+    for (Long id : candidates == null ? documents.keySet() : candidates) {
+      if (contains(id, normalized)) {
+        matches.add(id);
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * @param id document id
+   * @param term searched substring
+   * @return whether the indexed text of the document contains the term
+   */
+  public boolean contains(Long id, String term) {
+
+    String text = documents.get(id);
+    return text != null && text.contains(normalize(term));
+  }
+
+  /**
+   * @return number of indexed documents
+   */
+  public int size() {
+    return documents.size();
+  }
+
+  /**
+   * Lower cases a text the way the searched columns are lower cased by the queries
+   */
+  static String normalize(String text) {
+    return text == null ? null : text.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Packs each trigram of a text into a long, 16 bits per character
+   */
+  static Set<Long> trigrams(String text) {
+
+    if (text == null || text.length() < GRAM_LENGTH) {
+      return Collections.emptySet();
+    }
+
+    Set<Long> grams = new HashSet<Long>();
+    for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+      grams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16)
+          | text.charAt(i + 2));
+    }
+    return grams;
+  }
+
+}
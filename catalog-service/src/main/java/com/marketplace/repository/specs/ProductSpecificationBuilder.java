@@ -0,0 +1,112 @@
+package com.marketplace.repository.specs;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.StringJoiner;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import org.hibernate.internal.util.MathHelper;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.util.StringUtils;
+import com.marketplace.model.Product;
+import com.marketplace.repository.index.ProductTextIndex;
+
+/**
+ * Composes the filter specification of a product listing from its active filters only, always in
+ * the same order, so a listing query carries no dead predicate and every combination of filters
+ * is rendered to the same SQL whatever the filter values.
+ *
+ * <p>
+ * Candidate id lists of the text filters are bound as a single list parameter, which Hibernate
+ * pads to the next power of two with <code>hibernate.query.in_clause_parameter_padding</code>, so
+ * the <code>IN</code> clauses of a text search take a handful of lengths instead of one per
+ * candidate count. The {@link #getShape() shape} of the built specification identifies its SQL
+ * statement.
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+public class ProductSpecificationBuilder {
+
+  private Specification<Product> specification;
+
+  private StringJoiner shape = new StringJoiner(",");
+
+  public ProductSpecificationBuilder productId(String productId) {
+    return StringUtils.isEmpty(productId) ? this
+        : and("productId", new ProductWithProductIdSpec(productId));
+  }
+
+  /**
+   * @param title searched title substring
+   * @param candidateIds ids of the only products which may match, as resolved by the
+   *        {@link ProductTextIndex}, or null to scan every product
+   */
+  public ProductSpecificationBuilder title(String title, Set<Long> candidateIds) {
+    return StringUtils.isEmpty(title) ? this
+        : and("title" + candidatesShape(candidateIds),
+            new ProductWithTitleSpec(title, candidateIds));
+  }
+
+  public ProductSpecificationBuilder color(String color) {
+    return StringUtils.isEmpty(color) ? this : and("color", new ProductWithColorSpec(color));
+  }
+
+  public ProductSpecificationBuilder brand(String brand) {
+    return StringUtils.isEmpty(brand) ? this : and("brand", new ProductWithBrandSpec(brand));
+  }
+
+  /**
+   * @param description searched description substring
+   * @param candidateIds ids of the only products which may match, as resolved by the
+   *        {@link ProductTextIndex}, or null to scan every product
+   */
+  public ProductSpecificationBuilder description(String description, Set<Long> candidateIds) {
+    return StringUtils.isEmpty(description) ? this
+        : and("description" + candidatesShape(candidateIds),
+            new ProductWithDescriptionSpec(description, candidateIds));
+  }
+
+  /**
+   * @return the conjunction of the active filters, matching every product without any
+   */
+  public Specification<Product> build() {
+    return Specification.where(specification);
+  }
+
+  /**
+   * @return the active filters and the padded lengths of their candidate id lists, empty without
+   *         any filter
+   */
+  public String getShape() {
+    return shape.toString();
+  }
+
+  /**
+   * <code>IN</code> predicate on the product id, the ids are bound as one list parameter for
+   * Hibernate to expand and pad
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static Predicate idIn(Root<Product> root, CriteriaBuilder criteriaBuilder,
+      Collection<Long> ids) {
+    return root.get("id").in((Expression) criteriaBuilder.literal(ids));
+  }
+
+  private static String candidatesShape(Set<Long> candidateIds) {
+    // Length of the list parameter as padded by Hibernate
+    return candidateIds == null ? ""
+        : "[" + MathHelper.ceilingPowerOfTwo(candidateIds.size()) + "]";
+  }
+
+  private ProductSpecificationBuilder and(String filter,
+      Specification<Product> filterSpecification) {
+
+    specification =
+        specification == null ? filterSpecification : specification.and(filterSpecification);
+    shape.add(filter);
+    return this;
+  }
+
+}
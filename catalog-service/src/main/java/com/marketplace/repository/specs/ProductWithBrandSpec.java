@@ -24,7 +24,8 @@ public class ProductWithBrandSpec implements Specification<Product> {
       CriteriaBuilder criteriaBuilder) {
 
     if (StringUtils.isEmpty(brand)) {
-      return criteriaBuilder.isTrue(criteriaBuilder.literal(true));
+      // No predicate, skipped by the composed specification
+      return null;
     }
 
     return criteriaBuilder.like(criteriaBuilder.lower(root.get("brand")),
@@ -24,7 +24,8 @@ public class ProductWithColorSpec implements Specification<Product> {
       CriteriaBuilder criteriaBuilder) {
 
     if (StringUtils.isEmpty(color)) {
-      return criteriaBuilder.isTrue(criteriaBuilder.literal(true));
+      // No predicate, skipped by the composed specification
+      return null;
     }
 
     return criteriaBuilder.like(criteriaBuilder.lower(root.get("color")),
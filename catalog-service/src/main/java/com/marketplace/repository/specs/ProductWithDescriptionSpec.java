@@ -1,5 +1,6 @@
 package com.marketplace.repository.specs;
 
+import java.util.Set;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
@@ -7,6 +8,7 @@ import javax.persistence.criteria.Root;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.util.StringUtils;
 import com.marketplace.model.Product;
+import com.marketplace.repository.index.ProductTextIndex;
 
 public class ProductWithDescriptionSpec implements Specification<Product> {
 
@@ -14,9 +16,21 @@ public class ProductWithDescriptionSpec implements Specification<Product> {
 
   private String description;
 
+  private Set<Long> candidateIds;
+
   public ProductWithDescriptionSpec(String description) {
+    this(description, null);
+  }
+
+  /**
+   * @param description searched description substring
+   * @param candidateIds ids of the only products which may match, as resolved by the
+   *        {@link ProductTextIndex}, or null to scan every product
+   */
+  public ProductWithDescriptionSpec(String description, Set<Long> candidateIds) {
     super();
     this.description = description;
+    this.candidateIds = candidateIds;
   }
 
   @Override
@@ -24,11 +38,20 @@ public class ProductWithDescriptionSpec implements Specification<Product> {
       CriteriaBuilder criteriaBuilder) {
 
     if (StringUtils.isEmpty(description)) {
-      return criteriaBuilder.isTrue(criteriaBuilder.literal(true));
+      // No predicate, skipped by the composed specification
+      return null;
     }
 
-    return criteriaBuilder.like(criteriaBuilder.lower(root.get("description")),
+    if (candidateIds != null && candidateIds.isEmpty()) {
+      return criteriaBuilder.disjunction();
+    }
+
+    Predicate like = criteriaBuilder.like(criteriaBuilder.lower(root.get("description")),
         "%" + this.description.toLowerCase() + "%");
+
+    return candidateIds == null ? like
+        : criteriaBuilder.and(
+            ProductSpecificationBuilder.idIn(root, criteriaBuilder, candidateIds), like);
   }
 
 }
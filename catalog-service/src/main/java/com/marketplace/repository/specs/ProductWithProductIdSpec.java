@@ -24,7 +24,8 @@ public class ProductWithProductIdSpec implements Specification<Product> {
       CriteriaBuilder criteriaBuilder) {
 
     if (StringUtils.isEmpty(productId)) {
-      return criteriaBuilder.isTrue(criteriaBuilder.literal(true));
+      // No predicate, skipped by the composed specification
+      return null;
     }
 
     return criteriaBuilder.like(criteriaBuilder.lower(root.get("productId")),
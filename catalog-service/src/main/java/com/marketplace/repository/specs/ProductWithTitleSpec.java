@@ -1,5 +1,6 @@
 package com.marketplace.repository.specs;
 
+import java.util.Set;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
@@ -7,6 +8,7 @@ import javax.persistence.criteria.Root;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.util.StringUtils;
 import com.marketplace.model.Product;
+import com.marketplace.repository.index.ProductTextIndex;
 
 public class ProductWithTitleSpec implements Specification<Product> {
 
@@ -14,9 +16,21 @@ public class ProductWithTitleSpec implements Specification<Product> {
 
   private String title;
 
+  private Set<Long> candidateIds;
+
   public ProductWithTitleSpec(String title) {
+    this(title, null);
+  }
+
+  /**
+   * @param title searched title substring
+   * @param candidateIds ids of the only products which may match, as resolved by the
+   *        {@link ProductTextIndex}, or null to scan every product
+   */
+  public ProductWithTitleSpec(String title, Set<Long> candidateIds) {
     super();
     this.title = title;
+    this.candidateIds = candidateIds;
   }
 
   @Override
@@ -24,11 +38,20 @@ public class ProductWithTitleSpec implements Specification<Product> {
       CriteriaBuilder criteriaBuilder) {
 
     if (StringUtils.isEmpty(title)) {
-      return criteriaBuilder.isTrue(criteriaBuilder.literal(true));
+      // No predicate, skipped by the composed specification
+      return null;
     }
 
-    return criteriaBuilder.like(criteriaBuilder.lower(root.get("title")),
+    if (candidateIds != null && candidateIds.isEmpty()) {
+      return criteriaBuilder.disjunction();
+    }
+
+    Predicate like = criteriaBuilder.like(criteriaBuilder.lower(root.get("title")),
         "%" + this.title.toLowerCase() + "%");
+
+    return candidateIds == null ? like
+        : criteriaBuilder.and(
+            ProductSpecificationBuilder.idIn(root, criteriaBuilder, candidateIds), like);
   }
 
 }
@@ -1,15 +1,65 @@
 package com.marketplace.web;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import com.marketplace.cache.CatalogVersion;
+import com.marketplace.cache.ProductCache;
+import com.marketplace.cache.SingleFlight;
+import com.marketplace.event.ProductDeletedEvent;
+import com.marketplace.event.ProductPatchedEvent;
+import com.marketplace.event.ProductSavedEvent;
+import com.marketplace.metrics.CatalogMetrics;
 import com.marketplace.model.Product;
+import com.marketplace.model.ProductFields;
 import com.marketplace.repository.ProductRepository;
+import com.marketplace.repository.index.ProductTextIndex;
+import com.marketplace.repository.specs.ProductSpecificationBuilder;
 
 public abstract class AbstractProductController {
   
   protected ProductRepository productRepository;
+
+  protected ProductCache productCache;
+
+  protected ProductTextIndex productTextIndex;
+
+  protected ApplicationEventPublisher eventPublisher;
+
+  protected CatalogMetrics catalogMetrics;
+
+  protected SingleFlight singleFlight;
+
+  protected CatalogVersion catalogVersion;
+
+  protected ProductRepresentationWriter productRepresentationWriter;
+
+  @Value("${catalog.multi-get.max-ids:500}")
+  protected int maxMultiGetIds;
   
-  public AbstractProductController(ProductRepository productRepository) {
+  public AbstractProductController(ProductRepository productRepository, ProductCache productCache,
+      ProductTextIndex productTextIndex, ApplicationEventPublisher eventPublisher,
+      CatalogMetrics catalogMetrics, SingleFlight singleFlight, CatalogVersion catalogVersion,
+      ProductRepresentationWriter productRepresentationWriter) {
     super();
     this.productRepository = productRepository;
+    this.productCache = productCache;
+    this.productTextIndex = productTextIndex;
+    this.eventPublisher = eventPublisher;
+    this.catalogMetrics = catalogMetrics;
+    this.singleFlight = singleFlight;
+    this.catalogVersion = catalogVersion;
+    this.productRepresentationWriter = productRepresentationWriter;
   }
 
 
@@ -19,4 +69,193 @@ public abstract class AbstractProductController {
     return productRepository.existsByProductId(product.getProductId());
   }
 
+  protected Specification<Product> productSpecification(String productId, String title,
+      String color, String brand, String description) {
+
+    ProductSpecificationBuilder builder = catalogMetrics.timeSpecification(
+        () -> new ProductSpecificationBuilder().productId(productId)
+            .title(title, productTextIndex.titleCandidates(title)).color(color).brand(brand)
+            .description(description, productTextIndex.descriptionCandidates(description)));
+
+    catalogMetrics.countQueryShape(builder.getShape());
+    return builder.build();
+  }
+
+  /**
+   * Runs a listing query, or shares the result of the identical listing query in flight
+   * 
+   * @param read name of the query
+   * @param query the query, building its specification
+   * @param parameters filters, sort and page of the listing
+   */
+  protected <T> T coalesce(String read, Supplier<T> query, Object... parameters) {
+    return singleFlight.execute(read, query, parameters);
+  }
+
+  /**
+   * Parses the sparse fieldset of a request, and selects it for the products written in the
+   * response
+   * 
+   * @param fields comma separated field names, may be null
+   * @return the selected fields, null to read and write every field
+   * @throws IllegalArgumentException if a field is not a product field
+   */
+  protected static ProductFields productFields(String fields) {
+
+    if (fields == null) {
+      return null;
+    }
+
+    ProductFields productFields = ProductFields.parse(fields);
+    ProductFieldsModule.select(productFields);
+    return productFields;
+  }
+
+  protected static ResponseEntity<String> invalidFields(String fields,
+      IllegalArgumentException e) {
+    return ResponseEntity.badRequest().body("Invalid fields " + fields + " : " + e.getMessage());
+  }
+
+  /**
+   * Name of a representation narrowed to a sparse fieldset, its entity tags differ from the tags
+   * of the full representation
+   * 
+   * @param representation name of the full representation
+   * @param fields selected fields, may be null
+   */
+  protected static String representation(String representation, ProductFields fields) {
+    return fields == null ? representation
+        : representation + "+" + String.join("+", fields.getNames());
+  }
+
+  /**
+   * Finds many products by id in one call, through the product cache and one bulk load of the
+   * products it misses
+   * 
+   * @param ids product ids
+   * @return one result per id in request order, {@link HttpStatus#OK} with the product, or
+   *         {@link HttpStatus#NOT_FOUND}
+   */
+  protected List<ProductBatchResult<Product>> multiGetById(List<Long> ids) {
+    return multiGetResults(ids, productCache.findAllById(ids), "id");
+  }
+
+  /**
+   * Finds many products by business product id in one call
+   * 
+   * @param productIds business product ids
+   * @return one result per product id in request order, {@link HttpStatus#OK} with the product,
+   *         or {@link HttpStatus#NOT_FOUND}
+   */
+  protected List<ProductBatchResult<Product>> multiGetByProductId(List<String> productIds) {
+
+    Map<String, Product> products = new HashMap<String, Product>();
+    productRepository.findAllByProductIds(productIds)
+        .forEach(product -> products.put(product.getProductId(), product));
+    return multiGetResults(productIds, products, "productId");
+  }
+
+  protected ResponseEntity<String> tooManyProducts(int count) {
+    return ResponseEntity.badRequest().body(
+        "Unable to find " + count + " products at once, the limit is " + maxMultiGetIds);
+  }
+
+  private static <K> List<ProductBatchResult<Product>> multiGetResults(List<K> keys,
+      Map<K, Product> products, String keyName) {
+
+    List<ProductBatchResult<Product>> results = new ArrayList<ProductBatchResult<Product>>();
+    for (K key : keys) {
+
+      Product product = products.get(key);
+      results.add(product != null
+          ? new ProductBatchResult<Product>(HttpStatus.OK, null, HttpMethod.GET, product)
+          : new ProductBatchResult<Product>(HttpStatus.NOT_FOUND, HttpMethod.GET,
+              "Product with " + keyName + " : " + key + " not found", null));
+    }
+    return results;
+  }
+
+  /**
+   * Strong entity tag of a product representation. The JSON and HAL bodies of a product version
+   * differ, the representation is part of the tag.
+   * 
+   * @param representation name of the representation
+   * @param version product version, null if unknown
+   * @return the entity tag, null for an unknown version
+   */
+  protected static String productETag(String representation, Long version) {
+    return version == null ? null : "\"" + representation + "-" + version + "\"";
+  }
+
+  /**
+   * Strong entity tag of a listing representation, from the current {@link CatalogVersion} in the
+   * database. It is read before the listing query runs, so the tagged listing holds every write of
+   * that version.
+   * 
+   * @param representation name of the representation
+   */
+  protected String listingETag(String representation) {
+    return "\"" + representation + "-" + catalogVersion.get() + "\"";
+  }
+
+  /**
+   * @param ifNoneMatch <code>If-None-Match</code> header of the request, may be null
+   * @param eTag current entity tag, may be null
+   * @return whether the header lists the entity tag, compared weakly as for a GET
+   */
+  protected static boolean notModified(String ifNoneMatch, String eTag) {
+
+    if (ifNoneMatch == null || eTag == null) {
+      return false;
+    }
+
+    for (String tag : StringUtils.commaDelimitedListToStringArray(ifNoneMatch)) {
+
+      tag = tag.trim();
+      if ("*".equals(tag) || eTag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  protected static <T> ResponseEntity<T> notModified(String eTag) {
+    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag)
+        .cacheControl(CacheControl.noCache()).build();
+  }
+
+  /**
+   * Tagged responses are <code>no-cache</code>, caches such as the gateway revalidate them on
+   * every request against the versions in the database, which count the writes of every instance
+   * 
+   * @return an ok response tagged with the entity tag, <code>no-store</code> if the tag is null
+   */
+  protected static ResponseEntity.BodyBuilder ok(String eTag) {
+    return eTag == null ? ResponseEntity.ok().cacheControl(CacheControl.noStore())
+        : ResponseEntity.ok().eTag(eTag).cacheControl(CacheControl.noCache());
+  }
+
+  /**
+   * Notifies the product cache and the in-process indexes of a created or updated product
+   */
+  protected Product productSaved(Product savedProduct) {
+
+    eventPublisher.publishEvent(new ProductSavedEvent(savedProduct));
+    return savedProduct;
+  }
+
+  /**
+   * Notifies the product cache and the in-process indexes of a partially updated product
+   */
+  protected void productPatched(Long id, Product changes) {
+    eventPublisher.publishEvent(new ProductPatchedEvent(id, changes));
+  }
+
+  /**
+   * Notifies the product cache and the in-process indexes of a deleted product
+   */
+  protected void productDeleted(Long id) {
+    eventPublisher.publishEvent(new ProductDeletedEvent(id));
+  }
+
 }
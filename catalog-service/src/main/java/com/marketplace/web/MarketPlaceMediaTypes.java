@@ -8,6 +8,9 @@ import org.springframework.hateoas.MediaTypes;
  * <pre>
  * V1_JSON_UTF8 : "application/vnd.marketplace.v1+json;charset=UTF-8"
  * V1_HAL_UTF8 : "application/vnd.marketplace.v1+hal+json;charset=UTF-8"
+ * V1_NDJSON_UTF8 : "application/vnd.marketplace.v1+x-ndjson;charset=UTF-8"
+ * V1_CBOR : "application/vnd.marketplace.v1+cbor"
+ * V1_SMILE : "application/vnd.marketplace.v1+smile"
  * 
  * Current API Version is v1 : vnd.marketplace.v1
  * </pre>
@@ -27,6 +30,12 @@ public class MarketPlaceMediaTypes extends MediaTypes {
 
   public static final String HAL_TYPE = "hal" + "+" + JSON_TYPE;
 
+  public static final String NDJSON_TYPE = "x-ndjson";
+
+  public static final String CBOR_TYPE = "cbor";
+
+  public static final String SMILE_TYPE = "smile";
+
   public static final String VERSION_V1 = "v1";
 
   public static final String V1_HAL_UTF8 =
@@ -35,4 +44,14 @@ public class MarketPlaceMediaTypes extends MediaTypes {
   public static final String V1_JSON_UTF8 =
       BASE_TYPE + "/" + VND_TYPE + "." + VERSION_V1 + "+" + JSON_TYPE + ";" + UTF_8;
 
+  public static final String V1_NDJSON_UTF8 =
+      BASE_TYPE + "/" + VND_TYPE + "." + VERSION_V1 + "+" + NDJSON_TYPE + ";" + UTF_8;
+
+  // Binary formats carry no charset
+  public static final String V1_CBOR =
+      BASE_TYPE + "/" + VND_TYPE + "." + VERSION_V1 + "+" + CBOR_TYPE;
+
+  public static final String V1_SMILE =
+      BASE_TYPE + "/" + VND_TYPE + "." + VERSION_V1 + "+" + SMILE_TYPE;
+
 }
@@ -0,0 +1,185 @@
+package com.marketplace.web;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import org.springframework.http.HttpStatus;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonRootName;
+import com.marketplace.model.Product;
+
+/**
+ * Progress of an asynchronous {@link ProductBatch} import, as polled by the clients
+ *
+ * <pre>
+ * {@code
+ * {
+ *   "productBatchJob": {
+ *       "id": "8c4b2e0e-5a0e-4a51-9b8e-1f0c1b2d3e4f",
+ *       "status": "RUNNING",
+ *       "submitted": "2019-08-10T10:15:30.120Z",
+ *       "started": "2019-08-10T10:15:30.250Z",
+ *       "processed": 1500,
+ *       "inserted": 1480,
+ *       "rejected": 20,
+ *       "uri": "http://localhost:8100/products/batch/jobs/8c4b2e0e-...-1f0c1b2d3e4f",
+ *       "resultsUri": "http://localhost:8100/products/batch/jobs/8c4b2e0e-...-1f0c1b2d3e4f/results"
+ *   }
+ * }
+ * }
+ * </pre>
+ *
+ * The job is updated by its worker only, counters are updated once per chunk. Jobs are kept in the
+ * <code>product_batch_job</code> table, the jobs polled from any instance are read from there.
+ *
+ * @author Nikhil Vasaikar
+ *
+ * @see ProductBatchJobs
+ */
+@JsonRootName("productBatchJob")
+@JsonInclude(Include.NON_NULL)
+public class ProductBatchJob {
+
+  public enum Status {
+    QUEUED, RUNNING, COMPLETED, FAILED
+  }
+
+  private String id;
+
+  private URI uri;
+
+  private URI resultsUri;
+
+  @JsonIgnore
+  private Path requestFile;
+
+  private volatile Status status = Status.QUEUED;
+
+  private Instant submitted = Instant.now();
+
+  private volatile Instant started;
+
+  private volatile Instant finished;
+
+  private volatile long processed;
+
+  private volatile long inserted;
+
+  private volatile long rejected;
+
+  private volatile String error;
+
+  ProductBatchJob(String id, URI uri, Path requestFile) {
+    super();
+    this.id = id;
+    this.uri = uri;
+    this.resultsUri = URI.create(uri + "/results");
+    this.requestFile = requestFile;
+  }
+
+  /**
+   * Creates a job as stored in the database
+   */
+  ProductBatchJob(String id, URI uri, Status status, Instant submitted, Instant started,
+      Instant finished, long processed, long inserted, long rejected, String error) {
+    super();
+    this.id = id;
+    this.uri = uri;
+    this.resultsUri = URI.create(uri + "/results");
+    this.status = status;
+    this.submitted = submitted;
+    this.started = started;
+    this.finished = finished;
+    this.processed = processed;
+    this.inserted = inserted;
+    this.rejected = rejected;
+    this.error = error;
+  }
+
+  void started() {
+    started = Instant.now();
+    status = Status.RUNNING;
+  }
+
+  /**
+   * Counts the results of a chunk once they are written
+   *
+   * @param chunkResults results of the chunk
+   */
+  void chunkProcessed(List<ProductBatchResult<Product>> chunkResults) {
+
+    long chunkInserted =
+        chunkResults.stream().filter(result -> result.getHttpStatus() == HttpStatus.OK).count();
+    inserted += chunkInserted;
+    rejected += chunkResults.size() - chunkInserted;
+    processed += chunkResults.size();
+  }
+
+  void completed() {
+    finished = Instant.now();
+    status = Status.COMPLETED;
+  }
+
+  void failed(String error) {
+    this.error = error;
+    finished = Instant.now();
+    status = Status.FAILED;
+  }
+
+  @JsonIgnore
+  public boolean isFinished() {
+    return status == Status.COMPLETED || status == Status.FAILED;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public URI getUri() {
+    return uri;
+  }
+
+  public URI getResultsUri() {
+    return resultsUri;
+  }
+
+  Path getRequestFile() {
+    return requestFile;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public Instant getSubmitted() {
+    return submitted;
+  }
+
+  public Instant getStarted() {
+    return started;
+  }
+
+  public Instant getFinished() {
+    return finished;
+  }
+
+  public long getProcessed() {
+    return processed;
+  }
+
+  public long getInserted() {
+    return inserted;
+  }
+
+  public long getRejected() {
+    return rejected;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+}
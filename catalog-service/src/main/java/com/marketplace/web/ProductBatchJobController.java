@@ -0,0 +1,86 @@
+package com.marketplace.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.RejectedExecutionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+/**
+ * Asynchronous import of product batches. A batch is submitted with a POST, answered with
+ * <code>202 Accepted</code> and the uri of its {@link ProductBatchJob} once the body is received.
+ * The job is polled for progress and its results, one {@link ProductBatchResult} per product in
+ * request order, are read as newline delimited JSON while the import runs. The import runs on the
+ * instance receiving the batch, the job and its results are read from the database through any
+ * instance.
+ *
+ * @author Nikhil Vasaikar
+ *
+ * @see ProductBatchJobs
+ */
+@RestController
+@RequestMapping("/products/batch/jobs")
+public class ProductBatchJobController {
+
+  // Seconds a client is asked to wait before submitting again when the queue is full
+  private static final String RETRY_AFTER = "60";
+
+  private ProductBatchJobs productBatchJobs;
+
+  @Autowired
+  public ProductBatchJobController(ProductBatchJobs productBatchJobs) {
+    super();
+    this.productBatchJobs = productBatchJobs;
+  }
+
+  @PostMapping(produces = MarketPlaceMediaTypes.V1_JSON_UTF8)
+  ResponseEntity<?> submit(InputStream requestBody) {
+
+    try {
+
+      ProductBatchJob job = productBatchJobs.submit(requestBody,
+          ServletUriComponentsBuilder.fromCurrentRequestUri().toUriString(),
+          ServletUriComponentsBuilder.fromCurrentContextPath().path("/products").toUriString());
+
+      return ResponseEntity.accepted().location(job.getUri()).body(job);
+
+    } catch (RejectedExecutionException e) {
+
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER).body(e.getMessage());
+
+    } catch (IOException e) {
+
+      return ResponseEntity.badRequest().body("Unable to receive product batch");
+    }
+  }
+
+  @GetMapping(value = "/{id}", produces = MarketPlaceMediaTypes.V1_JSON_UTF8)
+  public ResponseEntity<ProductBatchJob> findById(@PathVariable String id) {
+
+    return productBatchJobs.find(id).map(ResponseEntity::ok)
+        .orElse(ResponseEntity.notFound().build());
+  }
+
+  @GetMapping(value = "/{id}/results", produces = MarketPlaceMediaTypes.V1_NDJSON_UTF8)
+  public ResponseEntity<StreamingResponseBody> findResults(@PathVariable String id) {
+
+    return productBatchJobs.find(id)
+        .map(job -> ResponseEntity.ok()
+            .contentType(MediaType.valueOf(MarketPlaceMediaTypes.V1_NDJSON_UTF8))
+            .<StreamingResponseBody>body(
+                outputStream -> productBatchJobs.copyResults(job, outputStream)))
+        .orElse(ResponseEntity.notFound().build());
+  }
+
+}
@@ -0,0 +1,356 @@
+package com.marketplace.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.marketplace.model.Product;
+
+/**
+ * Runs {@link ProductBatch} imports in the background, so supplier feeds of any size are imported
+ * without holding their HTTP connection open.
+ *
+ * <p>
+ * A submitted batch is spooled to a temporary file and queued on the instance receiving it. A
+ * fixed pool of workers imports the queued batches through the {@link ProductBatchProcessor} chunk
+ * by chunk, reading products one at a time. The pool holds at most
+ * <code>catalog.batch.jobs.workers</code> database connections, the rest of the connection pool is
+ * left to the interactive requests. Submissions beyond
+ * <code>catalog.batch.jobs.queue-capacity</code> queued jobs are rejected.
+ *
+ * <p>
+ * The jobs and the results of each chunk, as newline delimited JSON, are kept in the
+ * <code>product_batch_job</code> and <code>product_batch_result</code> tables, so a job is polled
+ * through any instance and outlives the instance running it. Each instance refreshes the
+ * <code>updated</code> time of its unfinished jobs every
+ * <code>catalog.batch.jobs.sweep-interval</code> and fails them when it shuts down. Unfinished
+ * jobs not refreshed for <code>catalog.batch.jobs.heartbeat-timeout</code> were left by an
+ * instance that stopped, and are failed by the sweep of any instance. Their products imported so far are kept.
+ *
+ * <p>
+ * Finished jobs and their results are kept for <code>catalog.batch.jobs.retention</code>
+ *
+ * @author Nikhil Vasaikar
+ *
+ * @see ProductBatchJobController
+ */
+@Component
+public class ProductBatchJobs {
+
+  private static final String UNFINISHED = "status in ('QUEUED', 'RUNNING')";
+
+  private static final int MAX_ERROR_LENGTH = 1000;
+
+  private ProductBatchProcessor productBatchProcessor;
+
+  private JdbcTemplate jdbcTemplate;
+
+  private TransactionTemplate transactionTemplate;
+
+  private JsonFactory jsonFactory;
+
+  private ObjectReader productReader;
+
+  private ObjectWriter resultWriter;
+
+  private ThreadPoolExecutor executor;
+
+  private Duration retention;
+
+  private Duration heartbeatTimeout;
+
+  // Unfinished jobs of this instance
+  private Set<String> activeJobIds = ConcurrentHashMap.newKeySet();
+
+  @Autowired
+  public ProductBatchJobs(ProductBatchProcessor productBatchProcessor, ObjectMapper objectMapper,
+      JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+      @Value("${catalog.batch.jobs.workers:2}") int workers,
+      @Value("${catalog.batch.jobs.queue-capacity:10}") int queueCapacity,
+      @Value("${catalog.batch.jobs.retention:1h}") Duration retention,
+      @Value("${catalog.batch.jobs.heartbeat-timeout:5m}") Duration heartbeatTimeout) {
+    super();
+    this.productBatchProcessor = productBatchProcessor;
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.jsonFactory = objectMapper.getFactory();
+    this.productReader =
+        objectMapper.readerFor(Product.class).without(DeserializationFeature.UNWRAP_ROOT_VALUE);
+    this.resultWriter = objectMapper.writerFor(ProductBatchResult.class)
+        .without(SerializationFeature.WRAP_ROOT_VALUE)
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity),
+        new CustomizableThreadFactory("product-batch-job-"));
+    this.retention = retention;
+    this.heartbeatTimeout = heartbeatTimeout;
+  }
+
+  /**
+   * Spools a batch and queues its import
+   *
+   * @param requestBody a {@link ProductBatch} request body
+   * @param jobsUri uri of the jobs, the job uri is appended its id
+   * @param productsUri uri of the products, the uri of an inserted product is appended its id
+   * @return the queued job
+   * @throws RejectedExecutionException if the queue is full
+   * @throws IOException if the request body can not be spooled
+   */
+  public ProductBatchJob submit(InputStream requestBody, String jobsUri, String productsUri)
+      throws IOException {
+
+    // Fail before spooling a batch that could not be queued
+    if (executor.getQueue().remainingCapacity() == 0) {
+      throw new RejectedExecutionException("Too many product batch jobs queued");
+    }
+
+    String id = UUID.randomUUID().toString();
+    Path requestFile = Files.createTempFile("product-batch-" + id, ".json");
+    ProductBatchJob job = new ProductBatchJob(id, URI.create(jobsUri + "/" + id), requestFile);
+
+    try {
+
+      Files.copy(requestBody, requestFile, StandardCopyOption.REPLACE_EXISTING);
+      jdbcTemplate.update(
+          "insert into product_batch_job (id, uri, status, submitted, updated, processed, "
+              + "inserted, rejected) values (?, ?, ?, ?, ?, 0, 0, 0)",
+          id, job.getUri().toString(), job.getStatus().name(), Timestamp.from(job.getSubmitted()),
+          Timestamp.from(job.getSubmitted()));
+      activeJobIds.add(id);
+      executor.execute(() -> run(job, productsUri));
+      return job;
+
+    } catch (IOException | RuntimeException e) {
+      activeJobIds.remove(id);
+      jdbcTemplate.update("delete from product_batch_job where id = ?", id);
+      Files.deleteIfExists(requestFile);
+      throw e;
+    }
+  }
+
+  public Optional<ProductBatchJob> find(String id) {
+
+    return jdbcTemplate.query("select id, uri, status, submitted, started, finished, processed, "
+        + "inserted, rejected, error from product_batch_job where id = ?",
+        (resultSet, rowNum) -> job(resultSet), id).stream().findFirst();
+  }
+
+  /**
+   * Writes the results of a job written so far, one result per line
+   *
+   * @param job the job
+   * @param outputStream the output stream
+   * @throws IOException if the results can not be written
+   */
+  public void copyResults(ProductBatchJob job, OutputStream outputStream) throws IOException {
+
+    try {
+      jdbcTemplate.query(
+          "select results from product_batch_result where job_id = ? order by chunk",
+          (RowCallbackHandler) resultSet -> {
+            try {
+              outputStream.write(resultSet.getString(1).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }, job.getId());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Keeps the unfinished jobs of this instance alive, fails the jobs left by stopped instances and
+   * deletes the jobs finished before the retention
+   */
+  @Scheduled(initialDelayString = "${catalog.batch.jobs.sweep-interval:PT1M}",
+      fixedDelayString = "${catalog.batch.jobs.sweep-interval:PT1M}")
+  public void sweep() {
+
+    Instant now = Instant.now();
+    jdbcTemplate.batchUpdate("update product_batch_job set updated = ? where id = ?",
+        activeJobIds.stream().map(id -> new Object[] {Timestamp.from(now), id})
+            .collect(Collectors.toList()));
+
+    jdbcTemplate.update(
+        "update product_batch_job set status = 'FAILED', finished = ?, error = ? where "
+            + UNFINISHED + " and updated < ?",
+        Timestamp.from(now), "Abandoned by the instance running it",
+        Timestamp.from(now.minus(heartbeatTimeout)));
+
+    jdbcTemplate.update("delete from product_batch_job where finished < ?",
+        Timestamp.from(now.minus(retention)));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+
+    // Failed before the workers are interrupted, so they record nothing more
+    Timestamp now = Timestamp.from(Instant.now());
+    jdbcTemplate.batchUpdate(
+        "update product_batch_job set status = 'FAILED', finished = ?, error = ? where id = ? and "
+            + UNFINISHED,
+        activeJobIds.stream()
+            .map(id -> new Object[] {now, "Interrupted by a shutdown of the instance running it",
+                id})
+            .collect(Collectors.toList()));
+
+    executor.shutdownNow();
+  }
+
+  private void run(ProductBatchJob job, String productsUri) {
+
+    job.started();
+
+    try (JsonParser parser = jsonFactory.createParser(job.getRequestFile().toFile())) {
+
+      // Not started if the job was failed meanwhile
+      if (jdbcTemplate.update(
+          "update product_batch_job set status = ?, started = ?, updated = ? where id = ? and "
+              + UNFINISHED,
+          job.getStatus().name(), Timestamp.from(job.getStarted()),
+          Timestamp.from(job.getStarted()), job.getId()) == 0) {
+        return;
+      }
+
+      int[] chunk = new int[1];
+      productBatchProcessor.process(new ProductBatchReader(parser, productReader),
+          chunkResults -> {
+            job.chunkProcessed(chunkResults);
+            writeChunk(job, chunk[0]++, results(chunkResults, productsUri));
+          });
+
+      job.completed();
+      finish(job);
+
+    } catch (IOException | UncheckedIOException e) {
+      job.failed("Unable to read product batch : " + e.getMessage());
+      finish(job);
+
+    } catch (RuntimeException e) {
+      job.failed("Unable to import product batch : " + e.getMessage());
+      finish(job);
+
+    } finally {
+
+      activeJobIds.remove(job.getId());
+      try {
+        Files.deleteIfExists(job.getRequestFile());
+      } catch (IOException e) {
+        // Left to the temporary directory cleanup
+      }
+    }
+  }
+
+  private String results(List<ProductBatchResult<Product>> chunkResults, String productsUri) {
+
+    ByteArrayOutputStream results = new ByteArrayOutputStream();
+    try (JsonGenerator generator = jsonFactory.createGenerator(results, JsonEncoding.UTF8)) {
+
+      generator.setRootValueSeparator(null);
+      for (ProductBatchResult<Product> result : chunkResults) {
+        resultWriter.writeValue(generator,
+            result.getHttpStatus() != HttpStatus.OK ? result
+                : new ProductBatchResult<Product>(HttpStatus.OK,
+                    URI.create(productsUri + "/" + result.getT().getId()), HttpMethod.POST,
+                    result.getT()));
+        generator.writeRaw('\n');
+      }
+
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new String(results.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Stores the results of a chunk with the counters including them, so the polled counters and
+   * results agree
+   */
+  private void writeChunk(ProductBatchJob job, int chunk, String results) {
+
+    transactionTemplate.execute(status -> {
+
+      if (jdbcTemplate.update(
+          "update product_batch_job set processed = ?, inserted = ?, rejected = ?, updated = ? "
+              + "where id = ? and status = 'RUNNING'",
+          job.getProcessed(), job.getInserted(), job.getRejected(), Timestamp.from(Instant.now()),
+          job.getId()) == 0) {
+        throw new IllegalStateException("Product batch job " + job.getId() + " was failed");
+      }
+
+      return jdbcTemplate.update(
+          "insert into product_batch_result (job_id, chunk, results) values (?, ?, ?)",
+          job.getId(), chunk, results);
+    });
+  }
+
+  private void finish(ProductBatchJob job) {
+
+    jdbcTemplate.update(
+        "update product_batch_job set status = ?, finished = ?, updated = ?, error = ? "
+            + "where id = ? and status = 'RUNNING'",
+        job.getStatus().name(), Timestamp.from(job.getFinished()),
+        Timestamp.from(job.getFinished()),
+        job.getError() == null || job.getError().length() <= MAX_ERROR_LENGTH ? job.getError()
+            : job.getError().substring(0, MAX_ERROR_LENGTH),
+        job.getId());
+  }
+
+  private static ProductBatchJob job(ResultSet resultSet) throws SQLException {
+
+    return new ProductBatchJob(resultSet.getString("id"), URI.create(resultSet.getString("uri")),
+        ProductBatchJob.Status.valueOf(resultSet.getString("status")),
+        instant(resultSet.getTimestamp("submitted")), instant(resultSet.getTimestamp("started")),
+        instant(resultSet.getTimestamp("finished")), resultSet.getLong("processed"),
+        resultSet.getLong("inserted"), resultSet.getLong("rejected"),
+        resultSet.getString("error"));
+  }
+
+  private static Instant instant(Timestamp timestamp) {
+    return timestamp == null ? null : timestamp.toInstant();
+  }
+
+}
@@ -0,0 +1,208 @@
+package com.marketplace.web;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import com.marketplace.event.ProductSavedEvent;
+import com.marketplace.metrics.CatalogMetrics;
+import com.marketplace.model.Product;
+import com.marketplace.repository.ProductRepository;
+
+/**
+ * Set based insertion pipeline for {@link ProductBatch} requests.
+ * 
+ * <p>
+ * Products are processed in chunks. For each chunk the already existing product ids are resolved
+ * with a single <code>IN</code> query and the remaining products are inserted in one transaction
+ * with JDBC statement batching. Only when a chunk insert fails are its products inserted one by one
+ * to report which of them failed.
+ * 
+ * <p>
+ * Results keep the order of the request. Inserted products are reported with {@link HttpStatus#OK}
+ * and without uri, which is left to the calling controller
+ * 
+ * @author Nikhil Vasaikar
+ *
+ * @see ProductController#newProducts(ProductBatch)
+ * @see ProductController#streamNewProducts(java.io.InputStream)
+ * @see ProductHalController#newProducts(ProductBatch)
+ */
+@Component
+public class ProductBatchProcessor {
+
+  private ProductRepository productRepository;
+
+  private ApplicationEventPublisher eventPublisher;
+
+  private CatalogMetrics catalogMetrics;
+
+  private int chunkSize;
+
+  @Autowired
+  public ProductBatchProcessor(ProductRepository productRepository,
+      ApplicationEventPublisher eventPublisher, CatalogMetrics catalogMetrics,
+      @Value("${catalog.batch.chunk-size:500}") int chunkSize) {
+    super();
+    this.productRepository = productRepository;
+    this.eventPublisher = eventPublisher;
+    this.catalogMetrics = catalogMetrics;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Inserts a batch of products chunk by chunk
+   * 
+   * @param products products of the batch
+   * @return one result per product, in request order
+   */
+  public List<ProductBatchResult<Product>> process(List<Product> products) {
+
+    Set<String> acceptedProductIds = new HashSet<String>();
+    List<ProductBatchResult<Product>> productBatchResults =
+        new ArrayList<ProductBatchResult<Product>>(products.size());
+
+    for (int from = 0; from < products.size(); from += chunkSize) {
+      productBatchResults.addAll(processChunk(
+          products.subList(from, Math.min(from + chunkSize, products.size())), acceptedProductIds));
+    }
+
+    return productBatchResults;
+  }
+
+  /**
+   * Inserts a batch of products chunk by chunk as they are read, holding at most one chunk. The
+   * products of the previous chunks are committed, so the existing product id lookup of a chunk
+   * also reports the product ids repeated across chunks.
+   * 
+   * @param products products of the batch, read once
+   * @param chunkResults receives the results of each chunk once it is inserted, in request order
+   */
+  public void process(Iterator<Product> products,
+      Consumer<List<ProductBatchResult<Product>>> chunkResults) {
+
+    List<Product> chunk = new ArrayList<Product>(chunkSize);
+    while (products.hasNext()) {
+
+      chunk.add(products.next());
+      if (chunk.size() == chunkSize) {
+        chunkResults.accept(processChunk(chunk, new HashSet<String>()));
+        chunk = new ArrayList<Product>(chunkSize);
+      }
+    }
+
+    if (!chunk.isEmpty()) {
+      chunkResults.accept(processChunk(chunk, new HashSet<String>()));
+    }
+  }
+
+  /**
+   * Inserts one chunk of a batch
+   * 
+   * @param chunk products of the chunk
+   * @param acceptedProductIds product ids inserted by the previous chunks of the same batch,
+   *        updated with the product ids inserted by this chunk
+   * @return one result per product, in chunk order
+   */
+  @SuppressWarnings("unchecked")
+  public List<ProductBatchResult<Product>> processChunk(List<Product> chunk,
+      Set<String> acceptedProductIds) {
+
+    Set<String> productIds = new HashSet<String>();
+    for (Product product : chunk) {
+      if (product.getProductId() != null) {
+        productIds.add(product.getProductId());
+      }
+    }
+
+    Set<String> existingProductIds = productIds.isEmpty() ? Collections.emptySet()
+        : productRepository.findProductIdsIn(productIds);
+
+    ProductBatchResult<Product>[] productBatchResults = new ProductBatchResult[chunk.size()];
+    List<Product> newProducts = new ArrayList<Product>(chunk.size());
+    int[] newProductPositions = new int[chunk.size()];
+
+    for (int position = 0; position < chunk.size(); position++) {
+
+      Product product = chunk.get(position);
+      String productId = product.getProductId();
+
+      if (productId != null
+          && (existingProductIds.contains(productId) || !acceptedProductIds.add(productId))) {
+
+        productBatchResults[position] = new ProductBatchResult<Product>(HttpStatus.CONFLICT,
+            HttpMethod.POST, "Product with Id : " + productId
+                + " already exists. Please send a PUT/PATCH request to update this product",
+            product);
+      } else {
+
+        // A batch only creates products, ids are always generated
+        product.setId(null);
+        newProductPositions[newProducts.size()] = position;
+        newProducts.add(product);
+      }
+    }
+
+    if (!newProducts.isEmpty()) {
+      insert(newProducts, newProductPositions, productBatchResults, acceptedProductIds);
+    }
+
+    for (ProductBatchResult<Product> productBatchResult : productBatchResults) {
+      catalogMetrics.countBatchItem(productBatchResult.getHttpStatus());
+    }
+
+    return Arrays.asList(productBatchResults);
+  }
+
+  private void insert(List<Product> newProducts, int[] newProductPositions,
+      ProductBatchResult<Product>[] productBatchResults, Set<String> acceptedProductIds) {
+
+    try {
+
+      List<Product> savedProducts = productRepository.insertAll(newProducts);
+      for (int i = 0; i < savedProducts.size(); i++) {
+        productBatchResults[newProductPositions[i]] = inserted(savedProducts.get(i));
+      }
+
+    } catch (Exception chunkException) {
+
+      // The chunk was rolled back, retry each product alone to isolate the failing ones
+      for (int i = 0; i < newProducts.size(); i++) {
+
+        Product product = newProducts.get(i);
+        product.setId(null);
+
+        try {
+
+          productBatchResults[newProductPositions[i]] =
+              inserted(productRepository.insertAll(Collections.singletonList(product)).get(0));
+
+        } catch (Exception e) {
+
+          acceptedProductIds.remove(product.getProductId());
+          productBatchResults[newProductPositions[i]] = new ProductBatchResult<Product>(
+              HttpStatus.BAD_REQUEST, HttpMethod.POST, e.getMessage(), product);
+        }
+      }
+    }
+  }
+
+  private ProductBatchResult<Product> inserted(Product savedProduct) {
+
+    eventPublisher.publishEvent(new ProductSavedEvent(savedProduct));
+    return new ProductBatchResult<Product>(HttpStatus.OK, (URI) null, HttpMethod.POST,
+        savedProduct);
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.marketplace.web;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.marketplace.model.Product;
+
+/**
+ * Reads the products of a {@link ProductBatch} request body one at a time, so only the product
+ * being read is held in memory instead of the whole products array. Other fields of the
+ * <code>productsBatch</code> object before the products array are skipped.
+ *
+ * <p>
+ * Read and syntax errors are thrown as {@link UncheckedIOException}
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+class ProductBatchReader implements Iterator<Product> {
+
+  private JsonParser parser;
+
+  private ObjectReader productReader;
+
+  private JsonToken token;
+
+  /**
+   * Positions the parser at the start of the products array
+   *
+   * @param parser parser of the request body
+   * @param productReader reader of an unwrapped {@link Product}
+   * @throws IOException if the body does not start with a <code>productsBatch</code> object
+   */
+  ProductBatchReader(JsonParser parser, ObjectReader productReader) throws IOException {
+    super();
+    this.parser = parser;
+    this.productReader = productReader;
+
+    if (parser.nextToken() != JsonToken.START_OBJECT
+        || !"productsBatch".equals(parser.nextFieldName())
+        || parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new JsonParseException(parser, "Expected a productsBatch object");
+    }
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+
+      boolean products = "products".equals(parser.getCurrentName());
+      if (parser.nextToken() == JsonToken.START_ARRAY && products) {
+        return;
+      }
+      parser.skipChildren();
+    }
+
+    throw new JsonParseException(parser, "Expected a products array");
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    try {
+
+      if (token == null) {
+        token = parser.nextToken();
+      }
+      if (token != JsonToken.START_OBJECT && token != JsonToken.END_ARRAY) {
+        throw new JsonParseException(parser, "Expected a product");
+      }
+      return token == JsonToken.START_OBJECT;
+
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public Product next() {
+
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    try {
+      token = null;
+      return productReader.readValue(parser);
+
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
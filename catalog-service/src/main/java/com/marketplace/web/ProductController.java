@@ -1,15 +1,27 @@
 package com.marketplace.web;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import org.springframework.beans.BeanUtils;
+import java.util.function.Function;
+import java.util.stream.Stream;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
@@ -17,16 +29,32 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.marketplace.cache.CatalogVersion;
+import com.marketplace.cache.ProductCache;
+import com.marketplace.cache.SingleFlight;
+import com.marketplace.metrics.CatalogMetrics;
 import com.marketplace.model.Product;
+import com.marketplace.model.ProductFields;
 import com.marketplace.repository.ProductRepository;
-import com.marketplace.repository.specs.ProductWithBrandSpec;
-import com.marketplace.repository.specs.ProductWithColorSpec;
-import com.marketplace.repository.specs.ProductWithDescriptionSpec;
-import com.marketplace.repository.specs.ProductWithProductIdSpec;
-import com.marketplace.repository.specs.ProductWithTitleSpec;
+import com.marketplace.repository.index.ProductFacetIndex;
+import com.marketplace.repository.index.ProductFacets;
+import com.marketplace.repository.index.ProductTextIndex;
 
 /**
  * Product API endpoints for plain JSON response format
@@ -38,30 +66,244 @@ import com.marketplace.repository.specs.ProductWithTitleSpec;
 @RequestMapping("/products")
 public class ProductController extends AbstractProductController {
 
+  // Rows written between two flushes of the NDJSON stream, the first row is always flushed
+  private static final int NDJSON_FLUSH_INTERVAL = 100;
+
+  // Representation names of the entity tags
+  private static final String JSON = "json";
+
+  private static final String NDJSON = "ndjson";
+
+  private static final String CBOR = "cbor";
+
+  private static final String SMILE = "smile";
+
+  // Formats of the JSON, CBOR and Smile endpoints in their produces order, by representation name
+  private static final Map<String, MediaType> FORMATS = new LinkedHashMap<String, MediaType>();
+
+  static {
+    FORMATS.put(JSON, MediaType.valueOf(MarketPlaceMediaTypes.V1_JSON_UTF8));
+    FORMATS.put(CBOR, MediaType.valueOf(MarketPlaceMediaTypes.V1_CBOR));
+    FORMATS.put(SMILE, MediaType.valueOf(MarketPlaceMediaTypes.V1_SMILE));
+  }
+
+  private ProductBatchProcessor productBatchProcessor;
+
+  private TransactionTemplate readOnlyTransactionTemplate;
+
+  private JsonFactory jsonFactory;
+
+  private ObjectWriter ndjsonWriter;
+
+  private ObjectReader batchProductReader;
+
+  private ObjectWriter batchResultWriter;
+
+  private ProductFacetIndex productFacetIndex;
+
   @Autowired
-  public ProductController(ProductRepository productRepository) {
-    super(productRepository);
+  public ProductController(ProductRepository productRepository, ProductCache productCache,
+      ProductTextIndex productTextIndex, ApplicationEventPublisher eventPublisher,
+      CatalogMetrics catalogMetrics, SingleFlight singleFlight, CatalogVersion catalogVersion,
+      ProductRepresentationWriter productRepresentationWriter,
+      ProductBatchProcessor productBatchProcessor, PlatformTransactionManager transactionManager,
+      ObjectMapper objectMapper, ProductFacetIndex productFacetIndex) {
+    super(productRepository, productCache, productTextIndex, eventPublisher, catalogMetrics,
+        singleFlight, catalogVersion, productRepresentationWriter);
+    this.productBatchProcessor = productBatchProcessor;
+    this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+    this.readOnlyTransactionTemplate.setReadOnly(true);
+    this.jsonFactory = objectMapper.getFactory();
+    this.ndjsonWriter = objectMapper.writerFor(Product.class)
+        .without(SerializationFeature.WRAP_ROOT_VALUE)
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    this.batchProductReader = objectMapper.readerFor(Product.class)
+        .without(DeserializationFeature.UNWRAP_ROOT_VALUE);
+    this.batchResultWriter = objectMapper.writerFor(ProductBatchResult.class)
+        .without(SerializationFeature.WRAP_ROOT_VALUE)
+        .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    this.productFacetIndex = productFacetIndex;
   }
 
-  @GetMapping(produces = MarketPlaceMediaTypes.V1_JSON_UTF8)
-  public ResponseEntity<Iterable<Product>> findAll(String productId, String title, String color,
-      String brand, String description, Sort sort) {
+  /**
+   * Lists the filtered products. A sparse fieldset, <code>fields=productId,title,price</code>,
+   * selects only these columns and writes only these fields.
+   */
+  @GetMapping(produces = {MarketPlaceMediaTypes.V1_JSON_UTF8,
+      MarketPlaceMediaTypes.V1_CBOR, MarketPlaceMediaTypes.V1_SMILE})
+  public ResponseEntity<?> findAll(String productId, String title, String color, String brand,
+      String description, Sort sort, String fields,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+
+    ProductFields productFields;
+    try {
+      productFields = productFields(fields);
+    } catch (IllegalArgumentException e) {
+      return invalidFields(fields, e);
+    }
+
+    String format = format(accept);
+    String representation = representation(format, productFields);
+    String eTag = listingETag(representation);
+    if (notModified(ifNoneMatch, eTag)) {
+      return notModified(eTag);
+    }
+
+    // Only listings of the same catalog version are shared, the tag must not predate the query
+    List<Product> products = coalesce("findAll", () -> {
 
-    return ResponseEntity.ok(productRepository.findAll(
-        Specification.where(new ProductWithProductIdSpec(productId))
-            .and(new ProductWithTitleSpec(title)).and(new ProductWithColorSpec(color))
-            .and(new ProductWithBrandSpec(brand)).and(new ProductWithDescriptionSpec(description)),
-        sort));
+      Specification<Product> specification =
+          productSpecification(productId, title, color, brand, description);
+      return productFields == null ? productRepository.findAll(specification, sort)
+          : productRepository.findAll(specification, sort, productFields);
+    }, eTag, productId, title, color, brand, description, sort);
+
+    if (!JSON.equals(format)) {
+      return ok(eTag).body(products);
+    }
+
+    // JSON listings are concatenated from the cached bytes of their products
+    MediaType mediaType = FORMATS.get(JSON);
+    return ok(eTag).contentType(mediaType)
+        .body(productRepresentationWriter.writeArray(products, representation, mediaType));
   }
 
-  @GetMapping(value = "/{id}", produces = MarketPlaceMediaTypes.V1_JSON_UTF8)
-  public ResponseEntity<Product> findById(@PathVariable Long id) {
+  /**
+   * Streams the filtered products as newline delimited JSON, one product per line. Rows are read
+   * through a forward-only cursor and written as they arrive, so heap usage does not depend on the
+   * result size and the first line is sent before the query completes.
+   */
+  @GetMapping(produces = MarketPlaceMediaTypes.V1_NDJSON_UTF8)
+  public ResponseEntity<StreamingResponseBody> streamAll(String productId, String title,
+      String color, String brand, String description, Sort sort,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+
+    String eTag = listingETag(NDJSON);
+    if (notModified(ifNoneMatch, eTag)) {
+      return notModified(eTag);
+    }
+
+    Specification<Product> specification =
+        productSpecification(productId, title, color, brand, description);
+
+    StreamingResponseBody body =
+        outputStream -> readOnlyTransactionTemplate.execute(status -> {
 
-    return productRepository.findById(id).map(ResponseEntity::ok)
+          try (Stream<Product> products = productRepository.streamAll(specification, sort);
+              JsonGenerator generator =
+                  jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8)) {
+
+            generator.setRootValueSeparator(new SerializedString("\n"));
+
+            long count = 0;
+            for (Product product : (Iterable<Product>) products::iterator) {
+
+              ndjsonWriter.writeValue(generator, product);
+              if (count++ % NDJSON_FLUSH_INTERVAL == 0) {
+                generator.flush();
+              }
+            }
+
+            if (count > 0) {
+              generator.writeRaw('\n');
+            }
+            return count;
+
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+
+    return ok(eTag).contentType(MediaType.valueOf(MarketPlaceMediaTypes.V1_NDJSON_UTF8))
+        .body(body);
+  }
+
+  /**
+   * Finds many products by id in one call, <code>GET /products?ids=10001,10002</code>. Each id gets
+   * a result in request order, missing products are reported inline as
+   * {@link HttpStatus#NOT_FOUND} results.
+   */
+  @GetMapping(params = "ids", produces = {MarketPlaceMediaTypes.V1_JSON_UTF8,
+      MarketPlaceMediaTypes.V1_CBOR, MarketPlaceMediaTypes.V1_SMILE})
+  public ResponseEntity<?> findAllById(@RequestParam List<Long> ids) {
+
+    if (ids.size() > maxMultiGetIds) {
+      return tooManyProducts(ids.size());
+    }
+    return multiGetResponse(multiGetById(ids));
+  }
+
+  /**
+   * Finds many products by business product id in one call,
+   * <code>GET /products?productIds=GAS1234567,REP7876543</code>
+   * 
+   * @see #findAllById(List)
+   */
+  @GetMapping(params = {"productIds", "!ids"}, produces = {MarketPlaceMediaTypes.V1_JSON_UTF8,
+      MarketPlaceMediaTypes.V1_CBOR, MarketPlaceMediaTypes.V1_SMILE})
+  public ResponseEntity<?> findAllByProductId(@RequestParam List<String> productIds) {
+
+    if (productIds.size() > maxMultiGetIds) {
+      return tooManyProducts(productIds.size());
+    }
+    return multiGetResponse(multiGetByProductId(productIds));
+  }
+
+  /**
+   * Brand, color and price bucket counts of the products matching the listing filters, counted
+   * in memory by the {@link ProductFacetIndex}
+   */
+  @GetMapping(value = "/facets", produces = {MarketPlaceMediaTypes.V1_JSON_UTF8,
+      MarketPlaceMediaTypes.V1_CBOR, MarketPlaceMediaTypes.V1_SMILE})
+  public ResponseEntity<ProductFacets> findFacets(String productId, String title, String color,
+      String brand, String description) {
+
+    return ResponseEntity
+        .ok(productFacetIndex.facets(productId, title, color, brand, description));
+  }
+
+  /**
+   * Finds a product, tagged with its version. A revalidation of the current version is answered
+   * with <code>304 Not Modified</code> from the version alone, the product is neither loaded nor
+   * serialized. A sparse fieldset narrows the written fields, the product itself is read in full
+   * through the product cache. The bytes of a product version are cached per representation.
+   */
+  @GetMapping(value = "/{id}", produces = {MarketPlaceMediaTypes.V1_JSON_UTF8,
+      MarketPlaceMediaTypes.V1_CBOR, MarketPlaceMediaTypes.V1_SMILE})
+  public ResponseEntity<?> findById(@PathVariable Long id, String fields,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+
+    String format = format(accept);
+    String representation;
+    try {
+      representation = representation(format, productFields(fields));
+    } catch (IllegalArgumentException e) {
+      return invalidFields(fields, e);
+    }
+
+    // Revalidated against the version in the database, the cached product may be older
+    Long version = null;
+    if (ifNoneMatch != null) {
+
+      version = productRepository.findVersionById(id).orElse(null);
+      String eTag = productETag(representation, version);
+      if (notModified(ifNoneMatch, eTag)) {
+        return notModified(eTag);
+      }
+    }
+
+    MediaType mediaType = FORMATS.get(format);
+    return productCache.findById(id, version)
+        .<ResponseEntity<?>>map(product -> ok(productETag(representation, product.getVersion()))
+            .contentType(mediaType).body(productRepresentationWriter.write(product,
+                representation, mediaType, Function.identity())))
         .orElse(ResponseEntity.notFound().build());
   }
 
-  @PostMapping(produces = MarketPlaceMediaTypes.V1_JSON_UTF8)
+  @PostMapping(produces = {MarketPlaceMediaTypes.V1_JSON_UTF8,
+      MarketPlaceMediaTypes.V1_CBOR, MarketPlaceMediaTypes.V1_SMILE})
   ResponseEntity<?> newProduct(@RequestBody Product product) {
 
     try {
@@ -75,7 +317,7 @@ public class ProductController extends AbstractProductController {
                 + " already exists. Please send a PUT/PATCH request to update this product");
       } else {
 
-        Product savedProduct = productRepository.save(product);
+        Product savedProduct = productSaved(productRepository.save(product));
         responseEntity =
             ResponseEntity
                 .created(ServletUriComponentsBuilder.fromCurrentRequestUri()
@@ -91,99 +333,144 @@ public class ProductController extends AbstractProductController {
     }
   }
 
-  @PostMapping(value = "/batch", produces = MarketPlaceMediaTypes.V1_JSON_UTF8)
+  @PostMapping(value = "/batch", produces = {MarketPlaceMediaTypes.V1_JSON_UTF8,
+      MarketPlaceMediaTypes.V1_CBOR, MarketPlaceMediaTypes.V1_SMILE})
   ResponseEntity<ProductBatch<ProductBatchResult<Product>>> newProducts(
       @RequestBody ProductBatch<Product> productBatch) {
 
+    String batchUri = ServletUriComponentsBuilder.fromCurrentRequestUri().toUriString();
     List<ProductBatchResult<Product>> productBatchResults =
         new ArrayList<ProductBatchResult<Product>>();
 
-    for (Product product : productBatch.getProducts()) {
-
-      try {
-
-        if (productExists(product)) {
+    for (ProductBatchResult<Product> result : productBatchProcessor
+        .process(productBatch.getProducts())) {
 
-          productBatchResults
-              .add(new ProductBatchResult<Product>(HttpStatus.CONFLICT, HttpMethod.POST,
-                  "Product with Id : " + product.getProductId()
-                      + " already exists. Please send a PUT/PATCH request to update this product",
-                  product));
-        } else {
+      productBatchResults.add(result.getHttpStatus() != HttpStatus.OK ? result
+          : new ProductBatchResult<Product>(HttpStatus.OK,
+              URI.create(batchUri + "/" + result.getT().getId()), HttpMethod.POST, result.getT()));
+    }
 
-          Product savedProduct = productRepository.save(product);
+    return ResponseEntity.status(HttpStatus.MULTI_STATUS)
+        .body(new ProductBatch<ProductBatchResult<Product>>(productBatchResults));
+  }
 
-          productBatchResults.add(new ProductBatchResult<Product>(HttpStatus.OK,
-              ServletUriComponentsBuilder.fromCurrentRequestUri()
-                  .path("/" + savedProduct.getId().toString()).build().toUri(),
-              HttpMethod.POST, savedProduct));
+  /**
+   * Streaming variant of {@link #newProducts(ProductBatch)} for large batches. Products are read
+   * one at a time from the request body and inserted chunk by chunk, the results of a chunk are
+   * written as newline delimited JSON, one result per line, once it is inserted. Memory use depends
+   * on the chunk size, not on the batch size.
+   * 
+   * <p>
+   * A malformed body ends the stream with a {@link HttpStatus#BAD_REQUEST} result without product,
+   * the products of the previous chunks stay inserted.
+   */
+  @PostMapping(value = "/batch", produces = MarketPlaceMediaTypes.V1_NDJSON_UTF8)
+  ResponseEntity<StreamingResponseBody> streamNewProducts(InputStream requestBody) {
+
+    String batchUri = ServletUriComponentsBuilder.fromCurrentRequestUri().toUriString();
+
+    StreamingResponseBody body = outputStream -> {
+
+      try (JsonParser parser = jsonFactory.createParser(requestBody);
+          JsonGenerator generator = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8)) {
+
+        generator.setRootValueSeparator(null);
+
+        try {
+
+          productBatchProcessor.process(new ProductBatchReader(parser, batchProductReader),
+              chunkResults -> {
+                for (ProductBatchResult<Product> result : chunkResults) {
+                  writeBatchResult(generator,
+                      result.getHttpStatus() != HttpStatus.OK ? result
+                          : new ProductBatchResult<Product>(HttpStatus.OK,
+                              URI.create(batchUri + "/" + result.getT().getId()), HttpMethod.POST,
+                              result.getT()));
+                }
+                flush(generator);
+              });
+
+        } catch (IOException | UncheckedIOException e) {
+
+          writeBatchResult(generator, new ProductBatchResult<Product>(HttpStatus.BAD_REQUEST,
+              HttpMethod.POST, "Unable to read product batch", null));
         }
-      } catch (Exception e) {
 
-        productBatchResults.add(new ProductBatchResult<Product>(HttpStatus.BAD_REQUEST,
-            HttpMethod.POST, e.getMessage(), product));
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
       }
-    }
+    };
 
     return ResponseEntity.status(HttpStatus.MULTI_STATUS)
-        .body(new ProductBatch<ProductBatchResult<Product>>(productBatchResults));
+        .contentType(MediaType.valueOf(MarketPlaceMediaTypes.V1_NDJSON_UTF8)).body(body);
   }
 
-  @PutMapping(value = "/{id}", produces = MarketPlaceMediaTypes.V1_JSON_UTF8)
-  ResponseEntity<?> updateProductPut(@RequestBody Product product, @PathVariable Long id) {
-
-    Optional<Product> existingProduct = productRepository.findById(id);
+  @PutMapping(value = "/{id}", produces = {MarketPlaceMediaTypes.V1_JSON_UTF8,
+      MarketPlaceMediaTypes.V1_CBOR, MarketPlaceMediaTypes.V1_SMILE})
+  ResponseEntity<?> updateProductPut(@RequestBody Product product, @PathVariable Long id,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
 
     try {
 
       product.setId(id);
-      Product savedProduct = productRepository.save(product);
+      Optional<Long> version = productRepository.updateAllFields(id, product);
+      if (version.isPresent()) {
+        product.setVersion(version.get());
+        return updatedProduct(productSaved(product), format(accept));
+      }
 
-      return existingProduct.isPresent() ? ResponseEntity.ok(savedProduct)
-          : ResponseEntity
-              .created(ServletUriComponentsBuilder.fromCurrentRequestUri().build().toUri())
-              .body(savedProduct);
+      // Not found, the product is created with a generated id
+      product.setId(null);
+      Product savedProduct = productSaved(productRepository.save(product));
+
+      return ResponseEntity
+          .created(ServletUriComponentsBuilder.fromCurrentServletMapping().path("/products/{id}")
+              .buildAndExpand(savedProduct.getId()).toUri())
+          .body(savedProduct);
 
     } catch (Exception e) {
       return ResponseEntity.badRequest().body("Unable to create " + product);
     }
   }
 
-  @PatchMapping(value = "/{id}", produces = MarketPlaceMediaTypes.V1_JSON_UTF8)
-  ResponseEntity<?> updateProductPatch(@RequestBody Product product, @PathVariable Long id) {
+  @PatchMapping(value = "/{id}", produces = {MarketPlaceMediaTypes.V1_JSON_UTF8,
+      MarketPlaceMediaTypes.V1_CBOR, MarketPlaceMediaTypes.V1_SMILE})
+  ResponseEntity<?> updateProductPatch(@RequestBody Product product, @PathVariable Long id,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
 
     ResponseEntity<?> responseEntity = null;
-    Product existingProduct = productRepository.findById(id).orElse(null);
 
-    if (existingProduct == null) {
-      responseEntity = ResponseEntity.notFound().build();
+    try {
 
-    } else {
-      try {
-        BeanUtils.copyProperties(product, existingProduct,
-            product.nullProperties().toArray(new String[product.nullProperties().size()]));
-        productRepository.save(existingProduct);
-        responseEntity = ResponseEntity.ok(existingProduct);
+      Optional<Product> updatedProduct = productRepository.updateNonNullFields(id, product);
+      if (!updatedProduct.isPresent()) {
+        responseEntity = ResponseEntity.notFound().build();
 
-      } catch (Exception e) {
-        responseEntity = ResponseEntity.badRequest().body("Unable to delete product with id " + id);
+      } else {
+        productPatched(id, product);
+        responseEntity = updatedProduct(updatedProduct.get(), format(accept));
       }
+
+    } catch (Exception e) {
+      responseEntity = ResponseEntity.badRequest().body("Unable to update product with id " + id);
     }
 
     return responseEntity;
   }
 
-  @DeleteMapping(value = "/{id}", produces = MarketPlaceMediaTypes.V1_JSON_UTF8)
+  @DeleteMapping(value = "/{id}", produces = {MarketPlaceMediaTypes.V1_JSON_UTF8,
+      MarketPlaceMediaTypes.V1_CBOR, MarketPlaceMediaTypes.V1_SMILE})
   ResponseEntity<?> deleteProduct(@PathVariable Long id) {
 
     ResponseEntity<?> responseEntity = null;
-    Optional<Product> existingProduct = productRepository.findById(id);
+    Optional<Product> existingProduct = productCache.findById(id);
     if (!existingProduct.isPresent()) {
 
       responseEntity = ResponseEntity.notFound().build();
     } else {
       try {
         productRepository.deleteById(id);
+        productDeleted(id);
         responseEntity = ResponseEntity.ok().build();
 
       } catch (Exception e) {
@@ -194,6 +481,76 @@ public class ProductController extends AbstractProductController {
     return responseEntity;
   }
 
+  /**
+   * Responds with a product as the repository read it back in the transaction of its update, tagged
+   * with the version set by the update. It is not taken from the product cache, a cached or
+   * in-flight load may predate the update.
+   */
+  private ResponseEntity<?> updatedProduct(Product product, String representation) {
+    return ok(productETag(representation, product.getVersion())).body(product);
+  }
+
+  private ResponseEntity<ProductBatch<ProductBatchResult<Product>>> multiGetResponse(
+      List<ProductBatchResult<Product>> results) {
+
+    String productsUri = ServletUriComponentsBuilder.fromCurrentContextPath().path("/products")
+        .toUriString();
+    List<ProductBatchResult<Product>> productBatchResults =
+        new ArrayList<ProductBatchResult<Product>>();
+
+    for (ProductBatchResult<Product> result : results) {
+
+      productBatchResults.add(result.getHttpStatus() != HttpStatus.OK ? result
+          : new ProductBatchResult<Product>(HttpStatus.OK,
+              URI.create(productsUri + "/" + result.getT().getId()), HttpMethod.GET,
+              result.getT()));
+    }
+
+    return ResponseEntity.status(HttpStatus.MULTI_STATUS)
+        .body(new ProductBatch<ProductBatchResult<Product>>(productBatchResults));
+  }
+
+  private void writeBatchResult(JsonGenerator generator, ProductBatchResult<Product> result) {
+
+    try {
+      batchResultWriter.writeValue(generator, result);
+      generator.writeRaw('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void flush(JsonGenerator generator) {
+
+    try {
+      generator.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Representation name of the format negotiated for an <code>Accept</code> header, the most
+   * specific accepted type picks the first compatible format as content negotiation does
+   */
+  private static String format(String accept) {
+
+    if (accept == null) {
+      return JSON;
+    }
+
+    List<MediaType> acceptedTypes = MediaType.parseMediaTypes(accept);
+    MediaType.sortBySpecificityAndQuality(acceptedTypes);
+    for (MediaType acceptedType : acceptedTypes) {
+      for (Map.Entry<String, MediaType> format : FORMATS.entrySet()) {
+        if (acceptedType.isCompatibleWith(format.getValue())) {
+          return format.getKey();
+        }
+      }
+    }
+    return JSON;
+  }
+
   public void setProductRepository(ProductRepository productRepository) {
     this.productRepository = productRepository;
   }
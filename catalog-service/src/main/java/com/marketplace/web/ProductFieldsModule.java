@@ -0,0 +1,111 @@
+package com.marketplace.web;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.marketplace.model.Product;
+import com.marketplace.model.ProductFields;
+
+/**
+ * Jackson module writing only the {@link ProductFields} selected by the current request, for every
+ * {@link Product} of the response, whether plain JSON or wrapped in a HAL resource.
+ *
+ * <p>
+ * The selection is kept as a request attribute and resolved once per serialization, products
+ * written outside of a request, or of a request without <code>fields</code>, are written in full.
+ * Spring Boot registers the module with the application and HAL object mappers.
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class ProductFieldsModule extends SimpleModule {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final String FIELDS_ATTRIBUTE = ProductFieldsModule.class.getName() + ".FIELDS";
+
+  // Serialization attribute value of a response without sparse fieldset
+  private static final Object ALL_FIELDS = new Object();
+
+  public ProductFieldsModule() {
+    super(ProductFieldsModule.class.getSimpleName());
+
+    setSerializerModifier(new BeanSerializerModifier() {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public List<BeanPropertyWriter> changeProperties(SerializationConfig config,
+          BeanDescription beanDescription, List<BeanPropertyWriter> beanProperties) {
+
+        if (!Product.class.isAssignableFrom(beanDescription.getBeanClass())) {
+          return beanProperties;
+        }
+
+        List<BeanPropertyWriter> writers = new ArrayList<BeanPropertyWriter>();
+        beanProperties.forEach(writer -> writers.add(new SelectedPropertyWriter(writer)));
+        return writers;
+      }
+    });
+  }
+
+  /**
+   * Selects the fields of the products written in the response of the current request
+   *
+   * @param fields selected fields, null for every field
+   */
+  public static void select(ProductFields fields) {
+    RequestContextHolder.currentRequestAttributes().setAttribute(FIELDS_ATTRIBUTE, fields,
+        RequestAttributes.SCOPE_REQUEST);
+  }
+
+  /**
+   * @return the fields selected by the current request, {@link #ALL_FIELDS} without selection
+   */
+  private static Object selected() {
+
+    RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+    Object fields = requestAttributes == null ? null
+        : requestAttributes.getAttribute(FIELDS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    return fields != null ? fields : ALL_FIELDS;
+  }
+
+  /**
+   * Writes a product property only when it is selected
+   */
+  private static class SelectedPropertyWriter extends BeanPropertyWriter {
+
+    private static final long serialVersionUID = 1L;
+
+    SelectedPropertyWriter(BeanPropertyWriter base) {
+      super(base);
+    }
+
+    @Override
+    public void serializeAsField(Object bean, JsonGenerator generator, SerializerProvider provider)
+        throws Exception {
+
+      Object fields = provider.getAttribute(FIELDS_ATTRIBUTE);
+      if (fields == null) {
+        fields = selected();
+        provider.setAttribute(FIELDS_ATTRIBUTE, fields);
+      }
+
+      if (fields == ALL_FIELDS || ((ProductFields) fields).contains(getName())) {
+        super.serializeAsField(bean, generator, provider);
+      }
+    }
+
+  }
+
+}
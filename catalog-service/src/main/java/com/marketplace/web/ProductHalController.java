@@ -6,16 +6,21 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.web.PagedResourcesAssembler;
-import org.springframework.hateoas.PagedResources;
+import org.springframework.hateoas.Link;
 import org.springframework.hateoas.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -24,15 +29,20 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import com.marketplace.cache.CatalogVersion;
+import com.marketplace.cache.ProductCache;
+import com.marketplace.cache.SingleFlight;
+import com.marketplace.metrics.CatalogMetrics;
 import com.marketplace.model.Product;
+import com.marketplace.model.ProductFields;
+import com.marketplace.repository.KeysetCursor;
 import com.marketplace.repository.ProductRepository;
-import com.marketplace.repository.specs.ProductWithBrandSpec;
-import com.marketplace.repository.specs.ProductWithColorSpec;
-import com.marketplace.repository.specs.ProductWithDescriptionSpec;
-import com.marketplace.repository.specs.ProductWithProductIdSpec;
-import com.marketplace.repository.specs.ProductWithTitleSpec;
+import com.marketplace.repository.index.ProductTextIndex;
 
 /**
  * Product API endpoints for HATEOAS response format
@@ -44,44 +54,164 @@ import com.marketplace.repository.specs.ProductWithTitleSpec;
 @RequestMapping("/products")
 public class ProductHalController extends AbstractProductController {
 
+  // Representation name of the entity tags
+  private static final String HAL = "hal";
+
+  private static final MediaType HAL_MEDIA_TYPE =
+      MediaType.valueOf(MarketPlaceMediaTypes.V1_HAL_UTF8);
 
   private ProductResourceAssembler productResourceAssembler;
 
+  private ProductBatchProcessor productBatchProcessor;
+
   private PagedResourcesAssembler<Product> pagedResourcesAssembler;
 
   @Autowired
-  public ProductHalController(ProductRepository productRepository,
+  public ProductHalController(ProductRepository productRepository, ProductCache productCache,
+      ProductTextIndex productTextIndex, ApplicationEventPublisher eventPublisher,
+      CatalogMetrics catalogMetrics, SingleFlight singleFlight, CatalogVersion catalogVersion,
+      ProductRepresentationWriter productRepresentationWriter,
       ProductResourceAssembler productResourceAssembler,
+      ProductBatchProcessor productBatchProcessor,
       PagedResourcesAssembler<Product> pagedResourcesAssembler) {
-    super(productRepository);
+    super(productRepository, productCache, productTextIndex, eventPublisher, catalogMetrics,
+        singleFlight, catalogVersion, productRepresentationWriter);
     this.productResourceAssembler = productResourceAssembler;
+    this.productBatchProcessor = productBatchProcessor;
     this.pagedResourcesAssembler = pagedResourcesAssembler;
   }
 
+  /**
+   * Lists products with offset pagination, or with keyset (seek) pagination when an
+   * <code>after</code> cursor is given. An empty <code>after=</code> requests the first keyset
+   * page, the following pages are reached through the <code>next</code> link. Keyset pages do not
+   * run a total count and their cost does not grow with the depth of the page. A sparse fieldset,
+   * <code>fields=productId,title,price</code>, selects only these columns and writes only these
+   * fields.
+   */
   @GetMapping(produces = MarketPlaceMediaTypes.V1_HAL_UTF8)
-  public ResponseEntity<PagedResources<?>> findAll(String productId, String title, String color,
-      String brand, String description, Pageable pageable) {
+  public ResponseEntity<?> findAll(String productId, String title, String color, String brand,
+      String description, String after, String fields, Pageable pageable,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+
+    ProductFields productFields;
+    try {
+      productFields = productFields(fields);
+    } catch (IllegalArgumentException e) {
+      return invalidFields(fields, e);
+    }
 
+    String eTag = listingETag(representation(HAL, productFields));
+    if (notModified(ifNoneMatch, eTag)) {
+      return notModified(eTag);
+    }
 
-    Page<Product> page = productRepository.findAll(
-        Specification.where(new ProductWithProductIdSpec(productId))
-            .and(new ProductWithTitleSpec(title)).and(new ProductWithColorSpec(color))
-            .and(new ProductWithBrandSpec(brand)).and(new ProductWithDescriptionSpec(description)),
-        pageable);
+    if (after != null) {
 
-    return page.getTotalElements() != 0
-        ? ResponseEntity.ok(pagedResourcesAssembler.toResource(page, productResourceAssembler))
-        : ResponseEntity.ok(pagedResourcesAssembler.toEmptyResource(page, Product.class));
+      try {
+        KeysetCursor cursor = KeysetCursor.decode(after);
+        Slice<Product> slice = coalesce("findAllAfter", () -> {
+
+          Specification<Product> specification =
+              productSpecification(productId, title, color, brand, description);
+          return productFields == null
+              ? productRepository.findAllAfter(specification, cursor, pageable.getSort(),
+                  pageable.getPageSize())
+              : productRepository.findAllAfter(specification, cursor, pageable.getSort(),
+                  pageable.getPageSize(), productFields);
+        }, eTag, productId, title, color, brand, description, after, pageable);
+        return ok(eTag).body(productResourceAssembler.toResources(slice));
+
+      } catch (IllegalArgumentException | InvalidDataAccessApiUsageException e) {
+
+        // The repository translates the rejected cursor or sort
+        return ResponseEntity.badRequest().body("Invalid cursor " + after + " : "
+            + NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+      }
+    }
+
+    Page<Product> page = coalesce("findPage", () -> {
+
+      Specification<Product> specification =
+          productSpecification(productId, title, color, brand, description);
+      return productFields == null ? productRepository.findAll(specification, pageable)
+          : productRepository.findAll(specification, pageable, productFields);
+    }, eTag, productId, title, color, brand, description, pageable);
+
+    return ok(eTag).body(catalogMetrics.timeAssembly("page",
+        () -> page.getTotalElements() != 0
+            ? pagedResourcesAssembler.toResource(page, productResourceAssembler)
+            : pagedResourcesAssembler.toEmptyResource(page, Product.class)));
   }
 
+  /**
+   * Finds a product, tagged with its version. A revalidation of the current version is answered
+   * with <code>304 Not Modified</code> from the version alone, the product is neither loaded nor
+   * assembled. A sparse fieldset narrows the written fields, the product itself is read in full
+   * through the product cache. The bytes of a product version are cached per representation and
+   * base URL, a cached resource is neither assembled nor serialized.
+   */
   @GetMapping(value = "/{id}", produces = MarketPlaceMediaTypes.V1_HAL_UTF8)
-  public ResponseEntity<ProductResource> findById(@PathVariable Long id) {
+  public ResponseEntity<?> findById(@PathVariable Long id, String fields,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+
+    String representation;
+    try {
+      representation = representation(HAL, productFields(fields));
+    } catch (IllegalArgumentException e) {
+      return invalidFields(fields, e);
+    }
 
-    return productRepository.findById(id)
-        .map(product -> productResourceAssembler.toResource(product)).map(ResponseEntity::ok)
+    // Revalidated against the version in the database, the cached product may be older
+    Long version = null;
+    if (ifNoneMatch != null) {
+
+      version = productRepository.findVersionById(id).orElse(null);
+      String eTag = productETag(representation, version);
+      if (notModified(ifNoneMatch, eTag)) {
+        return notModified(eTag);
+      }
+    }
+
+    // The links of a cached resource are those of the base URL it was assembled for
+    return productCache.findById(id, version)
+        .<ResponseEntity<?>>map(product -> ok(productETag(representation, product.getVersion()))
+            .contentType(HAL_MEDIA_TYPE)
+            .body(productRepresentationWriter.write(product,
+                representation + " " + productResourceAssembler.baseUri(), HAL_MEDIA_TYPE,
+                productResourceAssembler::toResource)))
         .orElse(ResponseEntity.notFound().build());
   }
 
+  /**
+   * Finds many products by id in one call, <code>GET /products?ids=10001,10002</code>. Each id gets
+   * a result in request order, missing products are reported inline as
+   * {@link HttpStatus#NOT_FOUND} results.
+   */
+  @GetMapping(params = "ids", produces = MarketPlaceMediaTypes.V1_HAL_UTF8)
+  public ResponseEntity<?> findAllById(@RequestParam List<Long> ids) {
+
+    if (ids.size() > maxMultiGetIds) {
+      return tooManyProducts(ids.size());
+    }
+    return multiGetResponse(multiGetById(ids));
+  }
+
+  /**
+   * Finds many products by business product id in one call,
+   * <code>GET /products?productIds=GAS1234567,REP7876543</code>
+   * 
+   * @see #findAllById(List)
+   */
+  @GetMapping(params = {"productIds", "!ids"}, produces = MarketPlaceMediaTypes.V1_HAL_UTF8)
+  public ResponseEntity<?> findAllByProductId(@RequestParam List<String> productIds) {
+
+    if (productIds.size() > maxMultiGetIds) {
+      return tooManyProducts(productIds.size());
+    }
+    return multiGetResponse(multiGetByProductId(productIds));
+  }
+
   @PostMapping(produces = MarketPlaceMediaTypes.V1_HAL_UTF8)
   public ResponseEntity<?> newProduct(@RequestBody Product product) {
 
@@ -96,7 +226,7 @@ public class ProductHalController extends AbstractProductController {
                 + " already exists. Please send a PUT/PATCH request to update this product");
       } else {
 
-        Product savedProduct = productRepository.save(product);
+        Product savedProduct = productSaved(productRepository.save(product));
         ProductResource productResource = productResourceAssembler.toResource(savedProduct);
 
         responseEntity = ResponseEntity.created(new URI(productResource.getId().getHref()))
@@ -116,31 +246,18 @@ public class ProductHalController extends AbstractProductController {
     List<ProductBatchResult<?>> productResourceBatchResults =
         new ArrayList<ProductBatchResult<?>>();
 
-    for (Product product : productBatch.getProducts()) {
-
-      try {
-
-        if (productExists(product)) {
-
-          productResourceBatchResults
-              .add(new ProductBatchResult<Product>(HttpStatus.CONFLICT, HttpMethod.POST,
-                  "Product with Id : " + product.getProductId()
-                      + " already exists. Please send a PUT/PATCH request to update this product",
-                  product));
-        } else {
+    for (ProductBatchResult<Product> result : productBatchProcessor
+        .process(productBatch.getProducts())) {
 
-          Product savedProduct = productRepository.save(product);
-          ProductResource savedProductResource = productResourceAssembler.toResource(savedProduct);
-
-          productResourceBatchResults.add(new ProductBatchResult<ProductResource>(HttpStatus.OK,
-              new URI(savedProductResource.getId().getHref()), HttpMethod.POST,
-              savedProductResource));
-        }
-      } catch (Exception e) {
-
-        productResourceBatchResults.add(new ProductBatchResult<Product>(HttpStatus.BAD_REQUEST,
-            HttpMethod.POST, e.getMessage(), product));
+      if (result.getHttpStatus() != HttpStatus.OK) {
+        productResourceBatchResults.add(result);
+        continue;
       }
+
+      ProductResource savedProductResource = productResourceAssembler.toResource(result.getT());
+      productResourceBatchResults.add(new ProductBatchResult<ProductResource>(HttpStatus.OK,
+          URI.create(savedProductResource.getId().getHref()), HttpMethod.POST,
+          savedProductResource));
     }
 
     return ResponseEntity.status(HttpStatus.MULTI_STATUS)
@@ -153,17 +270,22 @@ public class ProductHalController extends AbstractProductController {
   @PutMapping(value = "/{id}", produces = MarketPlaceMediaTypes.V1_HAL_UTF8)
   ResponseEntity<?> updateProductPut(@RequestBody Product product, @PathVariable Long id) {
 
-    Optional<Product> existingProduct = productRepository.findById(id);
-
     try {
 
       product.setId(id);
-      Product savedProduct = productRepository.save(product);
+      Optional<Long> version = productRepository.updateAllFields(id, product);
+      if (version.isPresent()) {
+        product.setVersion(version.get());
+        return updatedProduct(productSaved(product));
+      }
+
+      // Not found, the product is created with a generated id
+      product.setId(null);
+      Product savedProduct = productSaved(productRepository.save(product));
       ProductResource productResource = productResourceAssembler.toResource(savedProduct);
 
-      return existingProduct.isPresent() ? ResponseEntity.ok(productResource)
-          : ResponseEntity.created(new URI(productResource.getId().getHref()))
-              .body(productResource);
+      return ResponseEntity.created(new URI(productResource.getId().getHref()))
+          .body(productResource);
 
     } catch (Exception e) {
       return ResponseEntity.badRequest().body("Unable to create " + product);
@@ -174,23 +296,20 @@ public class ProductHalController extends AbstractProductController {
   ResponseEntity<?> updateProductPatch(@RequestBody Product product, @PathVariable Long id) {
 
     ResponseEntity<?> responseEntity = null;
-    Product existingProduct = productRepository.findById(id).orElse(null);
-    if (existingProduct == null) {
 
-      responseEntity = ResponseEntity.notFound().build();
-
-    } else {
-      try {
+    try {
 
-        BeanUtils.copyProperties(product, existingProduct,
-            product.nullProperties().toArray(new String[product.nullProperties().size()]));
-        productRepository.save(existingProduct);
-        ProductResource productResource = productResourceAssembler.toResource(existingProduct);
-        responseEntity = ResponseEntity.ok(productResource);
+      Optional<Product> updatedProduct = productRepository.updateNonNullFields(id, product);
+      if (!updatedProduct.isPresent()) {
+        responseEntity = ResponseEntity.notFound().build();
 
-      } catch (Exception e) {
-        responseEntity = ResponseEntity.badRequest().body("Unable to delete product with id " + id);
+      } else {
+        productPatched(id, product);
+        responseEntity = updatedProduct(updatedProduct.get());
       }
+
+    } catch (Exception e) {
+      responseEntity = ResponseEntity.badRequest().body("Unable to update product with id " + id);
     }
 
     return responseEntity;
@@ -201,13 +320,14 @@ public class ProductHalController extends AbstractProductController {
   ResponseEntity<?> deleteProduct(@PathVariable Long id) {
 
     ResponseEntity<?> responseEntity = null;
-    Optional<Product> existingProduct = productRepository.findById(id);
+    Optional<Product> existingProduct = productCache.findById(id);
     if (!existingProduct.isPresent()) {
 
       responseEntity = ResponseEntity.notFound().build();
     } else {
       try {
         productRepository.deleteById(id);
+        productDeleted(id);
         responseEntity = ResponseEntity.ok().build();
 
       } catch (Exception e) {
@@ -218,6 +338,39 @@ public class ProductHalController extends AbstractProductController {
     return responseEntity;
   }
 
+  /**
+   * Responds with a product as the repository read it back in the transaction of its update, tagged
+   * with the version set by the update. It is not taken from the product cache, a cached or
+   * in-flight load may predate the update.
+   */
+  private ResponseEntity<?> updatedProduct(Product product) {
+    return ok(productETag(HAL, product.getVersion()))
+        .body(productResourceAssembler.toResource(product));
+  }
+
+  private ResponseEntity<Resource<ProductBatch<ProductBatchResult<?>>>> multiGetResponse(
+      List<ProductBatchResult<Product>> results) {
+
+    List<ProductBatchResult<?>> productResourceResults = new ArrayList<ProductBatchResult<?>>();
+    for (ProductBatchResult<Product> result : results) {
+
+      if (result.getHttpStatus() != HttpStatus.OK) {
+        productResourceResults.add(result);
+        continue;
+      }
+
+      ProductResource productResource = productResourceAssembler.toResource(result.getT());
+      productResourceResults.add(new ProductBatchResult<ProductResource>(HttpStatus.OK,
+          URI.create(productResource.getId().getHref()), HttpMethod.GET, productResource));
+    }
+
+    return ResponseEntity.status(HttpStatus.MULTI_STATUS)
+        .body(new Resource<ProductBatch<ProductBatchResult<?>>>(
+            new ProductBatch<ProductBatchResult<?>>(productResourceResults),
+            new Link(ServletUriComponentsBuilder.fromCurrentRequest().toUriString())
+                .withSelfRel()));
+  }
+
   public void setProductRepository(ProductRepository productRepository) {
     this.productRepository = productRepository;
   }
@@ -0,0 +1,148 @@
+package com.marketplace.web;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.marketplace.cache.RepresentationCache;
+import com.marketplace.model.Product;
+
+/**
+ * Encodes product response bodies through the {@link RepresentationCache}, so a cached product
+ * version is written as bytes without any object mapping. The bytes are encoded with the object
+ * mapper of the message converter Spring MVC selects for the media type, and are identical to the
+ * body that converter writes.
+ *
+ * <p>
+ * JSON arrays of products are concatenated from the cached bytes of each product
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class ProductRepresentationWriter {
+
+  // Representation name suffix of a product written as an element of a JSON array
+  private static final String ELEMENT = "[]";
+
+  private final Map<MediaType, ObjectMapper> objectMappers =
+      new ConcurrentHashMap<MediaType, ObjectMapper>();
+
+  private RequestMappingHandlerAdapter requestMappingHandlerAdapter;
+
+  private RepresentationCache representationCache;
+
+  @Autowired
+  public ProductRepresentationWriter(RequestMappingHandlerAdapter requestMappingHandlerAdapter,
+      RepresentationCache representationCache) {
+    super();
+    this.requestMappingHandlerAdapter = requestMappingHandlerAdapter;
+    this.representationCache = representationCache;
+  }
+
+  /**
+   * Encodes the response body of a product
+   *
+   * @param product product, its representation is cached when its version is known
+   * @param representation name of the representation, including anything else the bytes depend
+   *        on
+   * @param mediaType media type of the response
+   * @param body creates the response body of the product on a cache miss
+   * @return the shared encoded body
+   */
+  public byte[] write(Product product, String representation, MediaType mediaType,
+      Function<Product, ?> body) {
+
+    return representationCache.get(product, representation, () -> {
+
+      Object value = body.apply(product);
+      return encode(objectMapper(value.getClass(), mediaType).writer(), value);
+    });
+  }
+
+  /**
+   * Encodes a JSON array of products, wrapped in its root name as the JSON message converter
+   * writes a list
+   *
+   * @param products products
+   * @param representation name of the representation of the products
+   * @param mediaType JSON media type of the response
+   * @return the encoded body
+   */
+  public byte[] writeArray(List<Product> products, String representation, MediaType mediaType) {
+
+    ObjectMapper objectMapper = objectMapper(Product.class, mediaType);
+    ObjectWriter elementWriter =
+        objectMapper.writer().without(SerializationFeature.WRAP_ROOT_VALUE);
+    boolean wrapped = objectMapper.isEnabled(SerializationFeature.WRAP_ROOT_VALUE);
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream(256 * products.size() + 32);
+    if (wrapped) {
+      body.write('{');
+      write(body, encode(elementWriter, objectMapper.getSerializationConfig()
+          .findRootName(products.getClass()).getSimpleName()));
+      body.write(':');
+    }
+
+    body.write('[');
+    for (int i = 0; i < products.size(); i++) {
+
+      if (i > 0) {
+        body.write(',');
+      }
+      Product product = products.get(i);
+      write(body, representationCache.get(product, representation + ELEMENT,
+          () -> encode(elementWriter, product)));
+    }
+    body.write(']');
+
+    if (wrapped) {
+      body.write('}');
+    }
+    return body.toByteArray();
+  }
+
+  /**
+   * The object mapper of the first Jackson message converter writing a type in a media type, the
+   * converter Spring MVC selects for a response body of that type. Resolved once per media type.
+   */
+  private ObjectMapper objectMapper(Class<?> type, MediaType mediaType) {
+
+    return objectMappers.computeIfAbsent(mediaType, key -> {
+
+      for (HttpMessageConverter<?> converter : requestMappingHandlerAdapter
+          .getMessageConverters()) {
+        if (converter instanceof AbstractJackson2HttpMessageConverter
+            && converter.canWrite(type, mediaType)) {
+          return ((AbstractJackson2HttpMessageConverter) converter).getObjectMapper();
+        }
+      }
+      throw new IllegalStateException("No Jackson message converter writes " + mediaType);
+    });
+  }
+
+  private static byte[] encode(ObjectWriter writer, Object value) {
+
+    try {
+      return writer.writeValueAsBytes(value);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Unable to write " + value, e);
+    }
+  }
+
+  private static void write(ByteArrayOutputStream outputStream, byte[] bytes) {
+    outputStream.write(bytes, 0, bytes.length);
+  }
+
+}
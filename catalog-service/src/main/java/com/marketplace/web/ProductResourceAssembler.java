@@ -2,10 +2,25 @@ package com.marketplace.web;
 
 import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
 import static org.springframework.hateoas.mvc.ControllerLinkBuilder.methodOn;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Slice;
+import org.springframework.hateoas.Link;
 import org.springframework.hateoas.Resource;
+import org.springframework.hateoas.Resources;
+import org.springframework.hateoas.core.AnnotationMappingDiscoverer;
+import org.springframework.hateoas.core.DummyInvocationUtils.LastInvocationAware;
+import org.springframework.hateoas.core.MappingDiscoverer;
 import org.springframework.hateoas.mvc.ResourceAssemblerSupport;
 import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import com.marketplace.metrics.CatalogMetrics;
 import com.marketplace.model.Product;
+import com.marketplace.repository.KeysetCursor;
 
 /**
  * 
@@ -53,39 +68,146 @@ import com.marketplace.model.Product;
  * }
  * </pre>
  * 
+ * <p>
+ * The links are rendered from templates resolved once at startup from the
+ * {@link ProductHalController} mappings. The controller base URL, which depends on the forwarded
+ * headers, is resolved once per request, each product then only substitutes its id.
+ * 
  * @author Nikhil Vasaikar
  *
  */
 @Component
 public class ProductResourceAssembler extends ResourceAssemblerSupport<Product, ProductResource> {
 
-  public ProductResourceAssembler() {
+  private static final String BASE_URI_ATTRIBUTE =
+      ProductResourceAssembler.class.getName() + ".BASE_URI";
+
+  private final List<LinkTemplate> linkTemplates = new ArrayList<LinkTemplate>();
+
+  private CatalogMetrics catalogMetrics;
+
+  @Autowired
+  public ProductResourceAssembler(CatalogMetrics catalogMetrics) {
     super(ProductHalController.class, ProductResource.class);
+    this.catalogMetrics = catalogMetrics;
+
+    ProductHalController controller = methodOn(ProductHalController.class);
+    linkTemplates.add(linkTemplate(controller.findById(null, null, null), Link.REL_SELF, "GET"));
+    linkTemplates.add(linkTemplate(controller.newProduct(null), "create", "POST"));
+    linkTemplates.add(linkTemplate(controller.newProducts(null), "createBatch", "POST"));
+    linkTemplates
+        .add(linkTemplate(controller.updateProductPut(null, null), "updateOrCreate", "PUT"));
+    linkTemplates.add(linkTemplate(controller.updateProductPatch(null, null), "update", "PATCH"));
+    linkTemplates.add(linkTemplate(controller.deleteProduct(null), "delete", "DELETE"));
   }
 
   @Override
   public ProductResource toResource(Product product) {
+    return catalogMetrics.timeAssembly("product", () -> assemble(product));
+  }
+
+  private ProductResource assemble(Product product) {
+
+    String baseUri = baseUri();
+    String id = String.valueOf(product.getId());
 
     ProductResource productResource = new ProductResource(product);
-    productResource.add(
-        linkTo(ProductHalController.class).slash(product.getId()).withSelfRel().withType("GET"));
-
-    productResource.add(linkTo(methodOn(ProductHalController.class).newProduct((product)))
-        .withRel("create").withType("POST"));
-    productResource
-        .add(linkTo(methodOn(ProductHalController.class).newProducts(new ProductBatch<Product>()))
-            .withRel("createBatch").withType("POST"));
-    productResource
-        .add(linkTo(methodOn(ProductHalController.class).updateProductPut(product, product.getId()))
-            .withRel("updateOrCreate").withType("PUT"));
-    productResource.add(
-        linkTo(methodOn(ProductHalController.class).updateProductPatch(product, product.getId()))
-            .withRel("update").withType("PATCH"));
-    productResource.add(
-        linkTo(methodOn(ProductHalController.class).updateProductPatch(product, product.getId()))
-            .withRel("delete").withType("DELETE"));
+    for (LinkTemplate linkTemplate : linkTemplates) {
+      productResource.add(linkTemplate.expand(baseUri, id));
+    }
 
     return productResource;
   }
 
+  /**
+   * Creates the HAL collection for a keyset (seek) paginated page. Instead of page numbers the
+   * links carry an opaque cursor, the next link is present only when a next page exists.
+   * 
+   * @param slice page of products
+   * @return {@link Resources} with self and next links
+   */
+  public Resources<ProductResource> toResources(Slice<Product> slice) {
+    return catalogMetrics.timeAssembly("slice", () -> assemble(slice));
+  }
+
+  private Resources<ProductResource> assemble(Slice<Product> slice) {
+
+    List<ProductResource> productResources = toResources(slice.getContent());
+    Resources<ProductResource> resources = new Resources<ProductResource>(productResources,
+        new Link(ServletUriComponentsBuilder.fromCurrentRequest().toUriString()).withSelfRel());
+
+    if (slice.hasNext()) {
+      Product last = slice.getContent().get(slice.getNumberOfElements() - 1);
+      resources.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest()
+          .replaceQueryParam("after", KeysetCursor.after(last, slice.getSort()).encode())
+          .replaceQueryParam("page").toUriString(), Link.REL_NEXT));
+    }
+
+    return resources;
+  }
+
+  /**
+   * Resolves the {@link ProductHalController} base URL of the current request, including the
+   * forwarded host and prefix, once per request. The links of a product resource depend on it.
+   */
+  String baseUri() {
+
+    RequestAttributes requestAttributes = RequestContextHolder.currentRequestAttributes();
+    String baseUri = (String) requestAttributes.getAttribute(BASE_URI_ATTRIBUTE,
+        RequestAttributes.SCOPE_REQUEST);
+
+    if (baseUri == null) {
+      baseUri = linkTo(ProductHalController.class).toUri().toString();
+      requestAttributes.setAttribute(BASE_URI_ATTRIBUTE, baseUri, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    return baseUri;
+  }
+
+  private static LinkTemplate linkTemplate(Object invocation, String rel, String type) {
+
+    MappingDiscoverer discoverer = new AnnotationMappingDiscoverer(RequestMapping.class);
+    String mapping = discoverer.getMapping(ProductHalController.class,
+        ((LastInvocationAware) invocation).getLastInvocation().getMethod());
+
+    return new LinkTemplate(
+        mapping.substring(discoverer.getMapping(ProductHalController.class).length()), rel, type);
+  }
+
+  /**
+   * A link path relative to the controller base URL, with at most one path variable standing for
+   * the product id
+   */
+  private static class LinkTemplate {
+
+    private final String prefix;
+
+    private final String suffix;
+
+    private final String rel;
+
+    private final String type;
+
+    LinkTemplate(String path, String rel, String type) {
+
+      int variableStart = path.indexOf('{');
+      this.prefix = variableStart < 0 ? path : path.substring(0, variableStart);
+      this.suffix = variableStart < 0 ? null : path.substring(path.indexOf('}', variableStart) + 1);
+      this.rel = rel;
+      this.type = type;
+    }
+
+    Link expand(String baseUri, String id) {
+
+      StringBuilder href = new StringBuilder(baseUri.length() + prefix.length() + 20)
+          .append(baseUri).append(prefix);
+      if (suffix != null) {
+        href.append(id).append(suffix);
+      }
+
+      return new Link(href.toString(), rel).withType(type);
+    }
+
+  }
+
 }
@@ -7,10 +7,60 @@ CREATE TABLE product (
   description VARCHAR(250) NOT NULL,
   brand VARCHAR(25) NOT NULL,
   price DECIMAL(20, 2) NOT NULL,
-  color VARCHAR(25) NOT NULL
+  color VARCHAR(25) NOT NULL,
+  version BIGINT DEFAULT 0 NOT NULL,
+  catalog_version BIGINT DEFAULT 0 NOT NULL
 );
+
+-- Rows changed since an in-memory index was loaded, see ProductTextIndex
+CREATE INDEX product_catalog_version ON product (catalog_version);
  
 INSERT INTO product (id, product_Id, title, description, brand, price, color) VALUES
   (10001,'GAS1234567', 'Jeans', 'Slim fit jeans', 'GAS', 10000, 'Blue'),
   (10002,'REP7876543', 'Jeans', 'Straight fit jeans', 'REPLAY', 15000, 'Light Blue'),
-  (10003,'BOS9987676', 'Shirt', 'Button Down Oxford', 'BOSS', 12000, 'White');
\ No newline at end of file
+  (10003,'BOS9987676', 'Shirt', 'Button Down Oxford', 'BOSS', 12000, 'White');
+
+-- Catalog-wide change counter, incremented in the transaction of every product write, which
+-- stamps the rows it writes with the new value. Products written outside of catalog-service must
+-- run, in the same transaction :
+--   UPDATE catalog_version SET version = version + 1 WHERE id = 1
+--   UPDATE product SET catalog_version = (SELECT version FROM catalog_version WHERE id = 1)
+--     WHERE id IN (...)
+DROP TABLE IF EXISTS catalog_version;
+
+CREATE TABLE catalog_version (
+  id INT PRIMARY KEY,
+  version BIGINT NOT NULL
+);
+
+INSERT INTO catalog_version (id, version) VALUES (1, 0);
+
+-- Asynchronous product batch imports, polled through any instance, see ProductBatchJobs
+DROP TABLE IF EXISTS product_batch_result;
+DROP TABLE IF EXISTS product_batch_job;
+
+CREATE TABLE product_batch_job (
+  id VARCHAR(36) PRIMARY KEY,
+  uri VARCHAR(2000) NOT NULL,
+  status VARCHAR(10) NOT NULL,
+  submitted TIMESTAMP NOT NULL,
+  started TIMESTAMP,
+  finished TIMESTAMP,
+  updated TIMESTAMP NOT NULL,
+  processed BIGINT NOT NULL,
+  inserted BIGINT NOT NULL,
+  rejected BIGINT NOT NULL,
+  error VARCHAR(1000)
+);
+
+-- Newline delimited JSON results of each imported chunk
+CREATE TABLE product_batch_result (
+  job_id VARCHAR(36) NOT NULL,
+  chunk INT NOT NULL,
+  results CLOB NOT NULL,
+  PRIMARY KEY (job_id, chunk),
+  FOREIGN KEY (job_id) REFERENCES product_batch_job (id) ON DELETE CASCADE
+);
+
+-- Product ids are handed out in blocks from product_seq, start them after the sample products
+ALTER SEQUENCE product_seq RESTART WITH 10004;
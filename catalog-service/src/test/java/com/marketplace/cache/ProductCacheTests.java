@@ -0,0 +1,135 @@
+package com.marketplace.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import com.marketplace.event.ProductDeletedEvent;
+import com.marketplace.event.ProductPatchedEvent;
+import com.marketplace.event.ProductSavedEvent;
+import com.marketplace.metrics.CatalogMetrics;
+import com.marketplace.model.Product;
+import com.marketplace.repository.ProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ProductCacheTests {
+
+  private ProductRepository productRepository;
+
+  private ProductCache productCache;
+
+  @Before
+  public void setUp() {
+
+    productRepository = mock(ProductRepository.class);
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    productCache = new ProductCache(productRepository,
+        new SingleFlight(new CatalogMetrics(meterRegistry)), meterRegistry, 100,
+        Duration.ofMinutes(10));
+  }
+
+  @Test
+  public void testFindAllByIdCachesLoadedProducts() {
+
+    Product jeans = product(1L, 1L, "Blue");
+    when(productRepository.findAllByIds(ArgumentMatchers.anyCollection()))
+        .thenReturn(Collections.singletonList(jeans));
+
+    Map<Long, Product> products = productCache.findAllById(Arrays.asList(1L, 2L));
+    assertEquals(Collections.singletonMap(1L, jeans), products);
+
+    // Served from the cache
+    assertSame(jeans, productCache.findById(1L).get());
+    verify(productRepository, never()).findById(ArgumentMatchers.any());
+  }
+
+  @Test
+  public void testFindAllByIdPatchedDuringLoad() {
+
+    Product blueJeans = product(1L, 1L, "Blue");
+    Product blackJeans = product(1L, 2L, "Black");
+
+    // The product is patched after the multi-get read it, before it is cached
+    when(productRepository.findAllByIds(ArgumentMatchers.anyCollection()))
+        .thenAnswer(invocation -> {
+          productCache.onProductPatched(new ProductPatchedEvent(1L, new Product()));
+          return Collections.singletonList(blueJeans);
+        });
+    when(productRepository.findById(1L)).thenReturn(Optional.of(blackJeans));
+
+    assertSame(blueJeans, productCache.findAllById(Collections.singletonList(1L)).get(1L));
+
+    // The stale product was not cached
+    assertSame(blackJeans, productCache.findById(1L).get());
+  }
+
+  @Test
+  public void testFindAllByIdDeletedDuringLoad() {
+
+    when(productRepository.findAllByIds(ArgumentMatchers.anyCollection()))
+        .thenAnswer(invocation -> {
+          productCache.onProductDeleted(new ProductDeletedEvent(1L));
+          return Collections.singletonList(product(1L, 1L, "Blue"));
+        });
+    when(productRepository.findById(1L)).thenReturn(Optional.empty());
+
+    productCache.findAllById(Collections.singletonList(1L));
+    assertEquals(Optional.empty(), productCache.findById(1L));
+  }
+
+  @Test
+  public void testFindAllByIdKeepsNewerCachedProduct() {
+
+    Product blueJeans = product(1L, 1L, "Blue");
+    Product blackJeans = product(1L, 2L, "Black");
+
+    // The product is read through the cache after the multi-get read it, then replaced
+    when(productRepository.findAllByIds(ArgumentMatchers.anyCollection()))
+        .thenAnswer(invocation -> {
+          productCache.findById(1L);
+          productCache.onProductSaved(new ProductSavedEvent(blackJeans));
+          return Collections.singletonList(blueJeans);
+        });
+    when(productRepository.findById(1L)).thenReturn(Optional.of(blueJeans));
+
+    assertSame(blackJeans, productCache.findAllById(Collections.singletonList(1L)).get(1L));
+    assertSame(blackJeans, productCache.findById(1L).get());
+  }
+
+  @Test
+  public void testFindByIdNewerVersion() {
+
+    Product blueJeans = product(1L, 1L, "Blue");
+    Product blackJeans = product(1L, 2L, "Black");
+    when(productRepository.findById(1L)).thenReturn(Optional.of(blueJeans),
+        Optional.of(blackJeans));
+
+    assertSame(blueJeans, productCache.findById(1L).get());
+    assertSame(blueJeans, productCache.findById(1L, 1L).get());
+    assertSame(blueJeans, productCache.findById(1L, null).get());
+
+    // Updated through another instance
+    assertSame(blackJeans, productCache.findById(1L, 2L).get());
+    assertSame(blackJeans, productCache.findById(1L).get());
+  }
+
+  private static Product product(Long id, Long version, String color) {
+
+    Product product = new Product(id, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(10000.0), color);
+    product.setVersion(version);
+    return product;
+  }
+
+}
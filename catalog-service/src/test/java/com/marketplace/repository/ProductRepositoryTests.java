@@ -0,0 +1,324 @@
+package com.marketplace.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import com.marketplace.model.Product;
+
+/**
+ * Runs the custom {@link ProductRepository} statements against the H2 database seeded by
+ * <code>data.sql</code>. Each test rolls back its changes.
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@Transactional
+public class ProductRepositoryTests {
+
+  @Autowired
+  private ProductRepository productRepository;
+
+  @Autowired
+  private EntityManager entityManager;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Test
+  public void testUpdateNonNullFields() {
+
+    long version = productRepository.findVersionById(10001L).get();
+
+    Product changes = new Product();
+    changes.setColor("Beige");
+    changes.setPrice(BigDecimal.valueOf(7000.0));
+
+    // Loaded before the update, the bulk update leaves it stale
+    Product loadedProduct = productRepository.findById(10001L).get();
+
+    // Null fields are left unchanged, the version is incremented
+    Product product = productRepository.updateNonNullFields(10001L, changes).get();
+    assertEquals(Long.valueOf(10001L), product.getId());
+    assertEquals("GAS1234567", product.getProductId());
+    assertEquals("Jeans", product.getTitle());
+    assertEquals("Slim fit jeans", product.getDescription());
+    assertEquals("GAS", product.getBrand());
+    assertEquals(0, BigDecimal.valueOf(7000).compareTo(product.getPrice()));
+    assertEquals("Beige", product.getColor());
+    assertEquals(Long.valueOf(version + 1), product.getVersion());
+    assertEquals(Long.valueOf(version), loadedProduct.getVersion());
+
+    entityManager.clear();
+    assertEquals(Long.valueOf(version + 1), productRepository.findById(10001L).get().getVersion());
+  }
+
+  @Test
+  public void testUpdateNonNullFieldsWithoutChanges() {
+
+    long version = productRepository.findVersionById(10001L).get();
+
+    // Nothing to update, the product is read as is
+    assertEquals(Long.valueOf(version),
+        productRepository.updateNonNullFields(10001L, new Product()).get().getVersion());
+    assertEquals(Long.valueOf(version), productRepository.findVersionById(10001L).get());
+  }
+
+  @Test
+  public void testUpdateNonNullFieldsNotFound() {
+
+    Product changes = new Product();
+    changes.setColor("Beige");
+
+    assertFalse(productRepository.updateNonNullFields(99999L, changes).isPresent());
+    assertFalse(productRepository.updateNonNullFields(99999L, new Product()).isPresent());
+  }
+
+  @Test
+  public void testUpdateAllFields() {
+
+    long version = productRepository.findVersionById(10002L).get();
+
+    Product product = new Product("REP7876543", "Jeans", "Skinny fit jeans", "REPLAY",
+        BigDecimal.valueOf(16000.0), "Black");
+
+    assertEquals(Long.valueOf(version + 1),
+        productRepository.updateAllFields(10002L, product).get());
+    entityManager.clear();
+
+    Product updatedProduct = productRepository.findById(10002L).get();
+    assertEquals("REP7876543", updatedProduct.getProductId());
+    assertEquals("Jeans", updatedProduct.getTitle());
+    assertEquals("Skinny fit jeans", updatedProduct.getDescription());
+    assertEquals("REPLAY", updatedProduct.getBrand());
+    assertEquals(0, BigDecimal.valueOf(16000).compareTo(updatedProduct.getPrice()));
+    assertEquals("Black", updatedProduct.getColor());
+    assertEquals(Long.valueOf(version + 1), updatedProduct.getVersion());
+
+    assertFalse(productRepository.updateAllFields(99999L, product).isPresent());
+  }
+
+  @Test
+  public void testInsertAll() {
+
+    List<Product> products = productRepository.insertAll(Arrays.asList(
+        new Product("LEV5010001", "Jeans", "Regular fit jeans", "LEVIS",
+            BigDecimal.valueOf(9000.0), "Indigo"),
+        new Product("LEV5010002", "Jacket", "Trucker jacket", "LEVIS",
+            BigDecimal.valueOf(12000.0), "Indigo")));
+
+    // Ids are assigned after the sample products
+    for (Product product : products) {
+      assertNotNull(product.getId());
+      assertTrue(product.getId() > 10003L);
+
+      Product insertedProduct = productRepository.findById(product.getId()).get();
+      assertEquals(product.getProductId(), insertedProduct.getProductId());
+      assertEquals(product.getTitle(), insertedProduct.getTitle());
+      assertEquals(0, product.getPrice().compareTo(insertedProduct.getPrice()));
+      assertEquals(Long.valueOf(0), insertedProduct.getVersion());
+    }
+  }
+
+  @Test
+  public void testInsertAllAcrossBlocks() {
+
+    List<Product> products = new ArrayList<>();
+    for (int i = 0; i < 120; i++) {
+      products.add(new Product(String.format("LEV52%05d", i), "Jeans", "Regular fit jeans",
+          "LEVIS", BigDecimal.valueOf(9000.0), "Indigo"));
+    }
+
+    productRepository.insertAll(products);
+
+    // Consecutive ids handed out from memory across at least two blocks
+    long firstId = products.get(0).getId();
+    for (int i = 0; i < products.size(); i++) {
+      assertEquals(Long.valueOf(firstId + i), products.get(i).getId());
+    }
+    assertTrue(firstId >= 10004L);
+
+    // With pooled-lo the last sequence value is the first id of the current block, and blocks
+    // start every block size ids after the seeded restart value
+    long lastId = products.get(products.size() - 1).getId();
+    long blockStart = jdbcTemplate.queryForObject(
+        "select current_value from information_schema.sequences where sequence_name = ?",
+        Long.class, ProductSequenceVerifier.SEQUENCE_NAME);
+    assertTrue(blockStart <= lastId && lastId < blockStart + 50);
+    assertEquals(0, (blockStart - 10004) % 50);
+  }
+
+  @Test
+  public void testWritesIncrementCatalogVersion() {
+
+    long version = productRepository.findCatalogVersion();
+
+    Product product = productRepository.save(new Product("LEV5030001", "Jeans",
+        "Regular fit jeans", "LEVIS", BigDecimal.valueOf(9000.0), "Indigo"));
+    assertEquals(Long.valueOf(version + 1), productRepository.findCatalogVersion());
+
+    Product changes = new Product();
+    changes.setColor("Black");
+    productRepository.updateNonNullFields(product.getId(), changes);
+    assertEquals(Long.valueOf(version + 2), productRepository.findCatalogVersion());
+
+    productRepository.updateAllFields(product.getId(), product);
+    assertEquals(Long.valueOf(version + 3), productRepository.findCatalogVersion());
+
+    productRepository.insertAll(Arrays.asList(new Product("LEV5030002", "Jacket",
+        "Trucker jacket", "LEVIS", BigDecimal.valueOf(12000.0), "Indigo")));
+    assertEquals(Long.valueOf(version + 4), productRepository.findCatalogVersion());
+
+    // A detached product is merged
+    entityManager.clear();
+    Product detachedProduct = productRepository.findById(product.getId()).get();
+    entityManager.clear();
+    detachedProduct.setColor("Blue");
+    productRepository.save(detachedProduct);
+    assertEquals(Long.valueOf(version + 5), productRepository.findCatalogVersion());
+
+    productRepository.deleteById(product.getId());
+    assertEquals(Long.valueOf(version + 6), productRepository.findCatalogVersion());
+    assertFalse(productRepository.findById(product.getId()).isPresent());
+
+    // Writes of missing products change nothing
+    assertFalse(productRepository.updateNonNullFields(99999L, changes).isPresent());
+    assertFalse(productRepository.updateAllFields(99999L, product).isPresent());
+    assertTrue(productRepository.updateNonNullFields(10001L, new Product()).isPresent());
+    assertEquals(Long.valueOf(version + 6), productRepository.findCatalogVersion());
+  }
+
+  @Test
+  public void testWritesStampProducts() {
+
+    long version = productRepository.findCatalogVersion();
+    assertTrue(productRepository.findWrittenAfter(version).isEmpty());
+
+    Product product = productRepository.save(new Product("LEV5030001", "Jeans",
+        "Regular fit jeans", "LEVIS", BigDecimal.valueOf(9000.0), "Indigo"));
+    List<Product> insertedProducts = productRepository.insertAll(Arrays.asList(new Product(
+        "LEV5030002", "Jacket", "Trucker jacket", "LEVIS", BigDecimal.valueOf(12000.0), "Indigo")));
+    Product changes = new Product();
+    changes.setColor("Black");
+    productRepository.updateNonNullFields(10001L, changes);
+
+    // The stamps are written in SQL, the products are read again
+    entityManager.clear();
+    List<Product> writtenProducts = productRepository.findWrittenAfter(version);
+    assertEquals(3, writtenProducts.size());
+    for (Product writtenProduct : writtenProducts) {
+      Long id = writtenProduct.getId();
+      long stamp = id.equals(product.getId()) ? version + 1
+          : id.equals(insertedProducts.get(0).getId()) ? version + 2 : version + 3;
+      assertEquals(Long.valueOf(stamp), writtenProduct.getCatalogVersion());
+    }
+
+    assertEquals(1, productRepository.findWrittenAfter(version + 2).size());
+    assertTrue(productRepository.findWrittenAfter(version + 3).isEmpty());
+  }
+
+  @Test(expected = EmptyResultDataAccessException.class)
+  public void testDeleteByIdNotFound() {
+    productRepository.deleteById(99999L);
+  }
+
+  @Test
+  public void testSequenceIncrementMatchesBlockSize() {
+    new ProductSequenceVerifier(jdbcTemplate, entityManagerFactory, 50).verify();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSequenceIncrementMismatch() {
+    new ProductSequenceVerifier(jdbcTemplate, entityManagerFactory, 20).verify();
+  }
+
+  @Test
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void testFindAllAfterNullSortKeys() {
+
+    // The schema requires a color, the entity does not. The DDL commits, so the test cleans up
+    // after itself instead of rolling back.
+    jdbcTemplate.execute("alter table product alter column color set null");
+    try {
+
+      List<Product> products = productRepository.insertAll(Arrays.asList(
+          new Product("KEY0000001", "Jeans", "Regular fit jeans", "KEYSET",
+              BigDecimal.valueOf(9000.0), null),
+          new Product("KEY0000002", "Jeans", "Regular fit jeans", "KEYSET",
+              BigDecimal.valueOf(9000.0), "Blue"),
+          new Product("KEY0000003", "Jeans", "Regular fit jeans", "KEYSET",
+              BigDecimal.valueOf(9000.0), null),
+          new Product("KEY0000004", "Jeans", "Regular fit jeans", "KEYSET",
+              BigDecimal.valueOf(9000.0), "Amber"),
+          new Product("KEY0000005", "Jeans", "Regular fit jeans", "KEYSET",
+              BigDecimal.valueOf(9000.0), null)));
+      Long[] ids = products.stream().map(Product::getId).toArray(Long[]::new);
+
+      // Null sorts first in ascending order and last in descending order
+      assertEquals(Arrays.asList(ids[0], ids[2], ids[4], ids[3], ids[1]),
+          findAllAfter(Sort.by(Direction.ASC, "color"), 2));
+      assertEquals(Arrays.asList(ids[1], ids[3], ids[4], ids[2], ids[0]),
+          findAllAfter(Sort.by(Direction.DESC, "color"), 2));
+      assertEquals(Arrays.asList(ids[0], ids[2], ids[4], ids[3], ids[1]),
+          findAllAfter(Sort.by(Direction.ASC, "color"), 1));
+    } finally {
+      jdbcTemplate.update("delete from product where brand = 'KEYSET'");
+      jdbcTemplate.execute("alter table product alter column color set not null");
+    }
+  }
+
+  @Test(expected = InvalidDataAccessApiUsageException.class)
+  public void testFindAllAfterMultipleSortOrders() {
+    productRepository.findAllAfter(null, null, Sort.by("color", "title"), 2);
+  }
+
+  /**
+   * Pages through the products of the <code>KEYSET</code> brand, passing the cursors through their
+   * encoded form as clients do
+   */
+  private List<Long> findAllAfter(Sort sort, int size) {
+
+    Specification<Product> keysetBrand =
+        (root, query, criteriaBuilder) -> criteriaBuilder.equal(root.get("brand"), "KEYSET");
+
+    List<Long> ids = new ArrayList<>();
+    KeysetCursor after = null;
+    Slice<Product> slice;
+    do {
+      slice = productRepository.findAllAfter(keysetBrand, after, sort, size);
+      slice.forEach(product -> ids.add(product.getId()));
+      if (slice.hasContent()) {
+        after = KeysetCursor.decode(
+            KeysetCursor.after(slice.getContent().get(slice.getNumberOfElements() - 1), sort)
+                .encode());
+      }
+    } while (slice.hasNext());
+    return ids;
+  }
+
+}
@@ -0,0 +1,106 @@
+package com.marketplace.repository.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import com.marketplace.event.ProductDeletedEvent;
+import com.marketplace.event.ProductSavedEvent;
+import com.marketplace.model.Product;
+import com.marketplace.repository.ProductRepository;
+
+public class ProductFacetIndexTests {
+
+  private ProductRepository productRepository;
+
+  private ProductFacetIndex productFacetIndex;
+
+  private Product jeans = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+      BigDecimal.valueOf(10000.0), "Blue");
+
+  private Product shirt = new Product(2L, "BOS9987676", "Shirt", "Button Down Oxford", "BOSS",
+      BigDecimal.valueOf(12000.0), "White");
+
+  @Before
+  public void setUp() {
+
+    productRepository = mock(ProductRepository.class);
+    ProductTextIndex productTextIndex = mock(ProductTextIndex.class);
+    when(productTextIndex.isReady()).thenReturn(true);
+
+    productFacetIndex = new ProductFacetIndex(productRepository, productTextIndex,
+        mock(PlatformTransactionManager.class),
+        new BigDecimal[] {BigDecimal.valueOf(5000), BigDecimal.valueOf(11000)});
+  }
+
+  @Test
+  public void testDeletedDuringRebuild() {
+
+    // The shirt is deleted once the load has started, the load still reads it
+    when(productRepository.streamAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenAnswer(invocation -> Stream.of(jeans, shirt).peek(product -> {
+          if (product == jeans) {
+            productFacetIndex.onProductDeleted(new ProductDeletedEvent(2L));
+          }
+        }));
+
+    productFacetIndex.rebuild();
+
+    ProductFacets facets = productFacetIndex.facets(null, null, null, null, null);
+    assertEquals(1, facets.getTotal());
+    assertEquals(Collections.singletonMap("GAS", 1L), facets.getBrand());
+    assertEquals(Collections.singletonMap("Blue", 1L), facets.getColor());
+    assertEquals(Long.valueOf(0), facets.getPrice().get("11000-*"));
+    assertEquals(0, productFacetIndex.facets(null, null, null, "boss", null).getTotal());
+  }
+
+  @Test
+  public void testSavedDuringRebuild() {
+
+    Product blackJeans = new Product(jeans);
+    blackJeans.setColor("Black");
+
+    // The jeans are saved once the load has started, the load reads the previous color
+    when(productRepository.streamAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenAnswer(invocation -> Stream.of(shirt, jeans).peek(product -> {
+          if (product == shirt) {
+            productFacetIndex.onProductSaved(new ProductSavedEvent(blackJeans));
+          }
+        }));
+
+    productFacetIndex.rebuild();
+
+    ProductFacets facets = productFacetIndex.facets(null, null, null, null, null);
+    assertEquals(2, facets.getTotal());
+    assertEquals(Long.valueOf(1), facets.getColor().get("Black"));
+    assertEquals(null, facets.getColor().get("Blue"));
+  }
+
+  @Test
+  public void testRebuildPicksUpOtherInstances() {
+
+    when(productRepository.streamAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenAnswer(invocation -> Stream.of(jeans, shirt));
+    productFacetIndex.rebuild();
+    assertEquals(2, productFacetIndex.facets(null, null, null, null, null).getTotal());
+
+    // The shirt is deleted through another instance, the served counts are kept until the reload
+    // completes
+    when(productRepository.streamAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenAnswer(invocation -> Stream.of(jeans).peek(product -> assertEquals(2,
+            productFacetIndex.facets(null, null, null, null, null).getTotal())));
+    productFacetIndex.rebuild();
+
+    ProductFacets facets = productFacetIndex.facets(null, null, null, null, null);
+    assertEquals(1, facets.getTotal());
+    assertEquals(Collections.singletonMap("GAS", 1L), facets.getBrand());
+  }
+
+}
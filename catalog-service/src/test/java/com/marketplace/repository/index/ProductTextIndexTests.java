@@ -0,0 +1,135 @@
+package com.marketplace.repository.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import com.marketplace.event.ProductDeletedEvent;
+import com.marketplace.event.ProductSavedEvent;
+import com.marketplace.model.Product;
+import com.marketplace.repository.ProductRepository;
+
+public class ProductTextIndexTests {
+
+  private ProductRepository productRepository;
+
+  private ProductTextIndex productTextIndex;
+
+  private Product jeans = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+      BigDecimal.valueOf(10000.0), "Blue");
+
+  private Product shirt = new Product(2L, "BOS9987676", "Shirt", "Button Down Oxford", "BOSS",
+      BigDecimal.valueOf(12000.0), "White");
+
+  @Before
+  public void setUp() {
+
+    productRepository = mock(ProductRepository.class);
+    productTextIndex = new ProductTextIndex(productRepository,
+        mock(PlatformTransactionManager.class), 1000);
+  }
+
+  @Test
+  public void testNotReadyBeforeLoad() {
+
+    assertNull(productTextIndex.titleCandidates("jeans"));
+    assertNull(productTextIndex.titleMatches("jeans"));
+  }
+
+  @Test
+  public void testDeletedDuringRebuild() {
+
+    // The shirt is deleted once the load has started, the load still reads it
+    when(productRepository.streamAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenAnswer(invocation -> Stream.of(jeans, shirt).peek(product -> {
+          if (product == jeans) {
+            productTextIndex.onProductDeleted(new ProductDeletedEvent(2L));
+          }
+        }));
+
+    productTextIndex.rebuild();
+
+    assertEquals(Collections.singleton(1L), productTextIndex.titleMatches("jeans"));
+    assertEquals(Collections.emptySet(), productTextIndex.titleMatches("shirt"));
+    assertEquals(Collections.emptySet(), productTextIndex.descriptionCandidates("oxford"));
+  }
+
+  @Test
+  public void testSavedDuringRebuild() {
+
+    Product relaxedJeans = new Product(jeans);
+    relaxedJeans.setDescription("Relaxed fit jeans");
+
+    // The jeans are saved once the load has started, the load reads the previous description
+    when(productRepository.streamAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenAnswer(invocation -> Stream.of(shirt, jeans).peek(product -> {
+          if (product == shirt) {
+            productTextIndex.onProductSaved(new ProductSavedEvent(relaxedJeans));
+          }
+        }));
+
+    productTextIndex.rebuild();
+
+    assertEquals(Collections.singleton(1L), productTextIndex.descriptionMatches("relaxed"));
+    assertEquals(Collections.emptySet(), productTextIndex.descriptionMatches("slim"));
+  }
+
+  @Test
+  public void testRebuildPicksUpOtherInstances() {
+
+    when(productRepository.streamAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenAnswer(invocation -> Stream.of(jeans, shirt));
+    productTextIndex.rebuild();
+    assertEquals(Collections.singleton(2L), productTextIndex.titleCandidates("shirt"));
+
+    // The shirt is deleted and the jeans renamed through another instance
+    Product renamedJeans = new Product(jeans);
+    renamedJeans.setTitle("Denim");
+    when(productRepository.streamAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenAnswer(invocation -> Stream.of(renamedJeans));
+    productTextIndex.rebuild();
+
+    assertEquals(Collections.emptySet(), productTextIndex.titleCandidates("shirt"));
+    assertEquals(Collections.emptySet(), productTextIndex.titleCandidates("jeans"));
+    assertEquals(Collections.singleton(1L), productTextIndex.titleCandidates("denim"));
+  }
+
+  @Test
+  public void testCatchesUpWithOtherInstances() {
+
+    when(productRepository.findCatalogVersion()).thenReturn(5L);
+    when(productRepository.streamAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenAnswer(invocation -> Stream.of(jeans));
+    productTextIndex.rebuild();
+
+    // The jeans are renamed and the shirt inserted through another instance
+    Product renamedJeans = new Product(jeans);
+    renamedJeans.setTitle("Denim");
+    ReflectionTestUtils.setField(renamedJeans, "catalogVersion", 6L);
+    Product insertedShirt = new Product(shirt);
+    ReflectionTestUtils.setField(insertedShirt, "catalogVersion", 7L);
+    when(productRepository.findWrittenAfter(5L))
+        .thenReturn(Arrays.asList(renamedJeans, insertedShirt));
+
+    assertEquals(Collections.singleton(1L), productTextIndex.titleCandidates("denim"));
+    assertEquals(Collections.emptySet(), productTextIndex.titleMatches("jeans"));
+    assertEquals(Collections.singleton(2L), productTextIndex.descriptionMatches("oxford"));
+
+    // Caught up to the last stamp read
+    verify(productRepository).findWrittenAfter(5L);
+    verify(productRepository, times(2)).findWrittenAfter(7L);
+  }
+
+}
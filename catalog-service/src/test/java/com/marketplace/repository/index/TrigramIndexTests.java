@@ -0,0 +1,164 @@
+package com.marketplace.repository.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import org.junit.Test;
+
+public class TrigramIndexTests {
+
+  @Test
+  public void testCandidates() {
+
+    TrigramIndex index = new TrigramIndex();
+    index.index(1L, "Slim fit jeans");
+    index.index(2L, "Straight fit jeans");
+    index.index(3L, "Button Down Oxford");
+
+    assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L)), index.candidates("FIT JEA", 10));
+    assertEquals(Collections.singleton(3L), index.candidates("oxf", 10));
+
+    // A trigram of the term is missing from every document
+    assertEquals(Collections.emptySet(), index.candidates("jeansx", 10));
+    assertEquals(Collections.emptySet(), index.candidates("zzz", 10));
+  }
+
+  @Test
+  public void testCandidatesCanNotNarrow() {
+
+    TrigramIndex index = new TrigramIndex();
+    index.index(1L, "Slim fit jeans");
+    index.index(2L, "Straight fit jeans");
+
+    // Shorter than a trigram
+    assertNull(index.candidates(null, 10));
+    assertNull(index.candidates("", 10));
+    assertNull(index.candidates("je", 10));
+
+    // More candidates than the limit
+    assertNull(index.candidates("jeans", 1));
+    assertEquals(2, index.candidates("jeans", 2).size());
+  }
+
+  @Test
+  public void testMatches() {
+
+    TrigramIndex index = new TrigramIndex();
+    index.index(1L, "Slim fit jeans");
+    index.index(2L, "Straight fit jeans");
+    index.index(3L, "Button Down Oxford");
+
+    // Candidates sharing every trigram without containing the term are dropped
+    index.index(4L, "fit jeb t jea");
+    assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L)), index.matches("fit jea"));
+
+    // Short terms are checked against every document
+    assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 3L, 4L)), index.matches(null));
+    assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 4L)), index.matches("fi"));
+    assertEquals(Collections.singleton(3L), index.matches("Ox"));
+    assertEquals(Collections.emptySet(), index.matches("q"));
+  }
+
+  @Test
+  public void testUnicode() {
+
+    TrigramIndex index = new TrigramIndex();
+    index.index(1L, "Crème Brûlée");
+    index.index(2L, "Jeans 👖 blue");
+    index.index(3L, "Ελληνικό ΛΑΔΙ");
+
+    assertEquals(Collections.singleton(1L), index.matches("BRÛL"));
+    assertEquals(Collections.singleton(1L), index.candidates("crè", 10));
+    assertEquals(Collections.singleton(2L), index.matches("👖 b"));
+    assertEquals(Collections.singleton(3L), index.matches("λαδι"));
+  }
+
+  @Test
+  public void testLowerCasedIndependentlyOfDefaultLocale() {
+
+    Locale defaultLocale = Locale.getDefault();
+    Locale.setDefault(new Locale("tr", "TR"));
+    try {
+
+      // The Turkish default locale lower cases I to a dotless ı
+      TrigramIndex index = new TrigramIndex();
+      index.index(1L, "SHIRT");
+      assertEquals(Collections.singleton(1L), index.matches("shirt"));
+      assertEquals(Collections.singleton(1L), index.candidates("Shirt", 10));
+    } finally {
+      Locale.setDefault(defaultLocale);
+    }
+  }
+
+  @Test
+  public void testReindexAndRemove() {
+
+    TrigramIndex index = new TrigramIndex();
+    index.index(1L, "Slim fit jeans");
+    index.index(2L, "Straight fit jeans");
+
+    // The trigrams of the previous text are dropped
+    index.index(1L, "Oxford shirt");
+    assertEquals(Collections.singleton(2L), index.candidates("jeans", 10));
+    assertEquals(Collections.singleton(1L), index.candidates("shirt", 10));
+
+    index.remove(2L);
+    assertEquals(Collections.emptySet(), index.candidates("jeans", 10));
+    assertEquals(Collections.emptySet(), index.matches("fit"));
+    assertEquals(1, index.size());
+
+    // A null text removes the document as well
+    index.index(1L, null);
+    assertEquals(0, index.size());
+    assertEquals(Collections.emptySet(), index.candidates("shirt", 10));
+
+    // Removing an unknown document is a no-op
+    index.remove(3L);
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void testIndexIfAbsent() {
+
+    TrigramIndex index = new TrigramIndex();
+    index.index(1L, "Relaxed fit jeans");
+
+    // A bulk load does not overwrite newer text
+    index.indexIfAbsent(1L, "Slim fit jeans");
+    index.indexIfAbsent(2L, "Straight fit jeans");
+
+    assertEquals(Collections.singleton(1L), index.matches("relaxed"));
+    assertEquals(Collections.emptySet(), index.matches("slim"));
+    assertEquals(Collections.singleton(2L), index.matches("straight"));
+  }
+
+  @Test
+  public void testRemovedDuringLoad() {
+
+    TrigramIndex index = new TrigramIndex();
+    index.startLoad();
+
+    // Removed before the load reads the document
+    index.remove(2L);
+    index.indexIfAbsent(1L, "Slim fit jeans");
+    index.indexIfAbsent(2L, "Straight fit jeans");
+
+    // Removed after the load read the document
+    index.indexIfAbsent(3L, "Button Down Oxford");
+    index.remove(3L);
+    index.finishLoad();
+
+    assertEquals(1, index.size());
+    assertEquals(Collections.singleton(1L), index.matches("jeans"));
+    assertEquals(Collections.emptySet(), index.matches("oxford"));
+
+    // Outside of a load removed documents are indexed again
+    index.indexIfAbsent(2L, "Straight fit jeans");
+    assertTrue(index.matches("jeans").contains(2L));
+  }
+
+}
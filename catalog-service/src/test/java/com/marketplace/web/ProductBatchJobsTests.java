@@ -0,0 +1,229 @@
+package com.marketplace.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marketplace.model.Product;
+import com.marketplace.web.ProductBatchJob.Status;
+
+/**
+ * Runs two {@link ProductBatchJobs} instances sharing the H2 database seeded by
+ * <code>data.sql</code>, as two catalog-service instances behind the gateway
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class ProductBatchJobsTests {
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  private ProductBatchProcessor productBatchProcessor;
+
+  private ProductBatchJobs instance1;
+
+  private ProductBatchJobs instance2;
+
+  private byte[] productBatch;
+
+  @Before
+  public void setUp() throws Exception {
+
+    productBatchProcessor = mock(ProductBatchProcessor.class);
+    instance1 = productBatchJobs();
+    instance2 = productBatchJobs();
+
+    productBatch = objectMapper.writeValueAsBytes(new ProductBatch<>(Arrays.asList(
+        new Product("ARMBLT101", "Belt", "Reversible genuine leather belt", "Armani",
+            BigDecimal.valueOf(3500.0), "Black/Brown"),
+        new Product("ARMBLT102", "Belt", "Braided leather belt", "Armani",
+            BigDecimal.valueOf(3000.0), "Brown"))));
+  }
+
+  @After
+  public void tearDown() {
+
+    instance1.shutdown();
+    instance2.shutdown();
+    jdbcTemplate.update("delete from product_batch_job");
+  }
+
+  @Test
+  public void testPolledThroughAnotherInstance() throws Exception {
+
+    doAnswer(invocation -> {
+      process(invocation.getArgument(0), invocation.getArgument(1));
+      return null;
+    }).when(productBatchProcessor).process(any(Iterator.class), any(Consumer.class));
+
+    // Submitted to the first instance, polled through the second one
+    ProductBatchJob job = submit(instance1);
+    assertEquals(Status.COMPLETED, awaitFinished(instance2, job.getId()).getStatus());
+
+    ProductBatchJob polledJob = instance2.find(job.getId()).get();
+    assertEquals(job.getUri(), polledJob.getUri());
+    assertEquals(2, polledJob.getProcessed());
+    assertEquals(2, polledJob.getInserted());
+    assertEquals(0, polledJob.getRejected());
+
+    ByteArrayOutputStream results = new ByteArrayOutputStream();
+    instance2.copyResults(polledJob, results);
+    String[] lines = new String(results.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertEquals(2, lines.length);
+    assertTrue(lines[0].contains("\"uri\":\"http://localhost/products/1\""));
+    assertTrue(lines[1].contains("\"uri\":\"http://localhost/products/2\""));
+
+    assertFalse(instance2.find("unknown").isPresent());
+  }
+
+  @Test
+  public void testShutdownFailsUnfinishedJobs() throws Exception {
+
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(1);
+
+    // The import outlives the shutdown of its instance
+    doAnswer(invocation -> {
+      try {
+        started.countDown();
+        try {
+          Thread.sleep(5000);
+        } catch (InterruptedException e) {
+          // Carries on as a blocking database call would
+        }
+        process(invocation.getArgument(0), invocation.getArgument(1));
+        return null;
+      } finally {
+        finished.countDown();
+      }
+    }).when(productBatchProcessor).process(any(Iterator.class), any(Consumer.class));
+
+    ProductBatchJob job = submit(instance1);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    instance1.shutdown();
+
+    ProductBatchJob failedJob = instance2.find(job.getId()).get();
+    assertEquals(Status.FAILED, failedJob.getStatus());
+    assertEquals("Interrupted by a shutdown of the instance running it", failedJob.getError());
+
+    // The results of the interrupted import are not recorded
+    assertTrue(finished.await(5, TimeUnit.SECONDS));
+    failedJob = instance2.find(job.getId()).get();
+    assertEquals(Status.FAILED, failedJob.getStatus());
+    assertEquals(0, failedJob.getProcessed());
+
+    ByteArrayOutputStream results = new ByteArrayOutputStream();
+    instance2.copyResults(failedJob, results);
+    assertEquals(0, results.size());
+  }
+
+  @Test
+  public void testSweep() throws Exception {
+
+    Instant now = Instant.now();
+
+    // Left by a stopped instance, kept alive by a running one, and finished before the retention
+    insertJob("abandoned", Status.RUNNING, now.minus(Duration.ofMinutes(10)), null);
+    insertJob("running", Status.RUNNING, now.minus(Duration.ofMinutes(1)), null);
+    insertJob("expired", Status.COMPLETED, now.minus(Duration.ofHours(2)),
+        now.minus(Duration.ofHours(2)));
+    jdbcTemplate.update(
+        "insert into product_batch_result (job_id, chunk, results) values ('expired', 0, '{}')");
+
+    instance2.sweep();
+
+    ProductBatchJob abandonedJob = instance1.find("abandoned").get();
+    assertEquals(Status.FAILED, abandonedJob.getStatus());
+    assertEquals("Abandoned by the instance running it", abandonedJob.getError());
+    assertEquals(Status.RUNNING, instance1.find("running").get().getStatus());
+    assertFalse(instance1.find("expired").isPresent());
+    assertEquals(Integer.valueOf(0), jdbcTemplate
+        .queryForObject("select count(*) from product_batch_result", Integer.class));
+  }
+
+  private ProductBatchJobs productBatchJobs() {
+    return new ProductBatchJobs(productBatchProcessor, objectMapper, jdbcTemplate,
+        transactionManager, 1, 10, Duration.ofHours(1), Duration.ofMinutes(5));
+  }
+
+  private ProductBatchJob submit(ProductBatchJobs productBatchJobs) throws Exception {
+    return productBatchJobs.submit(new ByteArrayInputStream(productBatch),
+        "http://localhost/products/batch/jobs", "http://localhost/products");
+  }
+
+  /**
+   * Inserts every product of a batch as one chunk, with ids from 1
+   */
+  private static void process(Iterator<Product> products,
+      Consumer<List<ProductBatchResult<Product>>> chunkResults) {
+
+    List<ProductBatchResult<Product>> results = new ArrayList<>();
+    while (products.hasNext()) {
+      Product product = new Product(products.next());
+      product.setId((long) results.size() + 1);
+      results.add(new ProductBatchResult<Product>(HttpStatus.OK, (URI) null, null, product));
+    }
+    chunkResults.accept(results);
+  }
+
+  private static ProductBatchJob awaitFinished(ProductBatchJobs productBatchJobs, String id)
+      throws InterruptedException {
+
+    for (int poll = 0; poll < 100; poll++) {
+
+      ProductBatchJob job = productBatchJobs.find(id).get();
+      if (job.isFinished()) {
+        return job;
+      }
+      Thread.sleep(50);
+    }
+    return productBatchJobs.find(id).get();
+  }
+
+  private void insertJob(String id, Status status, Instant updated, Instant finished) {
+
+    jdbcTemplate.update(
+        "insert into product_batch_job (id, uri, status, submitted, updated, finished, processed, "
+            + "inserted, rejected) values (?, ?, ?, ?, ?, ?, 0, 0, 0)",
+        id, "http://localhost/products/batch/jobs/" + id, status.name(), Timestamp.from(updated),
+        Timestamp.from(updated), finished == null ? null : Timestamp.from(finished));
+  }
+
+}
@@ -1,7 +1,13 @@
 package com.marketplace.web;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
@@ -11,13 +17,22 @@ import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.hamcrest.collection.IsEmptyCollection;
 import org.hamcrest.core.IsNull;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentMatchers;
@@ -31,11 +46,20 @@ import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
+import com.marketplace.cache.ProductCache;
+import com.marketplace.cache.RepresentationCache;
 import com.marketplace.model.Product;
+import com.marketplace.model.ProductFields;
 import com.marketplace.repository.ProductRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
@@ -48,9 +72,32 @@ public class ProductControllerTests {
   @Autowired
   private ObjectMapper objectMapper;
 
+  @Autowired
+  private MappingJackson2CborHttpMessageConverter cborHttpMessageConverter;
+
+  @Autowired
+  private MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter;
+
+  @Autowired
+  private ProductCache productCache;
+
+  @Autowired
+  private RepresentationCache representationCache;
+
   @MockBean
   private ProductRepository productRepository;
 
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Before
+  public void setUp() {
+
+    // Products cached by a previous test would hide the repository stubs
+    productCache.invalidateAll();
+    representationCache.invalidateAll();
+  }
+
   @Test
   public void testFindAll() throws Exception {
 
@@ -83,6 +130,153 @@ public class ProductControllerTests {
         .andReturn();
   }
 
+  @Test
+  public void testFindAllFields() throws Exception {
+
+    // Only the selected columns, the id and the sort key are read
+    Product product = new Product();
+    product.setId(1L);
+    product.setProductId("GAS1234567");
+    product.setTitle("Jeans");
+    product.setPrice(BigDecimal.valueOf(10000.0));
+    product.setColor("Blue");
+
+    when(productRepository.findAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class),
+        ArgumentMatchers.any(ProductFields.class))).thenReturn(Arrays.asList(product));
+
+    // Execute request
+    mockMvc
+        .perform(get("/products?fields=productId,title,price&sort=color,asc")
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(jsonPath("$.ArrayList[0].productId", is("GAS1234567")))
+        .andExpect(jsonPath("$.ArrayList[0].title", is("Jeans")))
+        .andExpect(jsonPath("$.ArrayList[0].price", is(10000.0)))
+        .andExpect(jsonPath("$.ArrayList[0].id").doesNotExist())
+        .andExpect(jsonPath("$.ArrayList[0].description").doesNotExist())
+        .andExpect(jsonPath("$.ArrayList[0].color").doesNotExist());
+
+    verify(productRepository, times(0)).findAll(ArgumentMatchers.any(),
+        ArgumentMatchers.any(Sort.class));
+
+    // Unknown field
+    mockMvc
+        .perform(
+            get("/products?fields=productId,secret").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isBadRequest())
+        .andExpect(content().string(containsString("Unknown product field secret")));
+  }
+
+  @Test
+  public void testFindAllCoalesced() throws Exception {
+
+    CountDownLatch queryStarted = new CountDownLatch(1);
+    CountDownLatch releaseQuery = new CountDownLatch(1);
+    double merged = mergedReads("findAll");
+
+    when(productRepository.findAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenAnswer(invocation -> {
+          queryStarted.countDown();
+          releaseQuery.await(5, TimeUnit.SECONDS);
+          return Arrays.asList(new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+              BigDecimal.valueOf(10000.0), "Blue"));
+        });
+
+    // Two identical listings, the second one arrives while the first one is querying
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Callable<MvcResult> listing = () -> mockMvc
+          .perform(get("/products").param("color", "Blue")
+              .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+          .andReturn();
+
+      Future<MvcResult> first = executor.submit(listing);
+      queryStarted.await(5, TimeUnit.SECONDS);
+      Future<MvcResult> second = executor.submit(listing);
+
+      for (int i = 0; i < 50 && mergedReads("findAll") == merged; i++) {
+        Thread.sleep(100);
+      }
+      releaseQuery.countDown();
+
+      for (Future<MvcResult> result : Arrays.asList(first, second)) {
+        assertEquals(HttpStatus.OK.value(), result.get().getResponse().getStatus());
+        assertThat(result.get().getResponse().getContentAsString(),
+            containsString("GAS1234567"));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // One query shared by both requests
+    verify(productRepository, times(1)).findAll(ArgumentMatchers.any(),
+        ArgumentMatchers.any(Sort.class));
+    assertEquals(merged + 1, mergedReads("findAll"), 0);
+  }
+
+  @Test
+  public void testFindAllQueryPlanReused() throws Exception {
+
+    when(productRepository.findAll(ArgumentMatchers.<Specification<Product>>any(),
+        ArgumentMatchers.any(Sort.class))).thenReturn(Collections.emptyList());
+
+    double reused = queryPlans("reused");
+    double created = queryPlans("new");
+
+    // Same filters with other values, the second listing reuses the SQL shape of the first
+    mockMvc.perform(get("/products").param("productId", "GAS").param("color", "Blue")
+        .param("brand", "GAS").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isOk());
+    mockMvc.perform(get("/products").param("productId", "REP").param("color", "Red")
+        .param("brand", "REPLAY").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isOk());
+
+    assertEquals(2, queryPlans("reused") - reused + queryPlans("new") - created, 0);
+    assertEquals(reused + 1, queryPlans("reused"), 1);
+  }
+
+  private double queryPlans(String result) {
+    return meterRegistry.get("catalog.query.plans").tag("result", result).counter().count();
+  }
+
+  private double mergedReads(String read) {
+
+    Counter counter = meterRegistry.find("catalog.reads.merged").tag("read", read).counter();
+    return counter != null ? counter.count() : 0;
+  }
+
+  @Test
+  public void testStreamAll() throws Exception {
+
+    List<Product> products = Arrays.asList(
+        new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS", BigDecimal.valueOf(10000.0),
+            "Blue"),
+        new Product(2L, "REP7876543", "Jeans", "Straight fit jeans", "REPLAY",
+            BigDecimal.valueOf(15000.0), "Light Blue"));
+
+    when(productRepository.streamAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenReturn(products.stream());
+
+    // Execute request, the body is written asynchronously
+    MvcResult mvcResult = mockMvc
+        .perform(get("/products").param("sort", String.valueOf(Sort.by(Direction.ASC, "color")))
+            .accept(MarketPlaceMediaTypes.V1_NDJSON_UTF8))
+        .andExpect(request().asyncStarted()).andReturn();
+
+    mockMvc.perform(asyncDispatch(mvcResult)).andDo(print()).andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_NDJSON_UTF8))
+
+        // Assert one unwrapped product per line
+        .andExpect(content().string("{\"id\":1,\"productId\":\"GAS1234567\",\"title\":\"Jeans\","
+            + "\"description\":\"Slim fit jeans\",\"brand\":\"GAS\",\"price\":10000.0,"
+            + "\"color\":\"Blue\"}\n"
+            + "{\"id\":2,\"productId\":\"REP7876543\",\"title\":\"Jeans\","
+            + "\"description\":\"Straight fit jeans\",\"brand\":\"REPLAY\",\"price\":15000.0,"
+            + "\"color\":\"Light Blue\"}\n"))
+
+        .andReturn();
+  }
+
   @Test
   public void testFindById() throws Exception {
 
@@ -106,6 +300,316 @@ public class ProductControllerTests {
         .andReturn();
   }
 
+  @Test
+  public void testFindByIdFields() throws Exception {
+
+    Product product = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(10000.0), "Blue");
+    product.setVersion(3L);
+    when(productRepository.findById(1L)).thenReturn(Optional.of(product));
+
+    // Execute request
+    mockMvc
+        .perform(get("/products/1?fields=title,brand").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"json+title+brand-3\""))
+        .andExpect(jsonPath("$.product.title", is("Jeans")))
+        .andExpect(jsonPath("$.product.brand", is("GAS")))
+        .andExpect(jsonPath("$.product.productId").doesNotExist())
+        .andExpect(jsonPath("$.product.description").doesNotExist());
+
+    // The full product is served by the product cache
+    mockMvc.perform(get("/products/1").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"json-3\""))
+        .andExpect(jsonPath("$.product.description", is("Slim fit jeans")));
+
+    verify(productRepository, times(1)).findById(1L);
+  }
+
+  @Test
+  public void testFindByIdCbor() throws Exception {
+
+    Product product = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(10000.0), "Blue");
+    product.setVersion(3L);
+    when(productRepository.findById(1L)).thenReturn(Optional.of(product));
+    when(productRepository.findVersionById(1L)).thenReturn(Optional.of(3L));
+
+    // The JSON tag of the version does not revalidate the CBOR representation
+    MvcResult result = mockMvc
+        .perform(get("/products/1").header(HttpHeaders.IF_NONE_MATCH, "\"json-3\"")
+            .accept(MarketPlaceMediaTypes.V1_CBOR))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_CBOR))
+        .andExpect(header().string(HttpHeaders.ETAG, "\"cbor-3\"")).andReturn();
+
+    // Assert product fields
+    assertEquals(product, cborHttpMessageConverter.getObjectMapper()
+        .readValue(result.getResponse().getContentAsByteArray(), Product.class));
+
+    mockMvc
+        .perform(get("/products/1").header(HttpHeaders.IF_NONE_MATCH, "\"cbor-3\"")
+            .accept(MarketPlaceMediaTypes.V1_CBOR))
+        .andDo(print()).andExpect(status().isNotModified());
+  }
+
+  @Test
+  public void testFindByIdCached() throws Exception {
+
+    when(productRepository.findById(1L)).thenReturn(Optional.of(new Product(1L, "GAS1234567",
+        "Jeans", "Slim fit jeans", "GAS", BigDecimal.valueOf(10000.0), "Blue")));
+
+    // Execute request twice, the second one is served by the product cache
+    for (int i = 0; i < 2; i++) {
+      mockMvc.perform(get("/products/1").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+          .andDo(print()).andExpect(status().isOk())
+          .andExpect(jsonPath("$.product.color", is("Blue")));
+    }
+
+    verify(productRepository, times(1)).findById(1L);
+  }
+
+  @Test
+  public void testFindByIdRepresentationCached() throws Exception {
+
+    Product product = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(10000.0), "Blue");
+    product.setVersion(5L);
+    when(productRepository.findById(1L)).thenReturn(Optional.of(product));
+
+    double hits = representationCacheHits();
+
+    // The second response is written from the bytes of the first one
+    String body = null;
+    for (int i = 0; i < 2; i++) {
+      String response = mockMvc
+          .perform(get("/products/1").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+          .andDo(print()).andExpect(status().isOk())
+          .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_JSON_UTF8))
+          .andExpect(jsonPath("$.product.title", is("Jeans")))
+          .andReturn().getResponse().getContentAsString();
+      assertEquals(body == null ? response : body, response);
+      body = response;
+    }
+
+    assertEquals(hits + 1, representationCacheHits(), 0);
+
+    // A sparse fieldset is another representation
+    mockMvc.perform(get("/products/1?fields=title").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(jsonPath("$.product.title", is("Jeans")))
+        .andExpect(jsonPath("$.product.color").doesNotExist());
+  }
+
+  @Test
+  public void testFindByIdNotModified() throws Exception {
+
+    Product product = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(10000.0), "Blue");
+    product.setVersion(3L);
+    when(productRepository.findById(1L)).thenReturn(Optional.of(product));
+    when(productRepository.findVersionById(1L)).thenReturn(Optional.of(3L));
+
+    mockMvc.perform(get("/products/1").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"json-3\""))
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
+        .andExpect(jsonPath("$.product.version").doesNotExist());
+
+    // Revalidated from the version in the database, with and without a cached product
+    for (int i = 0; i < 2; i++) {
+      mockMvc
+          .perform(get("/products/1").header(HttpHeaders.IF_NONE_MATCH, "\"json-3\"")
+              .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+          .andDo(print()).andExpect(status().isNotModified())
+          .andExpect(header().string(HttpHeaders.ETAG, "\"json-3\""))
+          .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
+          .andExpect(content().string(""));
+      productCache.invalidateAll();
+    }
+
+    verify(productRepository, times(1)).findById(1L);
+
+    // A stale version gets the product
+    mockMvc
+        .perform(get("/products/1").header(HttpHeaders.IF_NONE_MATCH, "\"json-2\"")
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"json-3\""))
+        .andExpect(jsonPath("$.product.color", is("Blue")));
+  }
+
+  @Test
+  public void testFindByIdUpdatedThroughAnotherInstance() throws Exception {
+
+    Product product = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(10000.0), "Blue");
+    product.setVersion(3L);
+    Product updatedProduct = new Product(product);
+    updatedProduct.setColor("Black");
+    updatedProduct.setVersion(4L);
+    when(productRepository.findById(1L)).thenReturn(Optional.of(product),
+        Optional.of(updatedProduct));
+
+    // Cached at version 3
+    mockMvc.perform(get("/products/1").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ETAG, "\"json-3\""));
+
+    // Updated through another instance, the cached product is not served
+    when(productRepository.findVersionById(1L)).thenReturn(Optional.of(4L));
+    mockMvc
+        .perform(get("/products/1").header(HttpHeaders.IF_NONE_MATCH, "\"json-3\"")
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"json-4\""))
+        .andExpect(jsonPath("$.product.color", is("Black")));
+  }
+
+  @Test
+  public void testFindAllRepresentationCached() throws Exception {
+
+    List<Product> products = Arrays.asList(
+        new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS", BigDecimal.valueOf(10000.0),
+            "Blue"),
+        new Product(2L, "REP7876543", "Jeans", "Straight fit \"jeans\"", "REPLAY",
+            BigDecimal.valueOf(15000.0), "Light Blue"));
+    products.forEach(product -> product.setVersion(1L));
+    when(productRepository.findAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenReturn(products);
+
+    double hits = representationCacheHits();
+
+    // Concatenated from the cached bytes of each product on the second listing
+    for (int i = 0; i < 2; i++) {
+      String body = mockMvc.perform(get("/products").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+          .andDo(print()).andExpect(status().isOk())
+          .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_JSON_UTF8))
+          .andExpect(jsonPath("$.ArrayList.length()", is(2)))
+          .andExpect(jsonPath("$.ArrayList[1].description", is("Straight fit \"jeans\"")))
+          .andReturn().getResponse().getContentAsString();
+      assertEquals(objectMapper.writeValueAsString(products), body);
+    }
+
+    assertEquals(hits + 2, representationCacheHits(), 0);
+  }
+
+  @Test
+  public void testFindAllNotModified() throws Exception {
+
+    Product product = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(10000.0), "Blue");
+    when(productRepository.findAll(ArgumentMatchers.any(), ArgumentMatchers.any(Sort.class)))
+        .thenReturn(Arrays.asList(product));
+    when(productRepository.findCatalogVersion()).thenReturn(5L);
+
+    String eTag = mockMvc.perform(get("/products").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache")).andReturn()
+        .getResponse().getHeader(HttpHeaders.ETAG);
+
+    // Unchanged catalog, the listing is not queried
+    mockMvc
+        .perform(get("/products").header(HttpHeaders.IF_NONE_MATCH, eTag)
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, eTag));
+
+    verify(productRepository, times(1)).findAll(ArgumentMatchers.any(),
+        ArgumentMatchers.any(Sort.class));
+
+    assertEquals("\"json-5\"", eTag);
+
+    // Any write, through any instance, changes the catalog version in the database
+    when(productRepository.findCatalogVersion()).thenReturn(6L);
+
+    mockMvc
+        .perform(get("/products").header(HttpHeaders.IF_NONE_MATCH, eTag)
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(jsonPath("$.ArrayList[0].color", is("Blue")));
+  }
+
+  @Test
+  public void testFindAllById() throws Exception {
+
+    when(productRepository.findAllByIds(ArgumentMatchers.anyCollection()))
+        .thenReturn(Arrays.asList(
+            new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+                BigDecimal.valueOf(10000.0), "Blue"),
+            new Product(2L, "REP7876543", "Jeans", "Straight fit jeans", "REPLAY",
+                BigDecimal.valueOf(15000.0), "Light Blue")));
+
+    // Results in request order, the missing product inline
+    mockMvc
+        .perform(get("/products").param("ids", "2,99,1")
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isMultiStatus())
+        .andExpect(jsonPath("$.productsBatch.products.length()", is(3)))
+        .andExpect(jsonPath("$.productsBatch.products[0].httpStatus", is("OK")))
+        .andExpect(jsonPath("$.productsBatch.products[0].httpMethod", is("GET")))
+        .andExpect(jsonPath("$.productsBatch.products[0].uri", is("http://localhost/products/2")))
+        .andExpect(jsonPath("$.productsBatch.products[0].product.productId", is("REP7876543")))
+        .andExpect(jsonPath("$.productsBatch.products[1].httpStatus", is("NOT_FOUND")))
+        .andExpect(jsonPath("$.productsBatch.products[1].error",
+            is("Product with id : 99 not found")))
+        .andExpect(jsonPath("$.productsBatch.products[1].product").doesNotExist())
+        .andExpect(jsonPath("$.productsBatch.products[2].product.productId", is("GAS1234567")));
+
+    // Found products are cached, the missing one is loaded again
+    mockMvc
+        .perform(get("/products").param("ids", "1,2").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isMultiStatus())
+        .andExpect(jsonPath("$.productsBatch.products[1].product.productId", is("REP7876543")));
+
+    verify(productRepository, times(1)).findAllByIds(ArgumentMatchers.anyCollection());
+  }
+
+  @Test
+  public void testFindAllByProductId() throws Exception {
+
+    when(productRepository
+        .findAllByProductIds(Arrays.asList("BOS9987676", "NONE", "BOS9987676")))
+        .thenReturn(Arrays.asList(new Product(3L, "BOS9987676", "Shirt", "Button Down Oxford",
+            "BOSS", BigDecimal.valueOf(12000.0), "White")));
+
+    mockMvc
+        .perform(get("/products").param("productIds", "BOS9987676,NONE,BOS9987676")
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isMultiStatus())
+        .andExpect(jsonPath("$.productsBatch.products[0].product.id", is(3)))
+        .andExpect(jsonPath("$.productsBatch.products[1].httpStatus", is("NOT_FOUND")))
+        .andExpect(jsonPath("$.productsBatch.products[1].error",
+            is("Product with productId : NONE not found")))
+        .andExpect(jsonPath("$.productsBatch.products[2].product.id", is(3)));
+
+    // Above catalog.multi-get.max-ids
+    mockMvc
+        .perform(get("/products")
+            .param("productIds", String.join(",", Collections.nCopies(501, "GAS")))
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isBadRequest())
+        .andExpect(content().string("Unable to find 501 products at once, the limit is 500"));
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+
+    when(productRepository.findById(1L)).thenReturn(Optional.of(new Product(1L, "GAS1234567",
+        "Jeans", "Slim fit jeans", "GAS", BigDecimal.valueOf(10000.0), "Blue")));
+
+    mockMvc.perform(get("/products/1").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isOk());
+
+    // Assert the handler timer is published with its histogram
+    mockMvc.perform(get("/actuator/metrics/http.server.requests")
+        .param("tag", "handler:ProductController.findById")).andDo(print())
+        .andExpect(status().isOk());
+    mockMvc.perform(get("/actuator/prometheus")).andExpect(status().isOk())
+        .andExpect(content().string(containsString("http_server_requests_seconds_bucket")))
+        .andExpect(content().string(containsString("handler=\"ProductController.findById\"")));
+  }
+
   @SuppressWarnings("unchecked")
   @Test
   public void testFindByTitle() throws Exception {
@@ -175,6 +679,78 @@ public class ProductControllerTests {
         .andReturn();
   }
 
+  @Test
+  public void testFindFacets() throws Exception {
+
+    List<Product> products = Arrays.asList(
+        new Product(901L, "FAC9010000", "Parka", "Hooded parka", "Facetia",
+            BigDecimal.valueOf(3000.0), "Ochre"),
+        new Product(902L, "FAC9020000", "Parka", "Quilted parka", "Facetia",
+            BigDecimal.valueOf(12000.0), "Ochre Red"),
+        new Product(903L, "FAC9030000", "Coat", "Wool coat", "Facetia",
+            BigDecimal.valueOf(60000.0), "Teal"));
+
+    when(productRepository.existsByProductId(ArgumentMatchers.anyString())).thenReturn(false);
+    for (Product product : products) {
+
+      when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(product);
+      mockMvc
+          .perform(post("/products").content(objectMapper.writeValueAsString(product))
+              .contentType(MediaType.APPLICATION_JSON).accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+          .andExpect(status().isCreated());
+    }
+
+    // Counted from the facet counters, the repository is never queried
+    mockMvc
+        .perform(get("/products/facets").param("brand", "facetia")
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(jsonPath("$.productFacets.total", is(3)))
+        .andExpect(jsonPath("$.productFacets.brand.Facetia", is(3)))
+        .andExpect(jsonPath("$.productFacets.color.Ochre", is(1)))
+        .andExpect(jsonPath("$.productFacets.color['Ochre Red']", is(1)))
+        .andExpect(jsonPath("$.productFacets.color.Teal", is(1)))
+        .andExpect(jsonPath("$.productFacets.price['*-5000']", is(1)))
+        .andExpect(jsonPath("$.productFacets.price['5000-10000']", is(0)))
+        .andExpect(jsonPath("$.productFacets.price['10000-20000']", is(1)))
+        .andExpect(jsonPath("$.productFacets.price['50000-*']", is(1)));
+
+    mockMvc
+        .perform(get("/products/facets").param("brand", "facetia").param("color", "ochre")
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.productFacets.total", is(2)));
+
+    mockMvc
+        .perform(get("/products/facets").param("productId", "fac903").param("title", "coat")
+            .accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isOk()).andExpect(jsonPath("$.productFacets.total", is(1)))
+        .andExpect(jsonPath("$.productFacets.color.Teal", is(1)));
+
+    verify(productRepository, times(0)).streamAll(ArgumentMatchers.any(),
+        ArgumentMatchers.any(Sort.class));
+
+    // Patches and deletes update the counters
+    Product changes = new Product();
+    changes.setColor("Teal");
+    when(productRepository.findById(902L)).thenReturn(Optional.of(products.get(1)));
+    when(productRepository.updateNonNullFields(ArgumentMatchers.eq(902L),
+        ArgumentMatchers.any(Product.class)))
+        .thenReturn(Optional.of(products.get(1).patch(changes)));
+    mockMvc.perform(patch("/products/902").content(objectMapper.writeValueAsString(changes))
+        .contentType(MediaType.APPLICATION_JSON).accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isOk());
+
+    when(productRepository.findById(901L)).thenReturn(Optional.of(products.get(0)));
+    mockMvc.perform(delete("/products/901").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isOk());
+
+    mockMvc.perform(get("/products/facets").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(jsonPath("$.productFacets.brand.Facetia", is(2)))
+        .andExpect(jsonPath("$.productFacets.color.Teal", is(2)))
+        .andExpect(jsonPath("$.productFacets.color.Ochre").doesNotExist());
+  }
+
   @Test
   public void testNewProduct() throws Exception {
 
@@ -204,6 +780,27 @@ public class ProductControllerTests {
         .andReturn();
   }
 
+  @Test
+  public void testNewProductSmile() throws Exception {
+
+    Product product = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(10000.0), "Blue");
+    when(productRepository.existsByProductId("GAS1234567")).thenReturn(false);
+    when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(product);
+
+    ObjectMapper smileMapper = smileHttpMessageConverter.getObjectMapper();
+    MvcResult result = mockMvc
+        .perform(post("/products").content(smileMapper.writeValueAsBytes(product))
+            .contentType(MarketPlaceMediaTypes.V1_SMILE).accept(MarketPlaceMediaTypes.V1_SMILE))
+        .andDo(print()).andExpect(status().isCreated())
+        .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_SMILE))
+        .andExpect(header().string("Location", "http://localhost/products/1")).andReturn();
+
+    // Assert product fields
+    assertEquals(product,
+        smileMapper.readValue(result.getResponse().getContentAsByteArray(), Product.class));
+  }
+
   @Test
   public void testNewProductExisting() throws Exception {
 
@@ -234,8 +831,9 @@ public class ProductControllerTests {
 
     ProductBatch<Product> productBatch = new ProductBatch<>(Arrays.asList(product1, product2));
 
-    when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(product1,
-        product2);
+    // Both products inserted by a single chunk insert
+    when(productRepository.insertAll(ArgumentMatchers.anyList()))
+        .thenReturn(Arrays.asList(product1, product2));
 
     mockMvc
         .perform(post("/products/batch").content(objectMapper.writeValueAsString(productBatch))
@@ -273,6 +871,10 @@ public class ProductControllerTests {
         .andExpect(jsonPath("$.productsBatch.products[1].product.color", is("Charcoal Black")))
 
         .andReturn();
+
+    // One collision lookup and one insert for the whole chunk
+    verify(productRepository, times(1)).findProductIdsIn(ArgumentMatchers.anyCollection());
+    verify(productRepository, times(1)).insertAll(ArgumentMatchers.anyList());
   }
 
   @Test
@@ -294,9 +896,14 @@ public class ProductControllerTests {
     ProductBatch<Product> productBatch =
         new ProductBatch<>(Arrays.asList(product1, product2, product3));
 
-    when(productRepository.existsByProductId("ARMBLT101")).thenReturn(false).thenReturn(true);
-    when(productRepository.existsByProductId("COALTHBG102")).thenReturn(false);
-    when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(savedProduct1)
+    // None of the product ids exist yet, the third product repeats the first one
+    when(productRepository.findProductIdsIn(ArgumentMatchers.anyCollection()))
+        .thenReturn(Collections.emptySet());
+
+    // The chunk insert fails, retrying product by product isolates the second product
+    when(productRepository.insertAll(ArgumentMatchers.anyList()))
+        .thenThrow(new RuntimeException("Chunk rolled back"))
+        .thenReturn(Arrays.asList(savedProduct1))
         .thenThrow(new RuntimeException("Unable to save product"));
 
 
@@ -352,23 +959,140 @@ public class ProductControllerTests {
         .andReturn();
   }
 
+  @Test
+  public void testNewProductsBatchStreamed() throws Exception {
+
+    Product product1 = new Product("ARMBLT101", "Belt", "Reversible genuine leather belt", "Armani",
+        BigDecimal.valueOf(3500.0), "Black/Brown");
+    Product product2 = new Product("ARMBLT101", "Belt", "Reversible genuine leather belt", "Armani",
+        BigDecimal.valueOf(3500.0), "Black/Brown");
+
+    Product savedProduct1 = new Product(1L, "ARMBLT101", "Belt", "Reversible genuine leather belt",
+        "Armani", BigDecimal.valueOf(3500.0), "Black/Brown");
+
+    ProductBatch<Product> productBatch = new ProductBatch<>(Arrays.asList(product1, product2));
+
+    when(productRepository.findProductIdsIn(ArgumentMatchers.anyCollection()))
+        .thenReturn(Collections.emptySet());
+    when(productRepository.insertAll(ArgumentMatchers.anyList()))
+        .thenReturn(Arrays.asList(savedProduct1));
+
+    // Execute request, the body is read and the results written asynchronously
+    MvcResult mvcResult = mockMvc
+        .perform(post("/products/batch").content(objectMapper.writeValueAsString(productBatch))
+            .contentType(MediaType.APPLICATION_JSON).accept(MarketPlaceMediaTypes.V1_NDJSON_UTF8))
+        .andExpect(request().asyncStarted()).andReturn();
+
+    mockMvc.perform(asyncDispatch(mvcResult)).andDo(print()).andExpect(status().isMultiStatus())
+        .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_NDJSON_UTF8))
+
+        // Assert one result per line, in request order
+        .andExpect(content().string("{\"httpStatus\":\"OK\","
+            + "\"uri\":\"http://localhost/products/batch/1\",\"httpMethod\":\"POST\","
+            + "\"product\":{\"id\":1,\"productId\":\"ARMBLT101\",\"title\":\"Belt\","
+            + "\"description\":\"Reversible genuine leather belt\",\"brand\":\"Armani\","
+            + "\"price\":3500.0,\"color\":\"Black/Brown\"}}\n"
+            + "{\"httpStatus\":\"CONFLICT\",\"httpMethod\":\"POST\",\"error\":\"Product with Id : "
+            + "ARMBLT101 already exists. Please send a PUT/PATCH request to update this product\","
+            + "\"product\":{\"id\":null,\"productId\":\"ARMBLT101\",\"title\":\"Belt\","
+            + "\"description\":\"Reversible genuine leather belt\",\"brand\":\"Armani\","
+            + "\"price\":3500.0,\"color\":\"Black/Brown\"}}\n"))
+
+        .andReturn();
+
+    // A truncated body ends the stream with an error
+    mvcResult = mockMvc
+        .perform(post("/products/batch").content("{\"productsBatch\":{\"products\":[{\"title\":")
+            .contentType(MediaType.APPLICATION_JSON).accept(MarketPlaceMediaTypes.V1_NDJSON_UTF8))
+        .andExpect(request().asyncStarted()).andReturn();
+
+    mockMvc.perform(asyncDispatch(mvcResult)).andExpect(status().isMultiStatus())
+        .andExpect(content().string("{\"httpStatus\":\"BAD_REQUEST\",\"httpMethod\":\"POST\","
+            + "\"error\":\"Unable to read product batch\"}\n"));
+
+    verify(productRepository, times(1)).insertAll(ArgumentMatchers.anyList());
+  }
+
+  @Test
+  public void testNewProductsBatchJob() throws Exception {
+
+    Product product1 = new Product("ARMBLT101", "Belt", "Reversible genuine leather belt", "Armani",
+        BigDecimal.valueOf(3500.0), "Black/Brown");
+    Product product2 = new Product("ARMBLT101", "Belt", "Reversible genuine leather belt", "Armani",
+        BigDecimal.valueOf(3500.0), "Black/Brown");
+
+    Product savedProduct1 = new Product(1L, "ARMBLT101", "Belt", "Reversible genuine leather belt",
+        "Armani", BigDecimal.valueOf(3500.0), "Black/Brown");
+
+    ProductBatch<Product> productBatch = new ProductBatch<>(Arrays.asList(product1, product2));
+
+    when(productRepository.findProductIdsIn(ArgumentMatchers.anyCollection()))
+        .thenReturn(Collections.emptySet());
+    when(productRepository.insertAll(ArgumentMatchers.anyList()))
+        .thenReturn(Arrays.asList(savedProduct1));
+
+    // Accepted as soon as the batch is received
+    String jobUri = mockMvc
+        .perform(post("/products/batch/jobs").content(objectMapper.writeValueAsString(productBatch))
+            .contentType(MediaType.APPLICATION_JSON).accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andDo(print()).andExpect(status().isAccepted())
+        .andExpect(jsonPath("$.productBatchJob.id").exists())
+        .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+
+    // Poll until the import finished
+    String job = null;
+    for (int poll = 0; poll < 100; poll++) {
+
+      job = mockMvc.perform(get(jobUri).accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+          .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+      if ("COMPLETED".equals(JsonPath.read(job, "$.productBatchJob.status"))) {
+        break;
+      }
+      Thread.sleep(50);
+    }
+
+    assertEquals("COMPLETED", JsonPath.read(job, "$.productBatchJob.status"));
+    assertEquals(Integer.valueOf(2), JsonPath.read(job, "$.productBatchJob.processed"));
+    assertEquals(Integer.valueOf(1), JsonPath.read(job, "$.productBatchJob.inserted"));
+    assertEquals(Integer.valueOf(1), JsonPath.read(job, "$.productBatchJob.rejected"));
+
+    // Results in request order, one per line
+    MvcResult mvcResult = mockMvc
+        .perform(get(jobUri + "/results").accept(MarketPlaceMediaTypes.V1_NDJSON_UTF8))
+        .andExpect(request().asyncStarted()).andReturn();
+
+    mockMvc.perform(asyncDispatch(mvcResult)).andDo(print()).andExpect(status().isOk())
+        .andExpect(content().string("{\"httpStatus\":\"OK\","
+            + "\"uri\":\"http://localhost/products/1\",\"httpMethod\":\"POST\","
+            + "\"product\":{\"id\":1,\"productId\":\"ARMBLT101\",\"title\":\"Belt\","
+            + "\"description\":\"Reversible genuine leather belt\",\"brand\":\"Armani\","
+            + "\"price\":3500.0,\"color\":\"Black/Brown\"}}\n"
+            + "{\"httpStatus\":\"CONFLICT\",\"httpMethod\":\"POST\",\"error\":\"Product with Id : "
+            + "ARMBLT101 already exists. Please send a PUT/PATCH request to update this product\","
+            + "\"product\":{\"id\":null,\"productId\":\"ARMBLT101\",\"title\":\"Belt\","
+            + "\"description\":\"Reversible genuine leather belt\",\"brand\":\"Armani\","
+            + "\"price\":3500.0,\"color\":\"Black/Brown\"}}\n"));
+
+    mockMvc.perform(get("/products/batch/jobs/unknown").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isNotFound());
+  }
+
   @Test
   public void testUpdateProductPutForUpdate() throws Exception {
 
-    Product existingproduct = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
-        BigDecimal.valueOf(10000.0), "Blue");
     Product updatedproduct = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
         BigDecimal.valueOf(12000.0), "Black");
 
-    when(productRepository.findById(ArgumentMatchers.any(Long.class)))
-        .thenReturn(Optional.of(existingproduct));
-    when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(updatedproduct);
+    // Existing product updated with a single statement, only its new version is read back
+    when(productRepository.updateAllFields(ArgumentMatchers.eq(1L),
+        ArgumentMatchers.any(Product.class))).thenReturn(Optional.of(4L));
 
     mockMvc
         .perform(put("/products/1").content(objectMapper.writeValueAsString(updatedproduct))
             .contentType(MediaType.APPLICATION_JSON).accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
         .andDo(print()).andExpect(status().isOk())
         .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(header().string(HttpHeaders.ETAG, "\"json-4\""))
 
         // Assert product fields
         .andExpect(jsonPath("$.product.id", is(1)))
@@ -389,7 +1113,9 @@ public class ProductControllerTests {
     Product updatedproduct = new Product(2L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
         BigDecimal.valueOf(12000.0), "Black");
 
-    when(productRepository.findById(ArgumentMatchers.any(Long.class))).thenReturn(Optional.empty());
+    // No product updated, the product is created
+    when(productRepository.updateAllFields(ArgumentMatchers.eq(2L),
+        ArgumentMatchers.any(Product.class))).thenReturn(Optional.empty());
     when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(updatedproduct);
 
     mockMvc
@@ -420,13 +1146,24 @@ public class ProductControllerTests {
 
     Product existingproduct = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
         BigDecimal.valueOf(10000.0), "Blue");
+    existingproduct.setVersion(1L);
     Product updatedproduct = new Product();
     updatedproduct.setColor("Beige");
     updatedproduct.setPrice(BigDecimal.valueOf(7000.0));
 
+    // Stored after the update, one version on from the cached product
+    Product storedProduct = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(7000.0), "Beige");
+    storedProduct.setVersion(2L);
+
     when(productRepository.findById(ArgumentMatchers.any(Long.class)))
         .thenReturn(Optional.of(existingproduct));
-    when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(updatedproduct);
+    when(productRepository.updateNonNullFields(ArgumentMatchers.eq(1L),
+        ArgumentMatchers.any(Product.class))).thenReturn(Optional.of(storedProduct));
+
+    // Cached before the update
+    mockMvc.perform(get("/products/1").accept(MarketPlaceMediaTypes.V1_JSON_UTF8))
+        .andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ETAG, "\"json-1\""));
 
     mockMvc
         .perform(patch("/products/1").content(objectMapper.writeValueAsString(updatedproduct))
@@ -434,6 +1171,9 @@ public class ProductControllerTests {
         .andDo(print()).andExpect(status().isOk())
         .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_JSON_UTF8))
 
+        // The stored product, not the cached one
+        .andExpect(header().string(HttpHeaders.ETAG, "\"json-2\""))
+
         // Assert product fields
         .andExpect(jsonPath("$.product.id", is(1)))
         .andExpect(jsonPath("$.product.productId", is("GAS1234567")))
@@ -524,7 +1264,8 @@ public class ProductControllerTests {
     updatedproduct.setColor("Beige");
     updatedproduct.setPrice(BigDecimal.valueOf(7000.0));
 
-    when(productRepository.findById(ArgumentMatchers.any(Long.class))).thenReturn(Optional.empty());
+    when(productRepository.updateNonNullFields(ArgumentMatchers.eq(1L),
+        ArgumentMatchers.any(Product.class))).thenReturn(Optional.empty());
 
     mockMvc
         .perform(patch("/products/1").content(objectMapper.writeValueAsString(updatedproduct))
@@ -541,4 +1282,9 @@ public class ProductControllerTests {
         .andExpect(status().isNotFound()).andReturn();
   }
 
+  private double representationCacheHits() {
+    return meterRegistry.get("cache.gets").tag("cache", "representation").tag("result", "hit")
+        .functionCounter().count();
+  }
+
 }
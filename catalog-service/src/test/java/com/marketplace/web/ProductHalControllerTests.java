@@ -1,5 +1,6 @@
 package com.marketplace.web;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
@@ -19,6 +20,7 @@ import java.util.List;
 import java.util.Optional;
 import org.hamcrest.collection.IsEmptyCollection;
 import org.hamcrest.core.IsNull;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentMatchers;
@@ -26,10 +28,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.jpa.domain.Specification;
@@ -39,7 +43,11 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.marketplace.cache.ProductCache;
+import com.marketplace.cache.RepresentationCache;
 import com.marketplace.model.Product;
+import com.marketplace.model.ProductFields;
+import com.marketplace.repository.KeysetCursor;
 import com.marketplace.repository.ProductRepository;
 
 @RunWith(SpringRunner.class)
@@ -53,9 +61,23 @@ public class ProductHalControllerTests {
   @Autowired
   private ObjectMapper objectMapper;
 
+  @Autowired
+  private ProductCache productCache;
+
+  @Autowired
+  private RepresentationCache representationCache;
+
   @MockBean
   private ProductRepository productRepository;
 
+  @Before
+  public void setUp() {
+
+    // Products cached by a previous test would hide the repository stubs
+    productCache.invalidateAll();
+    representationCache.invalidateAll();
+  }
+
   @Test
   public void testFindAll() throws Exception {
 
@@ -113,6 +135,102 @@ public class ProductHalControllerTests {
         .andReturn();
   }
 
+  @Test
+  public void testFindAllFields() throws Exception {
+
+    Pageable pageable = PageRequest.of(0, 3);
+
+    // Only the selected columns and the id are read
+    Product product = new Product();
+    product.setId(1L);
+    product.setTitle("Jeans");
+    product.setPrice(BigDecimal.valueOf(10000.0));
+
+    when(productRepository.findAll(ArgumentMatchers.any(), ArgumentMatchers.any(Pageable.class),
+        ArgumentMatchers.any(ProductFields.class)))
+            .thenReturn(new PageImpl<Product>(Arrays.asList(product), pageable, 1));
+
+    // Execute request
+    mockMvc
+        .perform(get("/products?fields=title,price&size=3")
+            .accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(jsonPath("$.PagedResources._embedded.products[0].title", is("Jeans")))
+        .andExpect(jsonPath("$.PagedResources._embedded.products[0].price", is(10000.0)))
+        .andExpect(jsonPath("$.PagedResources._embedded.products[0].productId").doesNotExist())
+        .andExpect(jsonPath("$.PagedResources._embedded.products[0].description").doesNotExist())
+
+        // Links are built from the id
+        .andExpect(jsonPath("$.PagedResources._embedded.products[0]._links.self.href",
+            is("http://localhost/products/1")))
+        .andExpect(jsonPath("$.PagedResources._links.self.href",
+            is("http://localhost/products?fields=title,price&page=0&size=3")));
+  }
+
+  @Test
+  public void testFindAllAfterCursor() throws Exception {
+
+    Sort sort = Sort.by(Direction.ASC, "color");
+    KeysetCursor after = new KeysetCursor("color", 1L, "Blue");
+
+    // 2 elements after the cursor and more to come
+    List<Product> products = Arrays.asList(
+        new Product(2L, "REP7876543", "Jeans", "Straight fit jeans", "REPLAY",
+            BigDecimal.valueOf(15000.0), "Light Blue"),
+        new Product(3L, "BOS9987676", "Shirt", "Button Down Oxford", "BOSS",
+            BigDecimal.valueOf(12000.0), "White"));
+
+    when(productRepository.findAllAfter(ArgumentMatchers.any(), ArgumentMatchers.any(),
+        ArgumentMatchers.any(Sort.class), ArgumentMatchers.eq(2)))
+            .thenReturn(new SliceImpl<Product>(products,
+                PageRequest.of(0, 2, sort.and(Sort.by(Direction.ASC, "id"))), true));
+
+    // Execute request
+    mockMvc
+        .perform(get("/products?after={after}&size=2&sort=color,asc", after.encode())
+            .accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andExpect(jsonPath("$.Resources._embedded.products.length()", is(2)))
+        .andExpect(jsonPath("$.Resources._embedded.products[0].color", is("Light Blue")))
+        .andExpect(jsonPath("$.Resources._embedded.products[1].color", is("White")))
+
+        // Assert cursor links, no page metadata since no count is run
+        .andExpect(jsonPath("$.Resources._links.self.href",
+            is("http://localhost/products?after=" + after.encode() + "&size=2&sort=color,asc")))
+        .andExpect(jsonPath("$.Resources._links.next.href",
+            is("http://localhost/products?size=2&sort=color,asc&after="
+                + new KeysetCursor("color", 3L, "White").encode())))
+        .andExpect(jsonPath("$.Resources.page").doesNotExist())
+
+        .andReturn();
+  }
+
+  @Test
+  public void testFindAllAfterMultipleSortOrders() throws Exception {
+
+    when(productRepository.findAllAfter(ArgumentMatchers.any(), ArgumentMatchers.any(),
+        ArgumentMatchers.any(Sort.class), ArgumentMatchers.eq(2)))
+            .thenThrow(new InvalidDataAccessApiUsageException("Multiple sort orders",
+                new IllegalArgumentException("Keyset pagination sorts on a single property")));
+
+    mockMvc
+        .perform(get("/products?after={after}&size=2&sort=color,asc&sort=title,asc",
+            new KeysetCursor("color", 1L, "Blue").encode())
+                .accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andDo(print()).andExpect(status().isBadRequest())
+        .andExpect(content().string(containsString("sorts on a single property")));
+  }
+
+  @Test
+  public void testFindAllAfterInvalidCursor() throws Exception {
+
+    mockMvc
+        .perform(get("/products").param("after", "not-a-cursor")
+            .accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andDo(print()).andExpect(status().isBadRequest());
+  }
+
   @Test
   public void testFindById() throws Exception {
 
@@ -160,6 +278,97 @@ public class ProductHalControllerTests {
         .andReturn();
   }
 
+  @Test
+  public void testFindByIdNotModified() throws Exception {
+
+    Product product = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(15000.0), "Blue");
+    product.setVersion(7L);
+    when(productRepository.findVersionById(1L)).thenReturn(Optional.of(7L));
+    when(productRepository.findById(1L)).thenReturn(Optional.of(product));
+
+    // The HAL and JSON representations of a version are tagged apart
+    mockMvc
+        .perform(get("/products/1").header(HttpHeaders.IF_NONE_MATCH, "\"json-7\"")
+            .accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"hal-7\""));
+
+    mockMvc
+        .perform(get("/products/1").header(HttpHeaders.IF_NONE_MATCH, "W/\"hal-7\"")
+            .accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andDo(print()).andExpect(status().isNotModified())
+        .andExpect(content().string(""));
+  }
+
+  @Test
+  public void testFindAllById() throws Exception {
+
+    when(productRepository.findAllByIds(ArgumentMatchers.anyCollection()))
+        .thenReturn(Arrays.asList(new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+            BigDecimal.valueOf(15000.0), "Blue")));
+
+    mockMvc.perform(get("/products?ids=7,1").accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andDo(print()).andExpect(status().isMultiStatus())
+        .andExpect(jsonPath("$.Resource.products[0].httpStatus", is("NOT_FOUND")))
+        .andExpect(jsonPath("$.Resource.products[0].error", is("Product with id : 7 not found")))
+        .andExpect(jsonPath("$.Resource.products[1].httpStatus", is("OK")))
+        .andExpect(jsonPath("$.Resource.products[1].uri", is("http://localhost/products/1")))
+        .andExpect(jsonPath("$.Resource.products[1].product.productId", is("GAS1234567")))
+        .andExpect(jsonPath("$.Resource.products[1].product._links.self.href",
+            is("http://localhost/products/1")))
+        .andExpect(
+            jsonPath("$.Resource._links.self.href", is("http://localhost/products?ids=7,1")));
+  }
+
+  @Test
+  public void testFindByIdForwarded() throws Exception {
+
+    when(productRepository.findById(1L)).thenReturn(Optional.of(new Product(1L, "GAS1234567",
+        "Jeans", "Slim fit jeans", "GAS", BigDecimal.valueOf(15000.0), "Blue")));
+
+    // Execute request through the gateway
+    mockMvc
+        .perform(get("/products/1").header("X-Forwarded-Host", "localhost:8762")
+            .header("X-Forwarded-Prefix", "/api").accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+
+        // Assert Resource links point to the gateway
+        .andExpect(jsonPath("$.ProductResource._links.self.href",
+            is("http://localhost:8762/api/products/1")))
+        .andExpect(jsonPath("$.ProductResource._links.createBatch.href",
+            is("http://localhost:8762/api/products/batch")))
+        .andExpect(jsonPath("$.ProductResource._links.delete.href",
+            is("http://localhost:8762/api/products/1")))
+
+        .andReturn();
+  }
+
+  @Test
+  public void testFindByIdCachedPerBaseUri() throws Exception {
+
+    Product product = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
+        BigDecimal.valueOf(15000.0), "Blue");
+    product.setVersion(2L);
+    when(productRepository.findById(1L)).thenReturn(Optional.of(product));
+
+    // Cache the representation of the product version
+    mockMvc.perform(get("/products/1").accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andExpect(status().isOk()).andExpect(
+            jsonPath("$.ProductResource._links.self.href", is("http://localhost/products/1")));
+
+    // Execute request through the gateway
+    mockMvc
+        .perform(get("/products/1").header("X-Forwarded-Host", "localhost:8762")
+            .header("X-Forwarded-Prefix", "/api").accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andDo(print()).andExpect(status().isOk())
+
+        // Assert the links are not those of the cached representation
+        .andExpect(jsonPath("$.ProductResource._links.self.href",
+            is("http://localhost:8762/api/products/1")))
+        .andExpect(jsonPath("$.ProductResource.title", is("Jeans")));
+  }
+
   @SuppressWarnings("unchecked")
   @Test
   public void testFindByTitle() throws Exception {
@@ -370,8 +579,9 @@ public class ProductHalControllerTests {
 
     ProductBatch<Product> productBatch = new ProductBatch<>(Arrays.asList(product1, product2));
 
-    when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(product1,
-        product2);
+    // Both products inserted by a single chunk insert
+    when(productRepository.insertAll(ArgumentMatchers.anyList()))
+        .thenReturn(Arrays.asList(product1, product2));
 
     mockMvc
         .perform(post("/products/batch").content(objectMapper.writeValueAsString(productBatch))
@@ -493,9 +703,14 @@ public class ProductHalControllerTests {
     ProductBatch<Product> productBatch =
         new ProductBatch<>(Arrays.asList(product1, product2, product3));
 
-    when(productRepository.existsByProductId("ARMBLT101")).thenReturn(false).thenReturn(true);
-    when(productRepository.existsByProductId("COALTHBG102")).thenReturn(false);
-    when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(savedProduct1)
+    // None of the product ids exist yet, the third product repeats the first one
+    when(productRepository.findProductIdsIn(ArgumentMatchers.anyCollection()))
+        .thenReturn(Collections.emptySet());
+
+    // The chunk insert fails, retrying product by product isolates the second product
+    when(productRepository.insertAll(ArgumentMatchers.anyList()))
+        .thenThrow(new RuntimeException("Chunk rolled back"))
+        .thenReturn(Arrays.asList(savedProduct1))
         .thenThrow(new RuntimeException("Unable to save product"));
 
     // Remove "\"price\":9000.0," from JSON for product 2 to simulate missed attribute
@@ -601,15 +816,16 @@ public class ProductHalControllerTests {
     Product updatedproduct = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
         BigDecimal.valueOf(12000.0), "Black");
 
-    when(productRepository.findById(ArgumentMatchers.any(Long.class)))
-        .thenReturn(Optional.of(existingproduct));
-    when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(updatedproduct);
+    // Existing product updated with a single statement, only its new version is read back
+    when(productRepository.updateAllFields(ArgumentMatchers.eq(1L),
+        ArgumentMatchers.any(Product.class))).thenReturn(Optional.of(4L));
 
     mockMvc
         .perform(put("/products/1").content(objectMapper.writeValueAsString(updatedproduct))
             .contentType(MediaType.APPLICATION_JSON).accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
         .andDo(print()).andExpect(status().isOk())
         .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andExpect(header().string(HttpHeaders.ETAG, "\"hal-4\""))
 
 
         // Assert product fields
@@ -653,7 +869,9 @@ public class ProductHalControllerTests {
     Product updatedproduct = new Product(2L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
         BigDecimal.valueOf(12000.0), "Black");
 
-    when(productRepository.findById(ArgumentMatchers.any(Long.class))).thenReturn(Optional.empty());
+    // No product updated, the product is created
+    when(productRepository.updateAllFields(ArgumentMatchers.eq(2L),
+        ArgumentMatchers.any(Product.class))).thenReturn(Optional.empty());
     when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(updatedproduct);
 
     mockMvc
@@ -705,19 +923,28 @@ public class ProductHalControllerTests {
 
     Product existingproduct = new Product(1L, "GAS1234567", "Jeans", "Slim fit jeans", "GAS",
         BigDecimal.valueOf(15000.0), "Blue");
+    existingproduct.setVersion(1L);
     Product updatedproduct = new Product();
     updatedproduct.setColor("Beige");
     updatedproduct.setPrice(BigDecimal.valueOf(7000.0));
+    Product storedProduct = existingproduct.patch(updatedproduct);
+    storedProduct.setVersion(2L);
 
     when(productRepository.findById(ArgumentMatchers.any(Long.class)))
         .thenReturn(Optional.of(existingproduct));
-    when(productRepository.save(ArgumentMatchers.any(Product.class))).thenReturn(updatedproduct);
+    when(productRepository.updateNonNullFields(ArgumentMatchers.eq(1L),
+        ArgumentMatchers.any(Product.class))).thenReturn(Optional.of(storedProduct));
+
+    // Cached before the update
+    mockMvc.perform(get("/products/1").accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ETAG, "\"hal-1\""));
 
     mockMvc
         .perform(patch("/products/1").content(objectMapper.writeValueAsString(updatedproduct))
             .contentType(MediaType.APPLICATION_JSON).accept(MarketPlaceMediaTypes.V1_HAL_UTF8))
         .andDo(print()).andExpect(status().isOk())
         .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MarketPlaceMediaTypes.V1_HAL_UTF8))
+        .andExpect(header().string(HttpHeaders.ETAG, "\"hal-2\""))
 
 
         // Assert product fields
@@ -844,7 +1071,8 @@ public class ProductHalControllerTests {
     updatedproduct.setColor("Beige");
     updatedproduct.setPrice(BigDecimal.valueOf(7000.0));
 
-    when(productRepository.findById(ArgumentMatchers.any(Long.class))).thenReturn(Optional.empty());
+    when(productRepository.updateNonNullFields(ArgumentMatchers.eq(1L),
+        ArgumentMatchers.any(Product.class))).thenReturn(Optional.empty());
 
     mockMvc
         .perform(patch("/products/1").content(objectMapper.writeValueAsString(updatedproduct))
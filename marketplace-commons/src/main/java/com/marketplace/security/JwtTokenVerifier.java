@@ -0,0 +1,860 @@
+package com.marketplace.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Verifier of the HS512 signed JWT tokens issued by the auth-service, for the request path of the
+ * services. It reads the token in place from the request header, with the key material and the
+ * buffers of each thread prepared once, and returns null instead of throwing for any invalid,
+ * expired or not yet valid token.
+ *
+ * <p>
+ * The JOSE header must name the HS512 algorithm, and must not hold critical extensions or a
+ * compressed payload. Header and claims must be valid UTF-8 JSON objects, claims other than the
+ * registered ones read are skipped but validated.
+ *
+ * <p>
+ * The authorities of the {@link UserRole}s are created once and shared, as are the lists of
+ * known roles. Other authorities are created on each verification.
+ *
+ * @author Nikhil Vasaikar
+ *
+ * @param <A> authority type
+ */
+public class JwtTokenVerifier<A> {
+
+  private static final String ALGORITHM = "HmacSHA512";
+
+  private static final int SIGNATURE_LENGTH = 64;
+
+  // Nesting of the skipped claim values, deeper values are rejected
+  private static final int MAX_DEPTH = 32;
+
+  // Header written by jjwt and the auth-service, verified without parsing
+  private static final String HS512_HEADER = "eyJhbGciOiJIUzUxMiJ9";
+
+  private static final byte[] ALGORITHM_NAME = ascii("alg");
+
+  private static final byte[] HS512 = ascii("HS512");
+
+  private static final byte[] CRITICAL = ascii("crit");
+
+  private static final byte[] COMPRESSION = ascii("zip");
+
+  private static final byte[] TRUE = ascii("true");
+
+  private static final byte[] FALSE = ascii("false");
+
+  private static final byte[] NULL = ascii("null");
+
+  private static final byte[] SUBJECT = ascii("sub");
+
+  private static final byte[] AUTHORITIES = ascii("authorities");
+
+  private static final byte[] EXPIRATION = ascii("exp");
+
+  private static final byte[] NOT_BEFORE = ascii("nbf");
+
+  private static final byte[] BASE64URL = new byte[128];
+
+  static {
+    Arrays.fill(BASE64URL, (byte) -1);
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    for (int i = 0; i < alphabet.length(); i++) {
+      BASE64URL[alphabet.charAt(i)] = (byte) i;
+    }
+  }
+
+  private final SecretKeySpec key;
+
+  private final Function<String, A> authorityFactory;
+
+  private final byte[][] roleNames;
+
+  private final List<A> roleAuthorities;
+
+  // Indexed by the bit mask of the roles they hold
+  private final List<List<A>> roleCombinations;
+
+  private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(Workspace::new);
+
+  /**
+   * @param secret HS512 signing key
+   * @param authorityFactory creates an authority from its name, e.g. <code>ROLE_USER</code>
+   */
+  public JwtTokenVerifier(byte[] secret, Function<String, A> authorityFactory) {
+    super();
+    this.key = new SecretKeySpec(secret, ALGORITHM);
+    this.authorityFactory = authorityFactory;
+
+    UserRole[] roles = UserRole.values();
+    this.roleNames = new byte[roles.length][];
+    this.roleAuthorities = new ArrayList<A>(roles.length);
+    for (int i = 0; i < roles.length; i++) {
+      roleNames[i] = ascii("ROLE_" + roles[i]);
+      roleAuthorities.add(authorityFactory.apply("ROLE_" + roles[i]));
+    }
+
+    this.roleCombinations = new ArrayList<List<A>>(1 << roles.length);
+    for (int mask = 0; mask < 1 << roles.length; mask++) {
+      roleCombinations.add(Collections.unmodifiableList(roles(mask, 0)));
+    }
+
+    // Fails fast on an unusable key rather than on the first request
+    workspaces.get();
+  }
+
+  /**
+   * Verifies a token
+   *
+   * @param header value holding the compact token, e.g. the <code>Authorization</code> header
+   * @param start index of the token in the header, after its prefix
+   * @return the claims of a valid token, null if the token is malformed, its header is not the
+   *         HS512 one, its signature does not match, it is expired or it is not valid yet
+   */
+  public VerifiedJwt<A> verify(String header, int start) {
+
+    int payloadStart = header.indexOf('.', start) + 1;
+    int signatureStart = payloadStart > 0 ? header.indexOf('.', payloadStart) + 1 : 0;
+
+    if (start < 0 || payloadStart <= start || signatureStart <= payloadStart
+        || header.indexOf('.', signatureStart) >= 0) {
+      return null;
+    }
+
+    Workspace workspace = workspaces.get();
+    if (!workspace.signatureMatches(header, start, signatureStart - 1, header.length())
+        || !workspace.headerMatches(header, start, payloadStart - 1)) {
+      return null;
+    }
+
+    return workspace.readClaims(header, payloadStart, signatureStart - 1,
+        System.currentTimeMillis());
+  }
+
+  private List<A> roles(int mask, int capacity) {
+
+    List<A> authorities = new ArrayList<A>(Integer.bitCount(mask) + capacity);
+    for (int i = 0; i < roleAuthorities.size(); i++) {
+      if ((mask & 1 << i) != 0) {
+        authorities.add(roleAuthorities.get(i));
+      }
+    }
+    return authorities;
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Decoded length of base64url characters, -1 if they can not be valid base64url
+   */
+  private static int decodedLength(int length) {
+    return length % 4 == 1 ? -1 : length / 4 * 3 + Math.max(0, length % 4 - 1);
+  }
+
+  /**
+   * Decodes unpadded base64url characters, the unused bits of the last character must be zero
+   *
+   * @return decoded length, -1 if the characters are not valid canonical base64url
+   */
+  private static int decode(String source, int start, int end, byte[] target) {
+
+    int length = 0;
+    int bits = 0;
+    int bitCount = 0;
+
+    for (int i = start; i < end; i++) {
+
+      char c = source.charAt(i);
+      int value = c < BASE64URL.length ? BASE64URL[c] : -1;
+      if (value < 0) {
+        return -1;
+      }
+
+      bits = bits << 6 | value;
+      bitCount += 6;
+      if (bitCount >= 8) {
+        bitCount -= 8;
+        target[length++] = (byte) (bits >> bitCount);
+      }
+    }
+
+    // Other encodings of the same bytes are not accepted
+    if ((bits & (1 << bitCount) - 1) != 0) {
+      return -1;
+    }
+    return length;
+  }
+
+  /**
+   * Claims of a verified token
+   *
+   * @param <A> authority type
+   */
+  public static class VerifiedJwt<A> {
+
+    /**
+     * {@link #getExpiresAt()} of a token without expiration
+     */
+    public static final long NO_EXPIRATION = Long.MAX_VALUE;
+
+    private final String subject;
+
+    private final List<A> authorities;
+
+    private final long expiresAt;
+
+    VerifiedJwt(String subject, List<A> authorities, long expiresAt) {
+      super();
+      this.subject = subject;
+      this.authorities = authorities;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the <code>sub</code> claim, null if the token has none
+     */
+    public String getSubject() {
+      return subject;
+    }
+
+    /**
+     * @return the <code>authorities</code> claim, may be shared, null if the token has none
+     */
+    public List<A> getAuthorities() {
+      return authorities;
+    }
+
+    /**
+     * @return the <code>exp</code> claim in milliseconds, {@link #NO_EXPIRATION} if the token has
+     *         none
+     */
+    public long getExpiresAt() {
+      return expiresAt;
+    }
+
+  }
+
+  /**
+   * The MAC and buffers of a thread, and the state of the claims reader
+   */
+  private class Workspace {
+
+    private final Mac mac;
+
+    private final byte[] expectedSignature = new byte[SIGNATURE_LENGTH];
+
+    private final byte[] signature = new byte[SIGNATURE_LENGTH];
+
+    private byte[] buffer = new byte[512];
+
+    private int position;
+
+    private int limit;
+
+    private int stringStart;
+
+    private int stringEnd;
+
+    private boolean stringEscaped;
+
+    private long number;
+
+    Workspace() {
+
+      try {
+        mac = Mac.getInstance(ALGORITHM);
+        mac.init(key);
+      } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+        throw new IllegalStateException("Can not verify " + ALGORITHM + " signatures", e);
+      }
+    }
+
+    boolean signatureMatches(String token, int start, int signedEnd, int end) {
+
+      if (decodedLength(end - signedEnd - 1) != SIGNATURE_LENGTH) {
+        return false;
+      }
+
+      int length = signedEnd - start;
+      ensureCapacity(length);
+      for (int i = 0; i < length; i++) {
+        char c = token.charAt(start + i);
+        if (c > 0x7f) {
+          return false;
+        }
+        buffer[i] = (byte) c;
+      }
+
+      mac.update(buffer, 0, length);
+      try {
+        mac.doFinal(expectedSignature, 0);
+      } catch (ShortBufferException e) {
+        throw new IllegalStateException(e);
+      }
+
+      if (decode(token, signedEnd + 1, end, signature) != SIGNATURE_LENGTH) {
+        return false;
+      }
+
+      // Constant time, the position of a mismatch is not revealed
+      int difference = 0;
+      for (int i = 0; i < SIGNATURE_LENGTH; i++) {
+        difference |= expectedSignature[i] ^ signature[i];
+      }
+      return difference == 0;
+    }
+
+    /**
+     * Accepts a header naming the HS512 algorithm, without critical extensions or compression
+     */
+    boolean headerMatches(String token, int start, int end) {
+
+      if (HS512_HEADER.length() == end - start && HS512_HEADER.regionMatches(0, token, start,
+          end - start)) {
+        return true;
+      }
+
+      if (!decodeSegment(token, start, end) || !consume('{')) {
+        return false;
+      }
+
+      boolean hs512 = false;
+      do {
+
+        if (!readString()) {
+          return false;
+        }
+        int nameStart = stringStart;
+        int nameEnd = stringEnd;
+        if (!consume(':')) {
+          return false;
+        }
+
+        if (nameEquals(nameStart, nameEnd, ALGORITHM_NAME)) {
+          if (!readString()) {
+            return false;
+          }
+          hs512 = stringEscaped ? "HS512".equals(stringValue())
+              : nameEquals(stringStart, stringEnd, HS512);
+        } else if (nameEquals(nameStart, nameEnd, CRITICAL)
+            || nameEquals(nameStart, nameEnd, COMPRESSION) || !skipValue(0)) {
+          return false;
+        }
+
+      } while (consume(','));
+
+      if (!consume('}')) {
+        return false;
+      }
+      skipWhitespace();
+      return position == limit && hs512;
+    }
+
+    VerifiedJwt<A> readClaims(String token, int start, int end, long now) {
+
+      // Otherwise a plain text payload for jjwt
+      if (!decodeSegment(token, start, end) || limit < 2 || buffer[0] != '{'
+          || buffer[limit - 1] != '}') {
+        return null;
+      }
+
+      String subject = null;
+      List<A> authorities = null;
+      long expiresAt = VerifiedJwt.NO_EXPIRATION;
+      long notBefore = Long.MIN_VALUE;
+
+      if (!consume('{')) {
+        return null;
+      }
+
+      if (!consume('}')) {
+
+        do {
+
+          if (!readString()) {
+            return null;
+          }
+          int nameStart = stringStart;
+          int nameEnd = stringEnd;
+          if (!consume(':')) {
+            return null;
+          }
+
+          if (nameEquals(nameStart, nameEnd, SUBJECT)) {
+            if (!readString()) {
+              return null;
+            }
+            subject = stringValue();
+            if (subject == null) {
+              return null;
+            }
+          } else if (nameEquals(nameStart, nameEnd, AUTHORITIES)) {
+            authorities = readAuthorities();
+            if (authorities == null) {
+              return null;
+            }
+          } else if (nameEquals(nameStart, nameEnd, EXPIRATION)) {
+            if (!readNumber()) {
+              return null;
+            }
+            expiresAt = toMillis(number);
+          } else if (nameEquals(nameStart, nameEnd, NOT_BEFORE)) {
+            if (!readNumber()) {
+              return null;
+            }
+            notBefore = toMillis(number);
+          } else if (!skipValue(0)) {
+            return null;
+          }
+
+        } while (consume(','));
+
+        if (!consume('}')) {
+          return null;
+        }
+      }
+
+      if (position != limit || now > expiresAt || now < notBefore) {
+        return null;
+      }
+
+      return new VerifiedJwt<A>(subject, authorities, expiresAt);
+    }
+
+    /**
+     * Decodes a segment to read it from the start
+     */
+    private boolean decodeSegment(String token, int start, int end) {
+
+      int length = decodedLength(end - start);
+      if (length < 0) {
+        return false;
+      }
+      ensureCapacity(length);
+      if (decode(token, start, end, buffer) != length) {
+        return false;
+      }
+
+      position = 0;
+      limit = length;
+      return true;
+    }
+
+    private List<A> readAuthorities() {
+
+      if (!consume('[')) {
+        return null;
+      }
+      if (consume(']')) {
+        return roleCombinations.get(0);
+      }
+
+      int mask = 0;
+      List<A> others = null;
+
+      do {
+
+        if (!readString()) {
+          return null;
+        }
+
+        int role = stringEscaped ? -1 : role();
+        if (role >= 0) {
+          mask |= 1 << role;
+        } else {
+          String name = stringValue();
+          if (name == null) {
+            return null;
+          }
+          if (others == null) {
+            others = new ArrayList<A>();
+          }
+          others.add(authorityFactory.apply(name));
+        }
+
+      } while (consume(','));
+
+      if (!consume(']')) {
+        return null;
+      }
+
+      if (others == null) {
+        return roleCombinations.get(mask);
+      }
+
+      List<A> authorities = roles(mask, others.size());
+      authorities.addAll(others);
+      return authorities;
+    }
+
+    private int role() {
+
+      for (int i = 0; i < roleNames.length; i++) {
+        if (nameEquals(stringStart, stringEnd, roleNames[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private boolean nameEquals(int start, int end, byte[] name) {
+
+      if (end - start != name.length) {
+        return false;
+      }
+      for (int i = 0; i < name.length; i++) {
+        if (buffer[start + i] != name[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Reads a string, rejecting control characters, invalid escape sequences and invalid UTF-8
+     */
+    private boolean readString() {
+
+      if (!consume('"')) {
+        return false;
+      }
+
+      stringStart = position;
+      stringEscaped = false;
+
+      while (position < limit) {
+        byte b = buffer[position++];
+        if (b == '"') {
+          stringEnd = position - 1;
+          return true;
+        }
+        if (b == '\\') {
+          stringEscaped = true;
+          if (!skipEscape()) {
+            return false;
+          }
+        } else if (b < 0) {
+          if (!skipUtf8(b)) {
+            return false;
+          }
+        } else if (b < 0x20) {
+          return false;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Skips the escape sequence following a backslash
+     */
+    private boolean skipEscape() {
+
+      if (position == limit) {
+        return false;
+      }
+
+      switch (buffer[position++]) {
+        case '"':
+        case '\\':
+        case '/':
+        case 'b':
+        case 'f':
+        case 'n':
+        case 'r':
+        case 't':
+          return true;
+        case 'u':
+          for (int i = 0; i < 4; i++) {
+            if (position == limit || Character.digit(buffer[position++], 16) < 0) {
+              return false;
+            }
+          }
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    /**
+     * Skips the continuation bytes of a multi byte UTF-8 sequence, rejecting overlong encodings,
+     * surrogates and code points above U+10FFFF
+     *
+     * @param lead the lead byte, already read
+     */
+    private boolean skipUtf8(byte lead) {
+
+      int length;
+      int min;
+      int codePoint;
+      if ((lead & 0xe0) == 0xc0) {
+        length = 1;
+        min = 0x80;
+        codePoint = lead & 0x1f;
+      } else if ((lead & 0xf0) == 0xe0) {
+        length = 2;
+        min = 0x800;
+        codePoint = lead & 0x0f;
+      } else if ((lead & 0xf8) == 0xf0) {
+        length = 3;
+        min = 0x10000;
+        codePoint = lead & 0x07;
+      } else {
+        return false;
+      }
+
+      for (int i = 0; i < length; i++) {
+        if (position == limit || (buffer[position] & 0xc0) != 0x80) {
+          return false;
+        }
+        codePoint = codePoint << 6 | buffer[position++] & 0x3f;
+      }
+
+      return codePoint >= min && codePoint <= Character.MAX_CODE_POINT
+          && (codePoint < Character.MIN_SURROGATE || codePoint > Character.MAX_SURROGATE);
+    }
+
+    /**
+     * @return the last string read, null if it has an invalid escape sequence
+     */
+    private String stringValue() {
+
+      String raw = new String(buffer, stringStart, stringEnd - stringStart, StandardCharsets.UTF_8);
+      if (!stringEscaped) {
+        return raw;
+      }
+
+      StringBuilder value = new StringBuilder(raw.length());
+      for (int i = 0; i < raw.length(); i++) {
+
+        char c = raw.charAt(i);
+        if (c != '\\') {
+          value.append(c);
+          continue;
+        }
+
+        if (++i == raw.length()) {
+          return null;
+        }
+
+        switch (raw.charAt(i)) {
+          case '"':
+          case '\\':
+          case '/':
+            value.append(raw.charAt(i));
+            break;
+          case 'b':
+            value.append('\b');
+            break;
+          case 'f':
+            value.append('\f');
+            break;
+          case 'n':
+            value.append('\n');
+            break;
+          case 'r':
+            value.append('\r');
+            break;
+          case 't':
+            value.append('\t');
+            break;
+          case 'u':
+            if (i + 4 >= raw.length()) {
+              return null;
+            }
+            int codeUnit = 0;
+            for (int j = 1; j <= 4; j++) {
+              int digit = Character.digit(raw.charAt(i + j), 16);
+              if (digit < 0) {
+                return null;
+              }
+              codeUnit = codeUnit << 4 | digit;
+            }
+            value.append((char) codeUnit);
+            i += 4;
+            break;
+          default:
+            return null;
+        }
+      }
+      return value.toString();
+    }
+
+    /**
+     * Reads a JSON number into {@link #number}, dropping any fraction and saturating on overflow,
+     * as jjwt converts a numeric date, e.g. <code>1.5e9</code> is <code>1500000000</code>
+     */
+    private boolean readNumber() {
+
+      skipWhitespace();
+      int numberStart = position;
+
+      boolean negative = position < limit && buffer[position] == '-';
+      if (negative) {
+        position++;
+      }
+
+      int digitsStart = position;
+      long value = 0;
+      while (position < limit && isDigit(buffer[position])) {
+        int digit = buffer[position++] - '0';
+        value = value > (Long.MAX_VALUE - digit) / 10 ? Long.MAX_VALUE : value * 10 + digit;
+      }
+      if (position == digitsStart || buffer[digitsStart] == '0' && position - digitsStart > 1) {
+        return false;
+      }
+
+      boolean integer = true;
+      if (position < limit && buffer[position] == '.') {
+        integer = false;
+        position++;
+        if (!skipDigits()) {
+          return false;
+        }
+      }
+      if (position < limit && (buffer[position] == 'e' || buffer[position] == 'E')) {
+        integer = false;
+        position++;
+        if (position < limit && (buffer[position] == '+' || buffer[position] == '-')) {
+          position++;
+        }
+        if (!skipDigits()) {
+          return false;
+        }
+      }
+
+      // Casting saturates as well
+      number = integer ? (negative ? -value : value)
+          : (long) Double.parseDouble(
+              new String(buffer, numberStart, position - numberStart, StandardCharsets.US_ASCII));
+      return true;
+    }
+
+    /**
+     * Skips one or more digits
+     */
+    private boolean skipDigits() {
+
+      int digitsStart = position;
+      while (position < limit && isDigit(buffer[position])) {
+        position++;
+      }
+      return position > digitsStart;
+    }
+
+    /**
+     * Skips a valid JSON value of any type, nested values included
+     *
+     * @param depth nesting of the value
+     */
+    private boolean skipValue(int depth) {
+
+      skipWhitespace();
+      if (position == limit) {
+        return false;
+      }
+
+      switch (buffer[position]) {
+        case '"':
+          return readString();
+        case 't':
+          return skipLiteral(TRUE);
+        case 'f':
+          return skipLiteral(FALSE);
+        case 'n':
+          return skipLiteral(NULL);
+        case '{':
+          position++;
+          if (depth == MAX_DEPTH) {
+            return false;
+          }
+          if (consume('}')) {
+            return true;
+          }
+          do {
+            if (!readString() || !consume(':') || !skipValue(depth + 1)) {
+              return false;
+            }
+          } while (consume(','));
+          return consume('}');
+        case '[':
+          position++;
+          if (depth == MAX_DEPTH) {
+            return false;
+          }
+          if (consume(']')) {
+            return true;
+          }
+          do {
+            if (!skipValue(depth + 1)) {
+              return false;
+            }
+          } while (consume(','));
+          return consume(']');
+        default:
+          return readNumber();
+      }
+    }
+
+    private boolean skipLiteral(byte[] literal) {
+
+      if (limit - position < literal.length) {
+        return false;
+      }
+      for (int i = 0; i < literal.length; i++) {
+        if (buffer[position++] != literal[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean consume(char c) {
+
+      skipWhitespace();
+      if (position < limit && buffer[position] == c) {
+        position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void skipWhitespace() {
+
+      while (position < limit && (buffer[position] == ' ' || buffer[position] == '\t'
+          || buffer[position] == '\n' || buffer[position] == '\r')) {
+        position++;
+      }
+    }
+
+    private void ensureCapacity(int length) {
+
+      if (buffer.length < length) {
+        buffer = new byte[Math.max(length, buffer.length * 2)];
+      }
+    }
+
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static long toMillis(long seconds) {
+    return seconds > Long.MAX_VALUE / 1000 ? Long.MAX_VALUE
+        : seconds < Long.MIN_VALUE / 1000 ? Long.MIN_VALUE : seconds * 1000;
+  }
+
+}
@@ -0,0 +1,403 @@
+package com.marketplace.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Test;
+import com.marketplace.security.JwtTokenVerifier.VerifiedJwt;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+public class JwtTokenVerifierTests {
+
+  private static final byte[] SECRET = "JwtSecretKey".getBytes(StandardCharsets.UTF_8);
+
+  private static final String HEADER = "{\"alg\":\"HS512\"}";
+
+  private static final String BASE64URL =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+  private final JwtTokenVerifier<String> verifier =
+      new JwtTokenVerifier<String>(SECRET, Function.identity());
+
+  private final long inOneHour = System.currentTimeMillis() / 1000 + 3600;
+
+  @Test
+  public void testValidToken() {
+
+    String token = Jwts.builder().setSubject("user")
+        .claim("authorities", Arrays.asList("ROLE_USER", "ROLE_ADMIN"))
+        .setExpiration(new Date(inOneHour * 1000)).signWith(SignatureAlgorithm.HS512, SECRET)
+        .compact();
+
+    VerifiedJwt<String> verifiedJwt = verifier.verify("Bearer " + token, 7);
+    assertEquals("user", verifiedJwt.getSubject());
+    assertEquals(Arrays.asList("ROLE_USER", "ROLE_ADMIN"), verifiedJwt.getAuthorities());
+    assertEquals(inOneHour * 1000, verifiedJwt.getExpiresAt());
+
+    // Known roles are shared
+    assertSame(verifiedJwt.getAuthorities(), verifier.verify(token, 0).getAuthorities());
+  }
+
+  @Test
+  public void testWithoutClaims() {
+
+    VerifiedJwt<String> verifiedJwt = verifier.verify(token(HEADER, "{}"), 0);
+    assertNull(verifiedJwt.getSubject());
+    assertNull(verifiedJwt.getAuthorities());
+    assertEquals(VerifiedJwt.NO_EXPIRATION, verifiedJwt.getExpiresAt());
+  }
+
+  @Test
+  public void testWrongSignature() {
+
+    String token = Jwts.builder().setSubject("user")
+        .signWith(SignatureAlgorithm.HS512, "OtherSecretKey".getBytes(StandardCharsets.UTF_8))
+        .compact();
+    assertNull(verifier.verify(token, 0));
+
+    // Signature of another algorithm
+    token = Jwts.builder().setSubject("user").signWith(SignatureAlgorithm.HS256, SECRET).compact();
+    assertNull(verifier.verify(token, 0));
+  }
+
+  @Test
+  public void testTamperedToken() {
+
+    String[] segments = token(HEADER, "{\"sub\":\"user\"}").split("\\.");
+
+    // Payload of another token
+    assertNull(verifier.verify(
+        segments[0] + "." + encode("{\"sub\":\"admin\"}") + "." + segments[2], 0));
+
+    // Header of another token
+    assertNull(verifier.verify(encode("{\"alg\":\"none\"}") + "." + segments[1] + "." + segments[2],
+        0));
+
+    // Unsigned
+    assertNull(verifier.verify(segments[0] + "." + segments[1] + ".", 0));
+  }
+
+  @Test
+  public void testExpiredToken() {
+
+    long now = System.currentTimeMillis() / 1000;
+    assertNull(verifier.verify(token(HEADER, "{\"sub\":\"user\",\"exp\":" + (now - 60) + "}"), 0));
+    assertNotNull(
+        verifier.verify(token(HEADER, "{\"sub\":\"user\",\"exp\":" + (now + 60) + "}"), 0));
+  }
+
+  @Test
+  public void testNotYetValidToken() {
+
+    long now = System.currentTimeMillis() / 1000;
+    assertNull(verifier.verify(token(HEADER, "{\"sub\":\"user\",\"nbf\":" + (now + 60) + "}"), 0));
+    assertNotNull(
+        verifier.verify(token(HEADER, "{\"sub\":\"user\",\"nbf\":" + (now - 60) + "}"), 0));
+  }
+
+  @Test
+  public void testMalformedToken() {
+
+    String token = token(HEADER, "{\"sub\":\"user\"}");
+    String[] segments = token.split("\\.");
+
+    // Missing and extra segments
+    assertNull(verifier.verify("", 0));
+    assertNull(verifier.verify(segments[0], 0));
+    assertNull(verifier.verify(segments[0] + "." + segments[1], 0));
+    assertNull(verifier.verify(token + ".", 0));
+    assertNull(verifier.verify(token + "." + segments[2], 0));
+    assertNull(verifier.verify("." + token, 0));
+
+    // Padded and non base64url segments
+    assertNull(verifier.verify(segments[0] + "." + segments[1] + "=." + segments[2], 0));
+    assertNull(verifier.verify(segments[0] + "." + segments[1] + "." + segments[2] + "==", 0));
+    assertNull(verifier.verify(segments[0] + "." + segments[1] + "." + segments[2] + "+", 0));
+    assertNull(verifier.verify(segments[0] + "." + segments[1] + "." + segments[2] + "A", 0));
+
+    // Not a JSON object
+    assertNull(verifier.verify(token(HEADER, "[\"user\"]"), 0));
+    assertNull(verifier.verify(token(HEADER, "{\"sub\":\"user\""), 0));
+    assertNull(verifier.verify(token(HEADER, "{\"sub\":\"user\"} {}"), 0));
+    assertNull(verifier.verify(token(HEADER, "{\"sub\":\"user\"} "), 0));
+    assertNull(verifier.verify(token(HEADER, "{\"sub\":\"us\\er\"}"), 0));
+  }
+
+  @Test
+  public void testNonCanonicalSignatureRejected() {
+
+    String token = token(HEADER, "{\"sub\":\"user\"}");
+    assertNotNull(verifier.verify(token, 0));
+
+    // 86 characters encode the 64 bytes of the signature, the last 4 bits are unused
+    int last = BASE64URL.indexOf(token.charAt(token.length() - 1));
+    String nonCanonical =
+        token.substring(0, token.length() - 1) + BASE64URL.charAt(last & 0x30 | 0x01);
+
+    assertEquals(
+        Arrays.toString(Base64.getUrlDecoder().decode(token.substring(token.lastIndexOf('.') + 1))),
+        Arrays.toString(Base64.getUrlDecoder()
+            .decode(nonCanonical.substring(nonCanonical.lastIndexOf('.') + 1))));
+    assertNull(verifier.verify(nonCanonical, 0));
+  }
+
+  @Test
+  public void testEscapedSubject() {
+
+    VerifiedJwt<String> verifiedJwt = verifier.verify(token(HEADER,
+        "{\"sub\":\"J\\u00fcrgen \\\"\\\\\\/\\t\\ud83d\\ude00\"}"), 0);
+    assertEquals("J\u00fcrgen \"\\/\t\ud83d\ude00", verifiedJwt.getSubject());
+
+    verifiedJwt = verifier.verify(token(HEADER, "{\"sub\":\"J\u00fcrgen \ud83d\ude00\"}"), 0);
+    assertEquals("J\u00fcrgen \ud83d\ude00", verifiedJwt.getSubject());
+
+    // Invalid escape sequences
+    assertNull(verifier.verify(token(HEADER, "{\"sub\":\"\\u00f\"}"), 0));
+    assertNull(verifier.verify(token(HEADER, "{\"sub\":\"\\x41\"}"), 0));
+  }
+
+  @Test
+  public void testUnknownAuthorities() {
+
+    VerifiedJwt<String> verifiedJwt = verifier.verify(token(HEADER,
+        "{\"authorities\":[\"ROLE_AUDITOR\",\"ROLE_USER\",\"ROLE_\\u00c9DITEUR\"]}"), 0);
+    assertEquals(Arrays.asList("ROLE_USER", "ROLE_AUDITOR", "ROLE_\u00c9DITEUR"),
+        verifiedJwt.getAuthorities());
+
+    // An escaped known role is an authority like any other
+    verifiedJwt = verifier.verify(token(HEADER, "{\"authorities\":[\"ROLE_\\u0055SER\"]}"), 0);
+    assertEquals(Arrays.asList("ROLE_USER"), verifiedJwt.getAuthorities());
+
+    assertEquals(Collections.emptyList(),
+        verifier.verify(token(HEADER, "{\"authorities\":[]}"), 0).getAuthorities());
+    assertNull(verifier.verify(token(HEADER, "{\"authorities\":\"ROLE_USER\"}"), 0));
+  }
+
+  @Test
+  public void testNumericDates() {
+
+    // Fractions are dropped and exponents applied, as by jjwt
+    assertEquals(1000000000000000L,
+        verifier.verify(token(HEADER, "{\"exp\":1e12}"), 0).getExpiresAt());
+    assertEquals(2500000000000L,
+        verifier.verify(token(HEADER, "{\"exp\":2.5E+9}"), 0).getExpiresAt());
+    assertEquals(4102444800000L,
+        verifier.verify(token(HEADER, "{\"exp\":4102444800.9}"), 0).getExpiresAt());
+    assertEquals(VerifiedJwt.NO_EXPIRATION,
+        verifier.verify(token(HEADER, "{\"exp\":1e400}"), 0).getExpiresAt());
+    assertNotNull(verifier.verify(token(HEADER, "{\"nbf\":-1e400}"), 0));
+    assertNull(verifier.verify(token(HEADER, "{\"exp\":1.5e9}"), 0));
+
+    // Not JSON numbers
+    for (String number : Arrays.asList("-", "01", "1.", ".5", "1e", "1e+", "1.e5", "+1", "1x",
+        "0x10", "\"1e12\"")) {
+      assertNull(number, verifier.verify(token(HEADER, "{\"exp\":" + number + "}"), 0));
+    }
+  }
+
+  @Test
+  public void testMatchesJjwt() {
+
+    List<String> tokens = new ArrayList<String>();
+    long now = System.currentTimeMillis() / 1000;
+
+    List<String> subjects = Arrays.asList(null, "", "user", "J\u00fcrgen \ud83d\ude00",
+        "quote \" back\\slash / tab\t line\n end\u0001");
+    List<List<String>> authorities = Arrays.asList(null, Collections.<String>emptyList(),
+        Arrays.asList("ROLE_USER"), Arrays.asList("ROLE_ADMIN", "ROLE_USER"),
+        Arrays.asList("ROLE_USER", "ROLE_AUDITOR", "ROLE_\u00c9DITEUR"));
+    List<Long> expirations = Arrays.asList(null, now - 60, now + 3600);
+    List<Long> notBefores = Arrays.asList(null, now - 60, now + 3600);
+
+    for (String subject : subjects) {
+      for (List<String> authority : authorities) {
+        for (Long expiration : expirations) {
+          for (Long notBefore : notBefores) {
+
+            JwtBuilder builder = Jwts.builder().setIssuer("auth-service").setSubject(subject);
+            if (authority != null) {
+              builder.claim("authorities", authority);
+            }
+            if (expiration != null) {
+              builder.setExpiration(new Date(expiration * 1000));
+            }
+            if (notBefore != null) {
+              builder.setNotBefore(new Date(notBefore * 1000));
+            }
+            tokens.add(builder.signWith(SignatureAlgorithm.HS512, SECRET).compact());
+          }
+        }
+      }
+    }
+
+    // Claims of other services, skipped
+    Map<String, Object> scope = new LinkedHashMap<String, Object>();
+    scope.put("read", Arrays.asList(true, false, null));
+    scope.put("weight", 1.5e3);
+    scope.put("nested", Collections.singletonMap("empty", Collections.emptyMap()));
+    tokens.add(Jwts.builder().setSubject("user").setIssuer("auth-service").claim("scope", scope)
+        .claim("authorities", Arrays.asList("ROLE_USER")).setIssuedAt(new Date())
+        .signWith(SignatureAlgorithm.HS512, SECRET).compact());
+
+    // Hand written payloads
+    for (String payload : Arrays.asList("{}", "{ \"sub\" : \"user\" , \"exp\" : 1e12 }",
+        " {\"sub\":\"user\"}",
+        "{\"exp\":2.5e9,\"sub\":\"x\",\"sub\":\"y\"}", "{\"nbf\":1.5e9,\"exp\":4102444800.9}",
+        "{\"sub\":\"\\u00e9\\n\",\"other\":[1,-2.5e-3,{\"a\":\"]}\"}]}")) {
+      tokens.add(token(HEADER, payload));
+    }
+
+    // Headers, signed with HS512 whatever algorithm they name
+    for (String header : Arrays.asList("{\"alg\":\"HS512\",\"typ\":\"JWT\"}",
+        " { \"typ\" : \"JWT\" , \"alg\" : \"HS512\" } ", "{\"alg\":\"HS\\u0035\\u0031\\u0032\"}",
+        "{\"alg\":\"HS256\"}", "{\"alg\":\"none\"}", "{}",
+        "{\"alg\":\"HS512\",\"zip\":\"DEF\"}", "{\"alg\":\"HS512\",\"kid\":xyz}",
+        "[\"HS512\"]", "HS512")) {
+      tokens.add(token(header, "{\"sub\":\"user\"}"));
+    }
+
+    // Skipped claims that are not valid JSON values
+    for (String value : Arrays.asList("xyz", "tru", "truefalse", "nul", "1-2", "--1", "1e5e5",
+        "[1,]", "[1 2]", "{\"a\":xyz}", "{\"a\"}", "{1:2}", "\"\\x\"", "\"\\u12\"",
+        "\"a\u0001b\"")) {
+      tokens.add(token(HEADER, "{\"sub\":\"user\",\"other\":" + value + "}"));
+    }
+
+    // Rejected by the verifier, accepted by jjwt: algorithm names differing in case, critical
+    // extensions it can not honor, malformed UTF-8 that jjwt replaces, and skipped values nested
+    // too deeply
+    List<String> stricter = new ArrayList<String>();
+    stricter.add(token("{\"alg\":\"hs512\"}", "{\"sub\":\"user\"}"));
+    stricter.add(token("{\"alg\":\"HS512\",\"crit\":[\"exp\"],\"exp\":1}", "{\"sub\":\"user\"}"));
+    for (byte[] invalid : Arrays.asList(new byte[] {(byte) 0xc3, 0x28},
+        new byte[] {(byte) 0xc0, (byte) 0xaf}, new byte[] {(byte) 0xed, (byte) 0xa0, (byte) 0x80},
+        new byte[] {(byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80},
+        new byte[] {(byte) 0xe2, (byte) 0x82}, new byte[] {(byte) 0x80})) {
+      stricter.add(token(HEADER, utf8("{\"sub\":\"", invalid, "\"}")));
+      stricter.add(token(HEADER, utf8("{\"sub\":\"user\",\"other\":[\"", invalid, "\"]}")));
+    }
+    stricter.add(token(HEADER, "{\"other\":" + String.join("", Collections.nCopies(40, "["))
+        + String.join("", Collections.nCopies(40, "]")) + "}"));
+    for (String token : stricter) {
+      assertNotNull(token, jjwt(token));
+      assertNull(token, verifier.verify(token, 0));
+    }
+
+    // Tampered tokens
+    List<String> tampered = new ArrayList<String>();
+    for (String token : tokens) {
+      int payloadStart = token.indexOf('.') + 1;
+      int signatureStart = token.lastIndexOf('.') + 1;
+      tampered.add(replace(token, payloadStart / 2));
+      tampered.add(replace(token, (payloadStart + signatureStart) / 2));
+      tampered.add(replace(token, signatureStart + 10));
+    }
+    tokens.addAll(tampered);
+
+    int valid = 0;
+    for (String token : tokens) {
+
+      VerifiedJwt<String> expected = jjwt(token);
+      VerifiedJwt<String> verifiedJwt = verifier.verify(token, 0);
+
+      if (expected == null) {
+        assertNull(token, verifiedJwt);
+        continue;
+      }
+      valid++;
+      assertNotNull(token, verifiedJwt);
+      assertEquals(token, expected.getSubject(), verifiedJwt.getSubject());
+      // Known roles come first, in role order
+      assertEquals(token,
+          expected.getAuthorities() == null ? null : new HashSet<String>(expected.getAuthorities()),
+          verifiedJwt.getAuthorities() == null ? null
+              : new HashSet<String>(verifiedJwt.getAuthorities()));
+      assertEquals(token, expected.getExpiresAt(), verifiedJwt.getExpiresAt());
+    }
+
+    // Both outcomes are covered
+    assertEquals(subjects.size() * authorities.size() * 4 + 1 + 5 + 3, valid);
+  }
+
+  /**
+   * The claims read by jjwt, null if it rejects the token
+   */
+  @SuppressWarnings("unchecked")
+  private static VerifiedJwt<String> jjwt(String token) {
+
+    try {
+      Claims claims = Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token).getBody();
+      Date expiration = claims.getExpiration();
+      return new VerifiedJwt<String>(claims.getSubject(),
+          (List<String>) claims.get("authorities", List.class),
+          expiration == null ? VerifiedJwt.NO_EXPIRATION : expiration.getTime());
+    } catch (JwtException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Replaces the base64url character at an index with another one
+   */
+  private static String replace(String token, int index) {
+
+    int value = BASE64URL.indexOf(token.charAt(index));
+    return token.substring(0, index) + BASE64URL.charAt((value + 32) % 64)
+        + token.substring(index + 1);
+  }
+
+  private static String token(String header, String payload) {
+    return token(header, payload.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String token(String header, byte[] payload) {
+
+    String signed = encode(header) + "." + Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(payload);
+    try {
+      Mac mac = Mac.getInstance("HmacSHA512");
+      mac.init(new SecretKeySpec(SECRET, "HmacSHA512"));
+      return signed + "." + Base64.getUrlEncoder().withoutPadding()
+          .encodeToString(mac.doFinal(signed.getBytes(StandardCharsets.US_ASCII)));
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * UTF-8 bytes of a JSON text with raw bytes in between
+   */
+  private static byte[] utf8(String before, byte[] bytes, String after) {
+
+    byte[] prefix = before.getBytes(StandardCharsets.UTF_8);
+    byte[] suffix = after.getBytes(StandardCharsets.UTF_8);
+    byte[] json = Arrays.copyOf(prefix, prefix.length + bytes.length + suffix.length);
+    System.arraycopy(bytes, 0, json, prefix.length, bytes.length);
+    System.arraycopy(suffix, 0, json, prefix.length + bytes.length, suffix.length);
+    return json;
+  }
+
+  private static String encode(String json) {
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
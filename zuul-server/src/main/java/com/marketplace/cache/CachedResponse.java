@@ -0,0 +1,111 @@
+package com.marketplace.cache;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import com.netflix.util.Pair;
+import com.netflix.zuul.context.RequestContext;
+
+/**
+ * A response of a backend service kept by the {@link ResponseCache}, with its freshness
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class CachedResponse {
+
+  private final int status;
+
+  private final List<Pair<String, String>> headers;
+
+  private final byte[] body;
+
+  private final boolean gzipped;
+
+  private final String etag;
+
+  private final long expiresAt;
+
+  /**
+   * @param status response status
+   * @param headers response headers passed on to the client
+   * @param body response body, as received from the backend
+   * @param gzipped whether the body is gzip encoded
+   * @param etag entity tag of the response, null if it has none
+   * @param expiresAt time until which the response is served without revalidation, in
+   *        milliseconds
+   */
+  public CachedResponse(int status, List<Pair<String, String>> headers, byte[] body,
+      boolean gzipped, String etag, long expiresAt) {
+    super();
+    this.status = status;
+    this.headers = headers;
+    this.body = body;
+    this.gzipped = gzipped;
+    this.etag = etag;
+    this.expiresAt = expiresAt;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public List<Pair<String, String>> getHeaders() {
+    return headers;
+  }
+
+  public byte[] getBody() {
+    return body;
+  }
+
+  public boolean isGzipped() {
+    return gzipped;
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  public long getExpiresAt() {
+    return expiresAt;
+  }
+
+  public boolean isFresh(long now) {
+    return now < expiresAt;
+  }
+
+  /**
+   * Sends this response to the client instead of the backend response, as a 304 if the client
+   * already holds it
+   * 
+   * @param context the current request
+   */
+  public void writeTo(RequestContext context) {
+
+    context.setSendZuulResponse(false);
+    context.getZuulResponseHeaders().clear();
+    for (Pair<String, String> header : headers) {
+      context.addZuulResponseHeader(header.first(), header.second());
+    }
+
+    if (etag != null && etag.equals(context.getRequest().getHeader(HttpHeaders.IF_NONE_MATCH))) {
+      context.setResponseStatusCode(HttpStatus.NOT_MODIFIED.value());
+      context.setResponseDataStream(null);
+      return;
+    }
+
+    context.setResponseStatusCode(status);
+    context.setResponseGZipped(gzipped);
+    context.setResponseDataStream(new ByteArrayInputStream(body));
+  }
+
+  /**
+   * @param expiresAt new freshness limit, after a successful revalidation
+   * @return a copy of this response fresh until the given time
+   */
+  public CachedResponse withExpiresAt(long expiresAt) {
+    return new CachedResponse(status, headers, body, gzipped, etag, expiresAt);
+  }
+
+}
@@ -0,0 +1,97 @@
+package com.marketplace.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Gateway cache of backend GET responses, keyed by path, query and <code>Accept</code> header, so
+ * that JSON and HAL representations are kept apart. It is bounded by the total size of the cached
+ * bodies and its statistics are published as the <code>cache.*</code> meters of the
+ * <code>gateway-response</code> cache.
+ * 
+ * <p>
+ * Every invalidation starts a new generation. A response is only kept if no invalidation happened
+ * since its request was received, so a read racing a write can not cache the old state.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class ResponseCache {
+
+  // Allowance for the key, headers and bookkeeping of an entry
+  private static final int ENTRY_OVERHEAD = 512;
+
+  private final Cache<String, CachedResponse> cache;
+
+  private final AtomicLong generation = new AtomicLong();
+
+  @Autowired
+  public ResponseCache(MeterRegistry meterRegistry,
+      @Value("${gateway.cache.maximum-weight:64MB}") DataSize maximumWeight) {
+    super();
+    this.cache = Caffeine.newBuilder().maximumWeight(maximumWeight.toBytes())
+        .<String, CachedResponse>weigher(
+            (key, response) -> key.length() + response.getBody().length + ENTRY_OVERHEAD)
+        .recordStats().build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "gateway-response");
+  }
+
+  /**
+   * @param request a GET request
+   * @return the cache key of the request
+   */
+  public static String key(HttpServletRequest request) {
+
+    String query = request.getQueryString();
+    String accept = request.getHeader(HttpHeaders.ACCEPT);
+    return request.getRequestURI() + (query != null ? "?" + query : "") + "\n"
+        + (accept != null ? accept : "");
+  }
+
+  public CachedResponse get(String key) {
+    return cache.getIfPresent(key);
+  }
+
+  /**
+   * @return the current generation, to be passed to {@link #put} with the response
+   */
+  public long generation() {
+    return generation.get();
+  }
+
+  /**
+   * Caches a response, unless the cache was invalidated since the given generation
+   * 
+   * @param key cache key of the request
+   * @param response the response
+   * @param generation the {@link #generation()} when the request was received
+   */
+  public void put(String key, CachedResponse response, long generation) {
+
+    cache.put(key, response);
+
+    // Checked after the put, an invalidation in between still removes the response
+    if (this.generation.get() != generation) {
+      cache.invalidate(key);
+    }
+  }
+
+  /**
+   * Evicts every response
+   */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+}
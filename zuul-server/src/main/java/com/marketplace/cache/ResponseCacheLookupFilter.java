@@ -0,0 +1,122 @@
+package com.marketplace.cache;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.netflix.zuul.filters.support.FilterConstants;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import com.netflix.zuul.ZuulFilter;
+import com.netflix.zuul.context.RequestContext;
+
+/**
+ * Serves GET requests of the cached routes from the {@link ResponseCache} while the cached
+ * response is fresh. Stale responses with an entity tag are revalidated with the backend through
+ * <code>If-None-Match</code>. Writes to the invalidating paths evict every cached response before
+ * they are routed, and again by the {@link ResponseCacheStoreFilter} once they completed.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class ResponseCacheLookupFilter extends ZuulFilter {
+
+  static final String KEY = "responseCacheKey";
+
+  static final String GENERATION = "responseCacheGeneration";
+
+  static final String REVALIDATED = "responseCacheRevalidated";
+
+  static final String INVALIDATE = "responseCacheInvalidate";
+
+  private static final Set<HttpMethod> WRITE_METHODS =
+      EnumSet.of(HttpMethod.POST, HttpMethod.PUT, HttpMethod.PATCH, HttpMethod.DELETE);
+
+  private final PathMatcher pathMatcher = new AntPathMatcher();
+
+  private ResponseCache responseCache;
+
+  private Set<String> routes;
+
+  private List<String> invalidatePaths;
+
+  @Autowired
+  public ResponseCacheLookupFilter(ResponseCache responseCache,
+      @Value("${gateway.cache.routes:catalog-service}") Set<String> routes,
+      @Value("${gateway.cache.invalidate-paths:/api/products/**}") List<String> invalidatePaths) {
+    super();
+    this.responseCache = responseCache;
+    this.routes = routes;
+    this.invalidatePaths = invalidatePaths;
+  }
+
+  @Override
+  public String filterType() {
+    return FilterConstants.PRE_TYPE;
+  }
+
+  @Override
+  public int filterOrder() {
+    // After the route of the request is known and oversized uploads were rejected
+    return FilterConstants.PRE_DECORATION_FILTER_ORDER + 2;
+  }
+
+  @Override
+  public boolean shouldFilter() {
+
+    RequestContext context = RequestContext.getCurrentContext();
+    return context.sendZuulResponse() && routes.contains(context.get(FilterConstants.PROXY_KEY));
+  }
+
+  @Override
+  public Object run() {
+
+    RequestContext context = RequestContext.getCurrentContext();
+    HttpServletRequest request = context.getRequest();
+    HttpMethod method = HttpMethod.resolve(request.getMethod());
+
+    if (method == HttpMethod.GET) {
+      lookup(context, request);
+    } else if (WRITE_METHODS.contains(method) && isInvalidatePath(request.getRequestURI())) {
+      responseCache.invalidateAll();
+      context.set(INVALIDATE, true);
+    }
+
+    return null;
+  }
+
+  private void lookup(RequestContext context, HttpServletRequest request) {
+
+    String key = ResponseCache.key(request);
+    context.set(KEY, key);
+    context.set(GENERATION, responseCache.generation());
+
+    CachedResponse cachedResponse = responseCache.get(key);
+    if (cachedResponse == null || isNoCache(request.getHeader(HttpHeaders.CACHE_CONTROL))) {
+      return;
+    }
+
+    if (cachedResponse.isFresh(System.currentTimeMillis())) {
+      cachedResponse.writeTo(context);
+    } else if (cachedResponse.getEtag() != null
+        && request.getHeader(HttpHeaders.IF_NONE_MATCH) == null) {
+      context.addZuulRequestHeader(HttpHeaders.IF_NONE_MATCH, cachedResponse.getEtag());
+      context.set(REVALIDATED, cachedResponse);
+    }
+  }
+
+  private boolean isInvalidatePath(String path) {
+    return invalidatePaths.stream().anyMatch(pattern -> pathMatcher.match(pattern, path));
+  }
+
+  private static boolean isNoCache(String cacheControl) {
+    return cacheControl != null && cacheControl.toLowerCase().contains("no-cache");
+  }
+
+}
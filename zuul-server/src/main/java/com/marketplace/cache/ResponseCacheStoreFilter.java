@@ -0,0 +1,228 @@
+package com.marketplace.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.netflix.zuul.filters.support.FilterConstants;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+import com.netflix.util.Pair;
+import com.netflix.zuul.ZuulFilter;
+import com.netflix.zuul.context.RequestContext;
+
+/**
+ * Keeps the backend responses of the GET requests looked up by the
+ * {@link ResponseCacheLookupFilter} in the {@link ResponseCache}, and evicts the cache again once
+ * a write completed.
+ * 
+ * <p>
+ * Only 200 responses are kept, as long as the backend allows it through
+ * <code>Cache-Control</code>: <code>no-store</code>, <code>private</code>,
+ * <code>Set-Cookie</code> and <code>Vary: *</code> responses are not kept. A response is fresh for
+ * its <code>s-maxage</code> or <code>max-age</code>, or for the default time to live if it has
+ * neither, none by default. A <code>no-cache</code> response, or a response that is not fresh, is
+ * kept only if it has an <code>ETag</code> and is revalidated on every request. A 304 to a
+ * revalidation serves the cached response and renews its freshness.
+ *
+ * <p>
+ * Evictions only follow the writes routed through this gateway instance, writes through other
+ * instances and background imports are only seen by revalidating. catalog-service tags its
+ * responses <code>no-cache</code> for that reason.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class ResponseCacheStoreFilter extends ZuulFilter {
+
+  private ResponseCache responseCache;
+
+  private Duration defaultTimeToLive;
+
+  private int maximumEntrySize;
+
+  @Autowired
+  public ResponseCacheStoreFilter(ResponseCache responseCache,
+      @Value("${gateway.cache.default-ttl:0s}") Duration defaultTimeToLive,
+      @Value("${gateway.cache.maximum-entry-size:1MB}") DataSize maximumEntrySize) {
+    super();
+    this.responseCache = responseCache;
+    this.defaultTimeToLive = defaultTimeToLive;
+    this.maximumEntrySize = (int) maximumEntrySize.toBytes();
+  }
+
+  @Override
+  public String filterType() {
+    return FilterConstants.POST_TYPE;
+  }
+
+  @Override
+  public int filterOrder() {
+    return FilterConstants.SEND_RESPONSE_FILTER_ORDER - 10;
+  }
+
+  @Override
+  public boolean shouldFilter() {
+
+    RequestContext context = RequestContext.getCurrentContext();
+    return context.getThrowable() == null && context.sendZuulResponse()
+        && (context.containsKey(ResponseCacheLookupFilter.KEY)
+            || context.containsKey(ResponseCacheLookupFilter.INVALIDATE));
+  }
+
+  @Override
+  public Object run() {
+
+    RequestContext context = RequestContext.getCurrentContext();
+
+    if (context.containsKey(ResponseCacheLookupFilter.INVALIDATE)) {
+      responseCache.invalidateAll();
+      return null;
+    }
+
+    String key = (String) context.get(ResponseCacheLookupFilter.KEY);
+    long generation = (Long) context.get(ResponseCacheLookupFilter.GENERATION);
+    CachedResponse revalidated =
+        (CachedResponse) context.get(ResponseCacheLookupFilter.REVALIDATED);
+    long expiresAt = expiresAt(context.getOriginResponseHeaders(), System.currentTimeMillis());
+
+    if (context.getResponseStatusCode() == HttpStatus.NOT_MODIFIED.value() && revalidated != null) {
+
+      CachedResponse renewed = revalidated.withExpiresAt(Math.max(expiresAt, 0));
+      responseCache.put(key, renewed, generation);
+      renewed.writeTo(context);
+
+    } else if (context.getResponseStatusCode() == HttpStatus.OK.value()
+        && context.getResponseBody() == null && expiresAt >= 0) {
+
+      String etag = header(context.getOriginResponseHeaders(), HttpHeaders.ETAG);
+      if (expiresAt > System.currentTimeMillis() || etag != null) {
+        store(context, key, generation, etag, expiresAt);
+      }
+    }
+
+    return null;
+  }
+
+  private void store(RequestContext context, String key, long generation, String etag,
+      long expiresAt) {
+
+    InputStream responseDataStream = context.getResponseDataStream();
+
+    try {
+
+      byte[] body = responseDataStream == null ? new byte[0]
+          : readAtMost(responseDataStream, maximumEntrySize + 1);
+
+      if (body.length > maximumEntrySize) {
+        // Too large, passed on as is
+        context.setResponseDataStream(
+            new SequenceInputStream(new ByteArrayInputStream(body), responseDataStream));
+        return;
+      }
+
+      if (responseDataStream != null) {
+        responseDataStream.close();
+      }
+
+      responseCache.put(key, new CachedResponse(HttpStatus.OK.value(),
+          new ArrayList<Pair<String, String>>(context.getZuulResponseHeaders()), body,
+          context.getResponseGZipped(), etag, expiresAt), generation);
+      context.setResponseDataStream(new ByteArrayInputStream(body));
+
+    } catch (IOException e) {
+      ReflectionUtils.rethrowRuntimeException(e);
+    }
+  }
+
+  /**
+   * Freshness limit of a response from its headers
+   * 
+   * @return the time until which the response is fresh, in milliseconds, -1 if it must not be
+   *         cached
+   */
+  private long expiresAt(List<Pair<String, String>> headers, long now) {
+
+    if (header(headers, HttpHeaders.SET_COOKIE) != null
+        || "*".equals(header(headers, HttpHeaders.VARY))) {
+      return -1;
+    }
+
+    String cacheControl = header(headers, HttpHeaders.CACHE_CONTROL);
+    if (cacheControl == null) {
+      return now + defaultTimeToLive.toMillis();
+    }
+
+    long maxAge = -1;
+    long sharedMaxAge = -1;
+
+    for (String directive : cacheControl.toLowerCase().split(",")) {
+
+      directive = directive.trim();
+      if (directive.equals("no-store") || directive.startsWith("private")) {
+        return -1;
+      } else if (directive.equals("no-cache")) {
+        return now;
+      } else if (directive.startsWith("max-age=")) {
+        maxAge = seconds(directive.substring("max-age=".length()));
+      } else if (directive.startsWith("s-maxage=")) {
+        sharedMaxAge = seconds(directive.substring("s-maxage=".length()));
+      }
+    }
+
+    if (sharedMaxAge >= 0) {
+      return now + sharedMaxAge * 1000;
+    }
+    return maxAge >= 0 ? now + maxAge * 1000 : now + defaultTimeToLive.toMillis();
+  }
+
+  private static long seconds(String value) {
+
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static String header(List<Pair<String, String>> headers, String name) {
+
+    for (Pair<String, String> header : headers) {
+      if (name.equalsIgnoreCase(header.first())) {
+        return header.second();
+      }
+    }
+    return null;
+  }
+
+  private static byte[] readAtMost(InputStream inputStream, int limit) throws IOException {
+
+    byte[] buffer = new byte[Math.min(limit, StreamUtils.BUFFER_SIZE)];
+    int length = 0;
+    int read;
+
+    while ((read = inputStream.read(buffer, length, buffer.length - length)) > 0) {
+      length += read;
+      if (length == buffer.length) {
+        if (length == limit) {
+          break;
+        }
+        buffer = Arrays.copyOf(buffer, Math.min(limit, buffer.length * 2));
+      }
+    }
+
+    return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+  }
+
+}
@@ -0,0 +1,55 @@
+package com.marketplace.loadbalancer;
+
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.client.config.IClientConfigKey;
+import com.netflix.loadbalancer.LoadBalancerStats;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerStats;
+
+/**
+ * Load balancer statistics keeping {@link EwmaServerStats} for each server, for the
+ * {@link PeakEwmaRule}. It is set up per client through the
+ * <code>&lt;client&gt;.ribbon.NFLoadBalancerStatsClassName</code> property, the time constant of
+ * the averages through <code>&lt;client&gt;.ribbon.EwmaDecayTime</code>, in milliseconds.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class EwmaLoadBalancerStats extends LoadBalancerStats {
+
+  public static final IClientConfigKey<Integer> EWMA_DECAY_TIME =
+      new CommonClientConfigKey<Integer>("EwmaDecayTime") {};
+
+  private static final int DEFAULT_EWMA_DECAY_TIME = 10000;
+
+  private long decayTime = DEFAULT_EWMA_DECAY_TIME;
+
+  public EwmaLoadBalancerStats() {
+    super();
+  }
+
+  public EwmaLoadBalancerStats(String name, long decayTime) {
+    super(name);
+    this.decayTime = decayTime;
+  }
+
+  @Override
+  public void initWithNiwsConfig(IClientConfig clientConfig) {
+    super.initWithNiwsConfig(clientConfig);
+    this.decayTime =
+        clientConfig.getPropertyAsInteger(EWMA_DECAY_TIME, DEFAULT_EWMA_DECAY_TIME);
+  }
+
+  @Override
+  protected ServerStats createServerStats(Server server) {
+
+    // Same buffer and publish interval as the default statistics
+    ServerStats serverStats = new EwmaServerStats(this, decayTime);
+    serverStats.setBufferSize(1000);
+    serverStats.setPublishInterval(1000);
+    serverStats.initialize(server);
+    return serverStats;
+  }
+
+}
@@ -0,0 +1,58 @@
+package com.marketplace.loadbalancer;
+
+import java.util.concurrent.TimeUnit;
+import com.netflix.loadbalancer.LoadBalancerStats;
+import com.netflix.loadbalancer.ServerStats;
+
+/**
+ * Server statistics extended with a peak-sensitive exponentially weighted moving average of the
+ * response times. A response slower than the average replaces it at once, faster responses pull
+ * it down gradually, and the average decays towards zero while the server gets no traffic, so an
+ * avoided server is eventually tried again.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class EwmaServerStats extends ServerStats {
+
+  private final double decayTimeNanos;
+
+  private double ewma;
+
+  private long lastUpdate = System.nanoTime();
+
+  /**
+   * @param loadBalancerStats statistics of the load balancer
+   * @param decayTime time constant of the average, in milliseconds
+   */
+  public EwmaServerStats(LoadBalancerStats loadBalancerStats, long decayTime) {
+    super(loadBalancerStats);
+    this.decayTimeNanos = TimeUnit.MILLISECONDS.toNanos(decayTime);
+  }
+
+  @Override
+  public void noteResponseTime(double msecs) {
+
+    super.noteResponseTime(msecs);
+
+    synchronized (this) {
+      long now = System.nanoTime();
+      double decayed = decay(now);
+      ewma = msecs > decayed ? msecs
+          : decayed + (msecs - decayed) * (1 - Math.exp(-(now - lastUpdate) / decayTimeNanos));
+      lastUpdate = now;
+    }
+  }
+
+  /**
+   * @return the average response time in milliseconds, zero if the server has not responded yet
+   */
+  public synchronized double getResponseTimeEwma() {
+    return decay(System.nanoTime());
+  }
+
+  private double decay(long now) {
+    return ewma * Math.exp(-(now - lastUpdate) / decayTimeNanos);
+  }
+
+}
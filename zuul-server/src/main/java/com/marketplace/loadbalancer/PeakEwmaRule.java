@@ -0,0 +1,91 @@
+package com.marketplace.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.AbstractLoadBalancer;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerStats;
+
+/**
+ * Latency aware load balancing rule: picks two distinct reachable servers at random and routes to
+ * the one with the lowest cost, its average response time weighted by its outstanding requests
+ * (power of two choices). A slow or pausing instance quickly stops receiving its round robin share
+ * of the traffic, while the random choice keeps the load spread over the healthy instances.
+ * 
+ * <p>
+ * Averages are read from the {@link EwmaServerStats} of an {@link EwmaLoadBalancerStats}, with
+ * other statistics the plain response time average is used. A server that has not responded yet
+ * is free while idle and expensive while it has outstanding requests.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+public class PeakEwmaRule extends AbstractLoadBalancerRule {
+
+  // Cost of a busy server without any response time yet
+  private static final double PENALTY = Integer.MAX_VALUE;
+
+  public PeakEwmaRule() {
+    super();
+  }
+
+  public PeakEwmaRule(ILoadBalancer loadBalancer) {
+    super();
+    setLoadBalancer(loadBalancer);
+  }
+
+  @Override
+  public void initWithNiwsConfig(IClientConfig clientConfig) {}
+
+  @Override
+  public Server choose(Object key) {
+
+    ILoadBalancer loadBalancer = getLoadBalancer();
+    if (loadBalancer == null) {
+      return null;
+    }
+
+    List<Server> servers = loadBalancer.getReachableServers();
+    if (servers.isEmpty()) {
+      return null;
+    }
+    if (servers.size() == 1) {
+      return servers.get(0);
+    }
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(servers.size());
+    int second = random.nextInt(servers.size() - 1);
+    if (second >= first) {
+      second++;
+    }
+
+    Server firstServer = servers.get(first);
+    Server secondServer = servers.get(second);
+    return cost(loadBalancer, firstServer) <= cost(loadBalancer, secondServer) ? firstServer
+        : secondServer;
+  }
+
+  private static double cost(ILoadBalancer loadBalancer, Server server) {
+
+    if (!(loadBalancer instanceof AbstractLoadBalancer)) {
+      return 0;
+    }
+
+    ServerStats serverStats =
+        ((AbstractLoadBalancer) loadBalancer).getLoadBalancerStats().getSingleServerStat(server);
+    double responseTime = serverStats instanceof EwmaServerStats
+        ? ((EwmaServerStats) serverStats).getResponseTimeEwma()
+        : serverStats.getResponseTimeAvg();
+    int outstanding = serverStats.getActiveRequestsCount();
+
+    if (responseTime == 0) {
+      return outstanding == 0 ? 0 : PENALTY + outstanding;
+    }
+    return responseTime * (outstanding + 1);
+  }
+
+}
@@ -0,0 +1,140 @@
+package com.marketplace.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.marketplace.security.JwtTokenVerifier.VerifiedJwt;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Bounded cache of the authentications built from verified JWT tokens, so that a token reused by a
+ * client is verified and parsed once. Its statistics are published as the <code>cache.*</code>
+ * meters of the <code>jwt-authentication</code> cache.
+ * 
+ * <p>
+ * Tokens are keyed by their SHA-256 digest, the tokens themselves are not kept. An entry expires
+ * with its token, at the <code>exp</code> claim, and after <code>security.jwt.expiration</code>
+ * seconds at the latest. Tokens that fail verification are not cached.
+ * 
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class JwtAuthenticationCache {
+
+  private final Cache<String, VerifiedToken> cache;
+
+  @Autowired
+  public JwtAuthenticationCache(JwtSecurityConfig jwtSecurityConfig, MeterRegistry meterRegistry,
+      @Value("${security.jwt.cache.maximum-size:10000}") long maximumSize) {
+    super();
+
+    long maximumLifetime = TimeUnit.SECONDS.toNanos(jwtSecurityConfig.getExpiration());
+    this.cache = Caffeine.newBuilder().maximumSize(maximumSize)
+        .expireAfter(new TokenExpiry(maximumLifetime)).recordStats().build();
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, "jwt-authentication");
+  }
+
+  /**
+   * Finds the authentication of a token, verifying it on a cache miss
+   * 
+   * @param token the compact JWT, or the header value holding it after a fixed prefix
+   * @param verifier verifies the token and builds its authentication, returns null for an
+   *        invalid token
+   * @return the shared authentication, null if the token is invalid or expired
+   */
+  public Authentication get(String token, Function<String, VerifiedToken> verifier) {
+
+    VerifiedToken verifiedToken = cache.get(digest(token), key -> verifier.apply(token));
+    return verifiedToken == null || verifiedToken.isExpired() ? null
+        : verifiedToken.getAuthentication();
+  }
+
+  private static String digest(String token) {
+
+    try {
+      return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256")
+          .digest(token.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform implements SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The authentication built from a verified token, with the token expiration
+   */
+  public static class VerifiedToken {
+
+    private final Authentication authentication;
+
+    private final long expiresAt;
+
+    /**
+     * @param authentication authentication built from the token claims
+     * @param expiresAt the <code>exp</code> claim in milliseconds,
+     *        {@link VerifiedJwt#NO_EXPIRATION} if the token has none
+     */
+    public VerifiedToken(Authentication authentication, long expiresAt) {
+      super();
+      this.authentication = authentication;
+      this.expiresAt = expiresAt;
+    }
+
+    public Authentication getAuthentication() {
+      return authentication;
+    }
+
+    public long getExpiresAt() {
+      return expiresAt;
+    }
+
+    boolean isExpired() {
+      return expiresAt < System.currentTimeMillis();
+    }
+
+  }
+
+  private static class TokenExpiry implements Expiry<String, VerifiedToken> {
+
+    private final long maximumLifetime;
+
+    TokenExpiry(long maximumLifetime) {
+      this.maximumLifetime = maximumLifetime;
+    }
+
+    @Override
+    public long expireAfterCreate(String key, VerifiedToken verifiedToken, long currentTime) {
+
+      // Saturates for tokens without expiration
+      long lifetime =
+          TimeUnit.MILLISECONDS.toNanos(verifiedToken.getExpiresAt() - System.currentTimeMillis());
+      return Math.max(0, Math.min(lifetime, maximumLifetime));
+    }
+
+    @Override
+    public long expireAfterUpdate(String key, VerifiedToken verifiedToken, long currentTime,
+        long currentDuration) {
+      return currentDuration;
+    }
+
+    @Override
+    public long expireAfterRead(String key, VerifiedToken verifiedToken, long currentTime,
+        long currentDuration) {
+      return currentDuration;
+    }
+
+  }
+
+}
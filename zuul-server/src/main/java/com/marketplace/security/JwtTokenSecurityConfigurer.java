@@ -15,13 +15,16 @@ public class JwtTokenSecurityConfigurer extends WebSecurityConfigurerAdapter {
   @Autowired
   private JwtSecurityConfig jwtSecurityConfig;
 
+  @Autowired
+  private JwtAuthenticationCache jwtAuthenticationCache;
+
   @Override
   protected void configure(HttpSecurity http) throws Exception {
 
     http.csrf().disable().sessionManagement()
         .sessionCreationPolicy(SessionCreationPolicy.STATELESS);
 
-    http.addFilterAfter(new JwtTokenValidationFilter(jwtSecurityConfig),
+    http.addFilterAfter(new JwtTokenValidationFilter(jwtSecurityConfig, jwtAuthenticationCache),
         UsernamePasswordAuthenticationFilter.class);
 
     http.exceptionHandling().authenticationEntryPoint(
@@ -1,26 +1,33 @@
 package com.marketplace.security;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.stream.Collectors;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.filter.OncePerRequestFilter;
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jwts;
+import com.marketplace.security.JwtAuthenticationCache.VerifiedToken;
+import com.marketplace.security.JwtTokenVerifier.VerifiedJwt;
 
 public class JwtTokenValidationFilter extends OncePerRequestFilter {
 
   private JwtSecurityConfig jwtSecurityConfig;
 
-  public JwtTokenValidationFilter(JwtSecurityConfig jwtSecurityConfig) {
+  private JwtAuthenticationCache jwtAuthenticationCache;
+
+  private JwtTokenVerifier<SimpleGrantedAuthority> jwtTokenVerifier;
+
+  public JwtTokenValidationFilter(JwtSecurityConfig jwtSecurityConfig,
+      JwtAuthenticationCache jwtAuthenticationCache) {
     super();
     this.jwtSecurityConfig = jwtSecurityConfig;
+    this.jwtAuthenticationCache = jwtAuthenticationCache;
+    this.jwtTokenVerifier = new JwtTokenVerifier<SimpleGrantedAuthority>(
+        jwtSecurityConfig.getSecret().getBytes(), SimpleGrantedAuthority::new);
   }
 
   @Override
@@ -35,33 +42,31 @@ public class JwtTokenValidationFilter extends OncePerRequestFilter {
       return;
     }
 
-    String token = header.replace(jwtSecurityConfig.getPrefix(), "");
-
-    try {
-
-      Claims claims = Jwts.parser().setSigningKey(jwtSecurityConfig.getSecret().getBytes())
-          .parseClaimsJws(token).getBody();
+    // Repeated tokens skip signature verification and claim parsing, the token is read in place
+    Authentication auth = jwtAuthenticationCache.get(header, this::verify);
 
-      String username = claims.getSubject();
-      if (username != null) {
-        @SuppressWarnings("unchecked")
-        List<String> authorities = (List<String>) claims.get("authorities");
-
-
-        UsernamePasswordAuthenticationToken auth =
-            new UsernamePasswordAuthenticationToken(username, null,
-                authorities.stream().map(SimpleGrantedAuthority::new).collect(Collectors.toList()));
+    if (auth != null) {
+      SecurityContextHolder.getContext().setAuthentication(auth);
+    } else {
+      SecurityContextHolder.clearContext();
+    }
 
+    filterChain.doFilter(request, response);
+  }
 
-        SecurityContextHolder.getContext().setAuthentication(auth);
-      }
+  private VerifiedToken verify(String header) {
 
-    } catch (Exception e) {
+    VerifiedJwt<SimpleGrantedAuthority> jwt =
+        jwtTokenVerifier.verify(header, jwtSecurityConfig.getPrefix().length());
 
-      SecurityContextHolder.clearContext();
+    if (jwt == null || jwt.getSubject() == null || jwt.getAuthorities() == null) {
+      return null;
     }
 
-    filterChain.doFilter(request, response);
+    UsernamePasswordAuthenticationToken auth =
+        new UsernamePasswordAuthenticationToken(jwt.getSubject(), null, jwt.getAuthorities());
+
+    return new VerifiedToken(auth, jwt.getExpiresAt());
   }
 
 }
@@ -0,0 +1,66 @@
+package com.marketplace.streaming;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Request body stream that fails once more than a maximum number of bytes was read from it, so a
+ * body without a declared length is rejected while it is being forwarded.
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+class LimitedInputStream extends FilterInputStream {
+
+  private final long maxSize;
+
+  private long size;
+
+  LimitedInputStream(InputStream in, long maxSize) {
+    super(in);
+    this.maxSize = maxSize;
+  }
+
+  @Override
+  public int read() throws IOException {
+
+    int b = super.read();
+    if (b != -1) {
+      count(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+
+    int read = super.read(b, off, len);
+    if (read > 0) {
+      count(read);
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+
+    long skipped = super.skip(n);
+    count(skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private void count(long read) throws RequestSizeExceededException {
+
+    size += read;
+    if (size > maxSize) {
+      throw new RequestSizeExceededException(maxSize);
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+package com.marketplace.streaming;
+
+import org.springframework.cloud.netflix.zuul.filters.support.FilterConstants;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import com.netflix.zuul.ZuulFilter;
+import com.netflix.zuul.context.RequestContext;
+import com.netflix.zuul.exception.ZuulException;
+
+/**
+ * Answers <code>413 Payload Too Large</code> instead of a forwarding error when a streamed request
+ * body crossed its size limit on its way to the backend
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class RequestSizeErrorFilter extends ZuulFilter {
+
+  @Override
+  public String filterType() {
+    return FilterConstants.ERROR_TYPE;
+  }
+
+  @Override
+  public int filterOrder() {
+    // Before the error response is sent
+    return FilterConstants.SEND_ERROR_FILTER_ORDER - 1;
+  }
+
+  @Override
+  public boolean shouldFilter() {
+    return sizeExceeded(RequestContext.getCurrentContext().getThrowable()) != null;
+  }
+
+  @Override
+  public Object run() {
+
+    RequestContext context = RequestContext.getCurrentContext();
+    context.setThrowable(new ZuulException(sizeExceeded(context.getThrowable()),
+        HttpStatus.PAYLOAD_TOO_LARGE.value(), HttpStatus.PAYLOAD_TOO_LARGE.getReasonPhrase()));
+    return null;
+  }
+
+  private static RequestSizeExceededException sizeExceeded(Throwable throwable) {
+
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof RequestSizeExceededException) {
+        return (RequestSizeExceededException) cause;
+      }
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,19 @@
+package com.marketplace.streaming;
+
+import java.io.IOException;
+
+/**
+ * Thrown while a request body is forwarded, once it grew larger than the size limit of its path
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+public class RequestSizeExceededException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public RequestSizeExceededException(long maxSize) {
+    super("Request body is larger than " + maxSize + " bytes");
+  }
+
+}
@@ -0,0 +1,122 @@
+package com.marketplace.streaming;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.netflix.zuul.filters.support.FilterConstants;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.unit.DataSize;
+import com.netflix.zuul.ZuulFilter;
+import com.netflix.zuul.context.RequestContext;
+import com.netflix.zuul.exception.ZuulException;
+import com.netflix.zuul.http.HttpServletRequestWrapper;
+
+/**
+ * Forwards request bodies of the streaming paths to the backend as they arrive, so large batch
+ * uploads are never held in the gateway heap. Retries are disabled for these requests, since a
+ * retryable request has its whole body copied to be replayed.
+ *
+ * <p>
+ * The body is read from the servlet request under the Zuul request wrapper, whose input stream
+ * copies the whole body into a byte array on first access.
+ *
+ * <p>
+ * A body larger than the size limit is rejected with <code>413 Payload Too Large</code>, before
+ * it is read when its length is declared, otherwise as soon as the limit is crossed, see
+ * {@link RequestSizeErrorFilter}.
+ *
+ * @author Nikhil Vasaikar
+ *
+ */
+@Component
+public class StreamingRequestFilter extends ZuulFilter {
+
+  private static final Set<HttpMethod> BODY_METHODS =
+      EnumSet.of(HttpMethod.POST, HttpMethod.PUT, HttpMethod.PATCH);
+
+  // The servlet request under the Zuul request wrapper, as Servlet30WrapperFilter unwraps it
+  private static final Field REQUEST_FIELD =
+      ReflectionUtils.findField(HttpServletRequestWrapper.class, "req", HttpServletRequest.class);
+
+  static {
+    ReflectionUtils.makeAccessible(REQUEST_FIELD);
+  }
+
+  private final PathMatcher pathMatcher = new AntPathMatcher();
+
+  private List<String> paths;
+
+  private long maxRequestSize;
+
+  @Autowired
+  public StreamingRequestFilter(
+      @Value("${gateway.streaming.paths:/api/products/batch/**}") List<String> paths,
+      @Value("${gateway.streaming.max-request-size:512MB}") DataSize maxRequestSize) {
+    super();
+    this.paths = paths;
+    this.maxRequestSize = maxRequestSize.toBytes();
+  }
+
+  @Override
+  public String filterType() {
+    return FilterConstants.PRE_TYPE;
+  }
+
+  @Override
+  public int filterOrder() {
+    // After the route of the request is known, before anything else acts on the request
+    return FilterConstants.PRE_DECORATION_FILTER_ORDER + 1;
+  }
+
+  @Override
+  public boolean shouldFilter() {
+
+    RequestContext context = RequestContext.getCurrentContext();
+    HttpServletRequest request = context.getRequest();
+    return context.sendZuulResponse()
+        && BODY_METHODS.contains(HttpMethod.resolve(request.getMethod()))
+        && paths.stream().anyMatch(pattern -> pathMatcher.match(pattern, request.getRequestURI()));
+  }
+
+  @Override
+  public Object run() throws ZuulException {
+
+    RequestContext context = RequestContext.getCurrentContext();
+    HttpServletRequest request = context.getRequest();
+
+    if (request.getContentLengthLong() > maxRequestSize) {
+      throw new ZuulException(new RequestSizeExceededException(maxRequestSize),
+          HttpStatus.PAYLOAD_TOO_LARGE.value(), HttpStatus.PAYLOAD_TOO_LARGE.getReasonPhrase());
+    }
+
+    try {
+      context.set(FilterConstants.REQUEST_ENTITY_KEY,
+          new LimitedInputStream(servletRequest(request).getInputStream(), maxRequestSize));
+      context.set(FilterConstants.RETRYABLE_KEY, false);
+
+    } catch (IOException e) {
+      throw new ZuulException(e, HttpStatus.BAD_REQUEST.value(), e.getMessage());
+    }
+
+    return null;
+  }
+
+  private static HttpServletRequest servletRequest(HttpServletRequest request) {
+
+    if (request instanceof HttpServletRequestWrapper) {
+      return (HttpServletRequest) ReflectionUtils.getField(REQUEST_FIELD, request);
+    }
+    return request;
+  }
+
+}
@@ -1,15 +1,471 @@
 package com.marketplace;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletInputStream;
+import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.netflix.zuul.filters.pre.Servlet30WrapperFilter;
+import org.springframework.cloud.netflix.zuul.filters.support.FilterConstants;
+import org.springframework.mock.web.DelegatingServletInputStream;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.unit.DataSize;
+import com.marketplace.cache.ResponseCache;
+import com.marketplace.cache.ResponseCacheLookupFilter;
+import com.marketplace.cache.ResponseCacheStoreFilter;
+import com.marketplace.loadbalancer.EwmaLoadBalancerStats;
+import com.marketplace.loadbalancer.PeakEwmaRule;
+import com.marketplace.security.JwtAuthenticationCache;
+import com.marketplace.security.JwtAuthenticationCache.VerifiedToken;
+import com.marketplace.security.JwtSecurityConfig;
+import com.marketplace.security.JwtTokenValidationFilter;
+import com.marketplace.security.JwtTokenVerifier.VerifiedJwt;
+import com.marketplace.streaming.RequestSizeErrorFilter;
+import com.marketplace.streaming.RequestSizeExceededException;
+import com.marketplace.streaming.StreamingRequestFilter;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.IRule;
+import com.netflix.loadbalancer.RoundRobinRule;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.reactive.LoadBalancerCommand;
+import com.netflix.zuul.context.RequestContext;
+import com.netflix.zuul.exception.ZuulException;
+import com.sun.net.httpserver.HttpServer;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.MeterRegistry;
+import rx.Observable;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
 public class ZuulServerApplicationTests {
 
+  @Autowired
+  private JwtSecurityConfig jwtSecurityConfig;
+
+  @Autowired
+  private JwtAuthenticationCache jwtAuthenticationCache;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private ResponseCache responseCache;
+
+  @Autowired
+  private ResponseCacheLookupFilter responseCacheLookupFilter;
+
+  @Autowired
+  private ResponseCacheStoreFilter responseCacheStoreFilter;
+
+  @Autowired
+  private RequestSizeErrorFilter requestSizeErrorFilter;
+
+  @After
+  public void tearDown() {
+    SecurityContextHolder.clearContext();
+    RequestContext.getCurrentContext().unset();
+  }
+
   @Test
   public void contextLoads() {}
 
+  @Test
+  public void testTokenVerifiedOnce() throws Exception {
+
+    JwtTokenValidationFilter filter =
+        new JwtTokenValidationFilter(jwtSecurityConfig, jwtAuthenticationCache);
+    String token = token("user", new Date(System.currentTimeMillis() + 60000));
+
+    double hits = cacheGets("hit");
+    double misses = cacheGets("miss");
+
+    for (int i = 0; i < 3; i++) {
+      SecurityContextHolder.clearContext();
+      filter.doFilter(request(token), new MockHttpServletResponse(), new MockFilterChain());
+      assertEquals("user", SecurityContextHolder.getContext().getAuthentication().getName());
+    }
+
+    assertEquals(misses + 1, cacheGets("miss"), 0);
+    assertEquals(hits + 2, cacheGets("hit"), 0);
+  }
+
+  @Test
+  public void testExpiredTokenRejected() throws Exception {
+
+    JwtTokenValidationFilter filter =
+        new JwtTokenValidationFilter(jwtSecurityConfig, jwtAuthenticationCache);
+    String token = token("user", new Date(System.currentTimeMillis() - 60000));
+
+    filter.doFilter(request(token), new MockHttpServletResponse(), new MockFilterChain());
+    assertNull(SecurityContextHolder.getContext().getAuthentication());
+  }
+
+  @Test
+  public void testNonAsciiTokensCachedApart() throws Exception {
+
+    Authentication authentication = new UsernamePasswordAuthenticationToken("user", null,
+        Collections.emptyList());
+
+    // Tokens differing in a non-ASCII character only, the second one is not verified
+    assertEquals(authentication, jwtAuthenticationCache.get("header.pay\u00e9load.signature",
+        token -> new VerifiedToken(authentication, VerifiedJwt.NO_EXPIRATION)));
+    assertNull(jwtAuthenticationCache.get("header.pay\u00e8load.signature", token -> null));
+  }
+
+  @Test
+  public void testResponseCached() throws Exception {
+
+    String body = "{\"Product\":{\"id\":10001}}";
+    responseCache.invalidateAll();
+
+    // Miss, routed to the backend and stored
+    RequestContext context = routedContext("GET", "/api/products/10001");
+    responseCacheLookupFilter.run();
+    assertTrue(context.sendZuulResponse());
+
+    context.setResponseStatusCode(200);
+    context.addOriginResponseHeader("ETag", "\"1\"");
+    context.addOriginResponseHeader("Cache-Control", "max-age=60");
+    context.addZuulResponseHeader("ETag", "\"1\"");
+    context.setResponseDataStream(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    responseCacheStoreFilter.run();
+    assertEquals(body, responseBody(context));
+
+    // Hit, served by the gateway
+    context = routedContext("GET", "/api/products/10001");
+    responseCacheLookupFilter.run();
+    assertFalse(context.sendZuulResponse());
+    assertEquals(200, context.getResponseStatusCode());
+    assertEquals(body, responseBody(context));
+
+    // Other representation
+    context = routedContext("GET", "/api/products/10001");
+    ((MockHttpServletRequest) context.getRequest()).addHeader("Accept", "application/hal+json");
+    responseCacheLookupFilter.run();
+    assertTrue(context.sendZuulResponse());
+
+    // Evicted by a write
+    routedContext("DELETE", "/api/products/10001");
+    responseCacheLookupFilter.run();
+    context = routedContext("GET", "/api/products/10001");
+    responseCacheLookupFilter.run();
+    assertTrue(context.sendZuulResponse());
+  }
+
+  @Test
+  public void testResponseRevalidated() throws Exception {
+
+    String body = "{\"Product\":{\"id\":10002}}";
+    responseCache.invalidateAll();
+
+    // Without Cache-Control nor ETag, not kept
+    RequestContext context = routedContext("GET", "/api/products/10002");
+    responseCacheLookupFilter.run();
+    context.setResponseStatusCode(200);
+    context.setResponseDataStream(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    responseCacheStoreFilter.run();
+    assertEquals(body, responseBody(context));
+
+    context = routedContext("GET", "/api/products/10002");
+    responseCacheLookupFilter.run();
+    assertTrue(context.sendZuulResponse());
+    assertNull(context.getZuulRequestHeaders().get("if-none-match"));
+
+    // No-cache with an entity tag, kept to be revalidated
+    context.setResponseStatusCode(200);
+    context.addOriginResponseHeader("ETag", "\"json-1\"");
+    context.addOriginResponseHeader("Cache-Control", "no-cache");
+    context.addZuulResponseHeader("ETag", "\"json-1\"");
+    context.setResponseDataStream(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    responseCacheStoreFilter.run();
+    assertEquals(body, responseBody(context));
+
+    // Revalidated with the backend, which answers 304
+    context = routedContext("GET", "/api/products/10002");
+    responseCacheLookupFilter.run();
+    assertTrue(context.sendZuulResponse());
+    assertEquals("\"json-1\"", context.getZuulRequestHeaders().get("if-none-match"));
+
+    context.setResponseStatusCode(304);
+    context.addOriginResponseHeader("ETag", "\"json-1\"");
+    context.addOriginResponseHeader("Cache-Control", "no-cache");
+    responseCacheStoreFilter.run();
+    assertEquals(200, context.getResponseStatusCode());
+    assertEquals(body, responseBody(context));
+
+    // Changed on the backend, the new response replaces the cached one
+    context = routedContext("GET", "/api/products/10002");
+    responseCacheLookupFilter.run();
+    assertEquals("\"json-1\"", context.getZuulRequestHeaders().get("if-none-match"));
+
+    String changedBody = "{\"Product\":{\"id\":10002,\"title\":\"Jeans\"}}";
+    context.setResponseStatusCode(200);
+    context.addOriginResponseHeader("ETag", "\"json-2\"");
+    context.addOriginResponseHeader("Cache-Control", "no-cache");
+    context.addZuulResponseHeader("ETag", "\"json-2\"");
+    context.setResponseDataStream(
+        new ByteArrayInputStream(changedBody.getBytes(StandardCharsets.UTF_8)));
+    responseCacheStoreFilter.run();
+    assertEquals(changedBody, responseBody(context));
+
+    context = routedContext("GET", "/api/products/10002");
+    responseCacheLookupFilter.run();
+    assertEquals("\"json-2\"", context.getZuulRequestHeaders().get("if-none-match"));
+  }
+
+  @Test
+  public void testBatchStreamedWithSizeLimit() throws Exception {
+
+    StreamingRequestFilter filter = new StreamingRequestFilter(
+        Arrays.asList("/api/products/batch/**"), DataSize.ofBytes(16));
+    byte[] body = "{\"products\":[]}".getBytes(StandardCharsets.UTF_8);
+
+    // Within the limit, forwarded as it is read and never retried
+    RequestContext context = routedContext("POST", "/api/products/batch");
+    ((MockHttpServletRequest) context.getRequest()).setContent(body);
+    assertTrue(filter.shouldFilter());
+    filter.run();
+    assertFalse((Boolean) context.get(FilterConstants.RETRYABLE_KEY));
+    assertTrue(Arrays.equals(body, StreamUtils
+        .copyToByteArray((InputStream) context.get(FilterConstants.REQUEST_ENTITY_KEY))));
+
+    // Declared too large, rejected before it is read
+    context = routedContext("POST", "/api/products/batch");
+    ((MockHttpServletRequest) context.getRequest()).setContent(new byte[17]);
+    try {
+      filter.run();
+      fail();
+    } catch (ZuulException e) {
+      assertEquals(413, e.nStatusCode);
+    }
+
+    // Chunked, rejected once the limit is crossed while forwarding
+    context = RequestContext.getCurrentContext();
+    MockHttpServletRequest chunkedRequest =
+        new MockHttpServletRequest("POST", "/api/products/batch") {
+          @Override
+          public long getContentLengthLong() {
+            return -1;
+          }
+        };
+    chunkedRequest.setContent(new byte[17]);
+    context.setRequest(chunkedRequest);
+    filter.run();
+    try {
+      StreamUtils.drain((InputStream) context.get(FilterConstants.REQUEST_ENTITY_KEY));
+      fail();
+    } catch (RequestSizeExceededException e) {
+      context.setThrowable(new ZuulException(e, 500, "Forwarding error"));
+    }
+    assertTrue(requestSizeErrorFilter.shouldFilter());
+    requestSizeErrorFilter.run();
+    assertEquals(413, ((ZuulException) context.getThrowable()).nStatusCode);
+  }
+
+  @Test
+  public void testBatchReadLazilyThroughRequestWrapper() throws Exception {
+
+    StreamingRequestFilter filter = new StreamingRequestFilter(
+        Arrays.asList("/api/products/batch/**"), DataSize.ofMegabytes(1));
+    byte[] body = "{\"products\":[]}".getBytes(StandardCharsets.UTF_8);
+    AtomicInteger bytesRead = new AtomicInteger();
+
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/products/batch") {
+      @Override
+      public ServletInputStream getInputStream() {
+        return new DelegatingServletInputStream(new ByteArrayInputStream(body)) {
+          @Override
+          public int read() throws IOException {
+            int read = super.read();
+            bytesRead.incrementAndGet();
+            return read;
+          }
+        };
+      }
+    };
+    request.setContentType("application/json");
+    request.setContent(body);
+
+    // Wrapped as by the Zuul servlet and the servlet 3.0 wrapper filter
+    RequestContext context = routedContext("POST", "/api/products/batch");
+    context.setRequest(new com.netflix.zuul.http.HttpServletRequestWrapper(request));
+    new Servlet30WrapperFilter().run();
+    filter.run();
+
+    // Nothing read until forwarded
+    assertEquals(0, bytesRead.get());
+    assertTrue(Arrays.equals(body, StreamUtils
+        .copyToByteArray((InputStream) context.get(FilterConstants.REQUEST_ENTITY_KEY))));
+    assertTrue(bytesRead.get() >= body.length);
+  }
+
+  @Test
+  public void testPeakEwmaLowersP99() throws Exception {
+
+    // Three catalog stand-ins, one of them slowed down
+    List<HttpServer> catalogServices = Arrays.asList(catalogService(0), catalogService(0),
+        catalogService(200));
+
+    try {
+
+      List<Server> servers = new ArrayList<Server>();
+      for (HttpServer catalogService : catalogServices) {
+        servers.add(new Server("localhost", catalogService.getAddress().getPort()));
+      }
+
+      long roundRobinP99 = p99(new RoundRobinRule(), servers);
+      long peakEwmaP99 = p99(new PeakEwmaRule(), servers);
+
+      assertTrue("p99 round robin : " + roundRobinP99 + " ms, peak EWMA : " + peakEwmaP99 + " ms",
+          peakEwmaP99 < roundRobinP99);
+
+    } finally {
+      catalogServices.forEach(catalogService -> catalogService.stop(0));
+    }
+  }
+
+  /**
+   * Sends 1000 requests from 8 threads through a load balancer using the rule
+   */
+  private long p99(IRule rule, List<Server> servers) throws Exception {
+
+    BaseLoadBalancer loadBalancer =
+        new BaseLoadBalancer("catalog-service", rule, new EwmaLoadBalancerStats("catalog", 10000));
+    loadBalancer.addServers(servers);
+
+    List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try {
+
+      List<Future<?>> clients = new ArrayList<Future<?>>();
+      for (int i = 0; i < 8; i++) {
+        clients.add(executor.submit(() -> {
+          for (int j = 0; j < 125; j++) {
+            latencies.add(LoadBalancerCommand.<Long>builder().withLoadBalancer(loadBalancer)
+                .build().submit(server -> Observable.defer(() -> Observable.just(call(server))))
+                .toBlocking().single());
+          }
+        }));
+      }
+      for (Future<?> client : clients) {
+        client.get(1, TimeUnit.MINUTES);
+      }
+
+    } finally {
+      executor.shutdownNow();
+    }
+
+    Collections.sort(latencies);
+    return latencies.get((int) Math.ceil(latencies.size() * 0.99) - 1);
+  }
+
+  private static HttpServer catalogService(long latency) throws IOException {
+
+    // Without it, delayed acknowledgements add 40 ms to every response
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+
+    HttpServer catalogService = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    catalogService.createContext("/", exchange -> {
+      try {
+        Thread.sleep(latency);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      byte[] body = ("Catalog Service running at port: " + exchange.getLocalAddress().getPort())
+          .getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream responseBody = exchange.getResponseBody()) {
+        responseBody.write(body);
+      }
+    });
+    catalogService.setExecutor(Executors.newCachedThreadPool());
+    catalogService.start();
+    return catalogService;
+  }
+
+  /**
+   * @return latency of a request to the server, in milliseconds
+   */
+  private static long call(Server server) {
+
+    long start = System.nanoTime();
+    try {
+      HttpURLConnection connection =
+          (HttpURLConnection) new URL("http://" + server.getHostPort() + "/").openConnection();
+      try (InputStream body = connection.getInputStream()) {
+        StreamUtils.drain(body);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  private RequestContext routedContext(String method, String uri) {
+
+    RequestContext context = RequestContext.getCurrentContext();
+    context.clear();
+    context.setRequest(new MockHttpServletRequest(method, uri));
+    context.setResponse(new MockHttpServletResponse());
+    context.set(FilterConstants.PROXY_KEY, "catalog-service");
+    return context;
+  }
+
+  private String responseBody(RequestContext context) throws IOException {
+    return StreamUtils.copyToString(context.getResponseDataStream(), StandardCharsets.UTF_8);
+  }
+
+  private MockHttpServletRequest request(String token) {
+
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/products");
+    request.addHeader(jwtSecurityConfig.getHeader(), jwtSecurityConfig.getPrefix() + token);
+    return request;
+  }
+
+  private String token(String username, Date expiration) {
+
+    return Jwts.builder().setSubject(username)
+        .claim("authorities", Arrays.asList("ROLE_USER")).setExpiration(expiration)
+        .signWith(SignatureAlgorithm.HS512, jwtSecurityConfig.getSecret().getBytes()).compact();
+  }
+
+  private double cacheGets(String result) {
+    return meterRegistry.get("cache.gets").tag("cache", "jwt-authentication")
+        .tag("result", result).functionCounter().count();
+  }
+
 }